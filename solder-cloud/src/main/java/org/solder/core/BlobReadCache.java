@@ -0,0 +1,386 @@
+package org.solder.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nimbo.blobs.BlobFS;
+import org.nimbo.blobs.Container;
+
+/**
+ * Server local read-through cache of stored blobs, for container groups backed by object storage (Azure, AWS) where
+ * every {@link Container#read} fetches the blob again.
+ * <p>
+ * Entries are files named &lt;blobFsId&gt;_&lt;digest&gt;, so a reused id never serves old content. The cache is
+ * bounded by maxBytes with least recently used eviction. Concurrent reads of a missing blob share one fetch. Callers
+ * get a File they open after {@link #read} returns, so entries read within the last {@link #EVICT_GRACE_MS} are not
+ * evicted (the bound may be exceeded by what was read that recently); a transfer that already opened its file keeps
+ * reading it after an eviction. A transfer that resolves its files long before opening them reads through a
+ * {@link Pin}, which keeps them until it is closed.
+ */
+public class BlobReadCache {
+
+	private static Log LOG = LogFactory.getLog(BlobReadCache.class.getName());
+
+	/** Size bound (bytes) of the cache; unset: no cache. */
+	public static final String ENV_BLOB_READ_CACHE_BYTES = "ENIGMA_BLOB_READ_CACHE_BYTES";
+	public static final String BLOB_READ_CACHE_DIR = "blobReadCache";
+
+	static final long EVICT_GRACE_MS = 60_000L;
+	static final String TMP_SUFFIX = ".tmp";
+
+	private static final AtomicReference<BlobReadCache> s_default = new AtomicReference<>();
+
+	/**
+	 * Opens the default cache under ENIGMA_INSTALL when ENIGMA_BLOB_READ_CACHE_BYTES is set.
+	 */
+	public static synchronized void initDefault() throws IOException {
+		if (s_default.get() != null) {
+			return;
+		}
+		Map<String, String> mapEnv = System.getenv();
+		String stBytes = mapEnv.get(ENV_BLOB_READ_CACHE_BYTES);
+		if (StringUtils.isBlank(stBytes)) {
+			return;
+		}
+		String stRoot = mapEnv.get("ENIGMA_INSTALL");
+		if (stRoot == null) {
+			stRoot = "";
+		}
+		s_default.set(new BlobReadCache(new File(stRoot, BLOB_READ_CACHE_DIR), Long.parseLong(stBytes.trim())));
+	}
+
+	/**
+	 * @return the default cache, null if none.
+	 */
+	public static BlobReadCache get() {
+		return s_default.get();
+	}
+
+	/**
+	 * The blob's content: from the default cache if there is one, else straight from its container.
+	 */
+	public static File readFile(BlobFS blobFs) throws IOException {
+		return readFile(blobFs, null);
+	}
+
+	/**
+	 * As {@link #readFile(BlobFS)}, keeping the cached file until pin is closed (pin may be null).
+	 */
+	public static File readFile(BlobFS blobFs, Pin pin) throws IOException {
+		BlobReadCache cache = s_default.get();
+		if (cache == null) {
+			return Container.read(blobFs).getFile();
+		}
+		File file = cache.read(blobFs);
+		if (pin != null) {
+			cache.pin(key(blobFs), pin);
+		}
+		return file;
+	}
+
+	/**
+	 * Entries read through a pin are not evicted until it is closed, however long the transfer takes.
+	 */
+	public static final class Pin implements Closeable {
+		final List<String> listKey = new ArrayList<>();
+		BlobReadCache cache;
+
+		public void close() {
+			BlobReadCache cacheT;
+			synchronized (this) {
+				cacheT = cache;
+				cache = null;
+			}
+			if (cacheT != null) {
+				cacheT.unpin(this);
+			}
+		}
+	}
+
+	static final class Entry {
+		final long size;
+		volatile long tAccess;
+		int pins;
+
+		Entry(long size, long tAccess) {
+			this.size = size;
+			this.tAccess = tAccess;
+		}
+	}
+
+	final File dirRoot;
+	final long maxBytes;
+
+	// key -> entry, least recently used first.
+	final LinkedHashMap<String, Entry> mapEntry = new LinkedHashMap<>(1024, 0.75f, true);
+	long totalBytes;
+	// Fetches in flight, shared by concurrent readers of the same blob.
+	final ConcurrentHashMap<String, CompletableFuture<File>> mapLoading = new ConcurrentHashMap<>();
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder bytesLoaded = new LongAdder();
+
+	public BlobReadCache(File dirRoot, long maxBytes) throws IOException {
+		Objects.requireNonNull(dirRoot, "dirRoot");
+		if (maxBytes < 0L) {
+			throw new IllegalArgumentException("Invalid blob read cache size " + maxBytes);
+		}
+		FileUtils.forceMkdir(dirRoot);
+		this.dirRoot = dirRoot;
+		this.maxBytes = maxBytes;
+		load();
+	}
+
+	synchronized void load() {
+		List<File> listFile = new ArrayList<>();
+		File[] aFile = dirRoot.listFiles(File::isFile);
+		if (aFile != null) {
+			for (File file : aFile) {
+				if (file.getName().endsWith(TMP_SUFFIX)) {
+					// Fetch interrupted by a restart.
+					file.delete();
+				} else {
+					listFile.add(file);
+				}
+			}
+		}
+		listFile.sort(Comparator.comparingLong(File::lastModified));
+		for (File file : listFile) {
+			long size = file.length();
+			mapEntry.put(file.getName(), new Entry(size, 0L));
+			totalBytes += size;
+		}
+		evict();
+		LOG.info(String.format("BlobReadCache %s: %d entries, %,d bytes (max %,d)", dirRoot.getAbsolutePath(),
+				mapEntry.size(), totalBytes, maxBytes));
+	}
+
+	/**
+	 * Cache key, null if the blob cannot be cached safely (no digest to tell reused ids apart).
+	 */
+	static String key(BlobFS blobFs) {
+		String stDigest = blobFs.getInfo() != null ? blobFs.getInfo().get("digest") : null;
+		if (StringUtils.isEmpty(stDigest) || !StringUtils.isAlphanumeric(stDigest)) {
+			return null;
+		}
+		return blobFs.getId() + "_" + stDigest;
+	}
+
+	/**
+	 * The blob's content, fetched from its container on a miss.
+	 */
+	public File read(BlobFS blobFs) throws IOException {
+		String key = key(blobFs);
+		if (key == null) {
+			misses.increment();
+			return Container.read(blobFs).getFile();
+		}
+		File file = lookup(key, blobFs);
+		if (file != null) {
+			hits.increment();
+			return file;
+		}
+
+		CompletableFuture<File> cf = new CompletableFuture<>();
+		CompletableFuture<File> cfLoading = mapLoading.putIfAbsent(key, cf);
+		if (cfLoading != null) {
+			// Another reader is fetching it.
+			hits.increment();
+			return await(cfLoading, key);
+		}
+		try {
+			// Loaded between the lookup and taking the slot.
+			file = lookup(key, blobFs);
+			if (file != null) {
+				hits.increment();
+				cf.complete(file);
+				return file;
+			}
+			misses.increment();
+			file = load(key, blobFs);
+			cf.complete(file);
+			return file;
+		} catch (IOException | RuntimeException e) {
+			cf.completeExceptionally(e);
+			throw e;
+		} finally {
+			mapLoading.remove(key, cf);
+		}
+	}
+
+	File lookup(String key, BlobFS blobFs) {
+		File file = new File(dirRoot, key);
+		synchronized (this) {
+			Entry entry = mapEntry.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (!file.isFile() || (blobFs.getSize() > 0L && entry.size != blobFs.getSize())) {
+				LOG.info(String.format("BlobReadCache dropping %s (size=%d, expect=%d)", key, entry.size, blobFs.getSize()));
+				mapEntry.remove(key);
+				totalBytes -= entry.size;
+				file.delete();
+				return null;
+			}
+			entry.tAccess = System.currentTimeMillis();
+		}
+		return file;
+	}
+
+	synchronized void pin(String key, Pin pin) {
+		Entry entry = key != null ? mapEntry.get(key) : null;
+		if (entry == null) {
+			// Not cached: read straight from its container.
+			return;
+		}
+		synchronized (pin) {
+			if (pin.cache != null && pin.cache != this) {
+				throw new IllegalStateException("Pin used with another cache");
+			}
+			pin.cache = this;
+			pin.listKey.add(key);
+		}
+		entry.pins++;
+	}
+
+	synchronized void unpin(Pin pin) {
+		long tNow = System.currentTimeMillis();
+		for (String key : pin.listKey) {
+			Entry entry = mapEntry.get(key);
+			if (entry != null && entry.pins > 0) {
+				entry.pins--;
+				// The grace period starts once the transfer is done.
+				entry.tAccess = tNow;
+			}
+		}
+		pin.listKey.clear();
+		evict();
+	}
+
+	static File await(CompletableFuture<File> cf, String key) throws IOException {
+		try {
+			return cf.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for blob " + key);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof IOException) {
+				throw (IOException) t;
+			}
+			throw SolderException.rethrow(t);
+		}
+	}
+
+	File load(String key, BlobFS blobFs) throws IOException {
+		File fileSrc = Container.read(blobFs).getFile();
+		File file = new File(dirRoot, key);
+		File fileTmp = new File(dirRoot, key + TMP_SUFFIX);
+		boolean fError = true;
+		try {
+			long size = copy(fileSrc, fileTmp);
+			if (blobFs.getSize() > 0L && size != blobFs.getSize()) {
+				throw new SolderException(String.format("Blob %d read %,d bytes, expect %,d", blobFs.getId(), size,
+						blobFs.getSize()));
+			}
+			Files.move(fileTmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			fError = false;
+			bytesLoaded.add(size);
+			synchronized (this) {
+				Entry entryPrev = mapEntry.put(key, new Entry(size, System.currentTimeMillis()));
+				if (entryPrev != null) {
+					totalBytes -= entryPrev.size;
+				}
+				totalBytes += size;
+				evict();
+			}
+			return file;
+		} finally {
+			if (fError) {
+				fileTmp.delete();
+			}
+		}
+	}
+
+	synchronized void evict() {
+		long tNow = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, Entry>> iter = mapEntry.entrySet().iterator(); totalBytes > maxBytes
+				&& iter.hasNext();) {
+			Map.Entry<String, Entry> me = iter.next();
+			if (me.getValue().pins > 0 || tNow - me.getValue().tAccess < EVICT_GRACE_MS) {
+				// Pinned, or just handed out: the reader may not have opened it yet.
+				continue;
+			}
+			File file = new File(dirRoot, me.getKey());
+			if (file.delete() || !file.exists()) {
+				iter.remove();
+				totalBytes -= me.getValue().size;
+				evictions.increment();
+			}
+		}
+	}
+
+	static long copy(File src, File dest) throws IOException {
+		try (FileChannel fcIn = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+				FileChannel fcOut = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = fcIn.size();
+			for (long pos = 0L; pos < size;) {
+				long n = fcIn.transferTo(pos, size - pos, fcOut);
+				if (n <= 0L) {
+					throw new EOFException(String.format("Unexpected EOF at %d copying %s", pos, src.getName()));
+				}
+				pos += n;
+			}
+			return size;
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized String toString() {
+		return String.format("BlobReadCache %s entries=%d bytes=%,d max=%,d hits=%d misses=%d evictions=%d loaded=%,d",
+				dirRoot.getAbsolutePath(), mapEntry.size(), totalBytes, maxBytes, hits.sum(), misses.sum(),
+				evictions.sum(), bytesLoaded.sum());
+	}
+}
@@ -0,0 +1,196 @@
+package org.solder.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.solder.rest.solder.SolderEntry;
+
+import com.jnk.util.CompareUtils;
+import com.jnk.util.PrintUtils;
+
+/**
+ * Content of an entry (digest known) assembled in a file from parts sent in order.
+ * <p>
+ * Each part carries its offset (which must be the bytes received so far) and its own SHA-256, and is kept only if it
+ * arrived whole with that digest; a failed part is truncated away so the sender can ask {@link #getReceived()} and
+ * resend from there. A part already received (its acknowledgement lost) is skipped. The whole content digest is
+ * accumulated part by part and checked by {@link #finish()}.
+ * <p>
+ * The monitor guards only the assembly state: a part's body is read without it, so {@link #getReceived()} answers
+ * while a part is streaming. One part at a time: an append while another is in progress is rejected.
+ */
+public class PartFile implements Closeable {
+
+	private static Log LOG = LogFactory.getLog(PartFile.class.getName());
+
+	/** Largest part accepted. */
+	public static final long MAX_PART_SIZE = 64L << 20;
+	static final int COPY_BUFFER_SIZE = 64 << 10;
+
+	final SolderEntry se;
+	final FileChannel fc;
+	// SHA-256 of the parts received so far.
+	MessageDigest md;
+	long received;
+	// A part is being read (outside the monitor).
+	boolean fAppending;
+	boolean fClosed;
+
+	/**
+	 * @param file created or truncated.
+	 */
+	public PartFile(SolderEntry se, File file) throws IOException {
+		this.se = Objects.requireNonNull(se, "SolderEntry");
+		Objects.requireNonNull(file, "file");
+		if (se.isDigestPending()) {
+			throw new SolderException("Part upload needs the digest of " + se.getRelPath());
+		}
+		this.fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			this.md = MessageDigest.getInstance(SolderEntry.tlMessageDigest.get().getAlgorithm());
+		} catch (Exception e) {
+			IOUtils.closeQuietly(fc);
+			throw SolderException.rethrow(e);
+		}
+	}
+
+	public SolderEntry getEntry() {
+		return se;
+	}
+
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Appends len bytes read from is at off.
+	 *
+	 * @param partDigest SHA-256 of the part; a part that does not match is dropped.
+	 * @return bytes received so far (including this part).
+	 */
+	public long appendPart(long off, long len, String partDigest, InputStream is) throws IOException {
+		if (len <= 0L || len > MAX_PART_SIZE) {
+			throw new SolderException(String.format("Invalid part length %,d for %s (max %,d)", len, se.getRelPath(), MAX_PART_SIZE));
+		}
+		MessageDigest mdAll;
+		synchronized (this) {
+			requireOpen();
+			if (fAppending) {
+				throw new SolderException(String.format("Part of %s at %,d while another part is in progress", se.getRelPath(), off));
+			}
+			if (off + len <= received) {
+				// Already stored (the acknowledgement was lost); the whole digest still covers it at finish.
+				LOG.info(String.format("Part [%,d,+%,d) of %s already received (%,d)", off, len, se.getRelPath(), received));
+				mdAll = null;
+			} else {
+				if (off != received) {
+					throw new SolderException(String.format("Part of %s at %,d; expected %,d", se.getRelPath(), off, received));
+				}
+				if (len > se.getSize() - received) {
+					throw new SolderException(String.format("Part [%,d,+%,d) is past the size %,d of %s", off, len, se.getSize(), se.getRelPath()));
+				}
+				try {
+					mdAll = (MessageDigest) md.clone();
+				} catch (CloneNotSupportedException e) {
+					throw SolderException.rethrow(e);
+				}
+				fAppending = true;
+			}
+		}
+		if (mdAll == null) {
+			IOUtils.consume(is);
+			return getReceived();
+		}
+
+		MessageDigest mdPart = SolderEntry.tlMessageDigest.get();
+		mdPart.reset();
+
+		boolean fError = true;
+		try {
+			byte[] aB = new byte[COPY_BUFFER_SIZE];
+			long written = 0L;
+			while (written < len) {
+				int n = is.read(aB, 0, (int) Math.min(aB.length, len - written));
+				if (n < 0) {
+					throw new EOFException(String.format("Part of %s ended at %,d of %,d bytes", se.getRelPath(), written, len));
+				}
+				mdPart.update(aB, 0, n);
+				mdAll.update(aB, 0, n);
+				ByteBuffer bb = ByteBuffer.wrap(aB, 0, n);
+				while (bb.hasRemaining()) {
+					written += fc.write(bb, off + written);
+				}
+			}
+			String digestPart = PrintUtils.toHexString(mdPart.digest());
+			if (!CompareUtils.stringEquals(digestPart, partDigest)) {
+				throw new SolderException(String.format("Part digest mismatch for %s at %,d. writeDigest=%s, expect=%s",
+						se.getRelPath(), off, digestPart, partDigest));
+			}
+			fError = false;
+		} finally {
+			synchronized (this) {
+				fAppending = false;
+				if (!fError) {
+					md = mdAll;
+					received += len;
+				} else if (!fClosed) {
+					fc.truncate(received);
+				}
+			}
+		}
+		return getReceived();
+	}
+
+	/**
+	 * Checks size and digest of the assembled content, then syncs and closes the file.
+	 *
+	 * @return the content digest.
+	 */
+	public synchronized String finish() throws IOException {
+		requireOpen();
+		if (fAppending) {
+			throw new SolderException("Part upload of " + se.getRelPath() + " finished while a part is in progress");
+		}
+		if (received != se.getSize()) {
+			throw new SolderException(String.format("Part upload of %s incomplete: %,d of %,d bytes", se.getRelPath(),
+					received, se.getSize()));
+		}
+		String digestNew = PrintUtils.toHexString(md.digest());
+		if (!CompareUtils.stringEquals(digestNew, se.getDigest())) {
+			String stError = String.format("Write digest mismatch for %s. writeDigest=%s, prevCalc=%s", se.getRelPath(),
+					digestNew, se.getDigest());
+			LOG.info(stError);
+			throw new SolderException(stError);
+		}
+		fc.force(false);
+		fClosed = true;
+		fc.close();
+		return digestNew;
+	}
+
+	void requireOpen() throws IOException {
+		if (fClosed) {
+			throw new SolderException("Part upload closed for " + se.getRelPath());
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		if (fClosed) {
+			return;
+		}
+		fClosed = true;
+		IOUtils.closeQuietly(fc);
+	}
+}
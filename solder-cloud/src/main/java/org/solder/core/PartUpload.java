@@ -0,0 +1,83 @@
+package org.solder.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+import org.apache.commons.io.IOUtils;
+import org.nimbo.blobs.BlobFS;
+import org.nimbo.blobs.BlobFileTransact;
+import org.solder.rest.solder.SolderEntry;
+
+/**
+ * A blob uploaded in parts, assembled in place in its BlobFileTransact by a {@link PartFile}.
+ * <p>
+ * {@link #finish()} commits the transaction once the assembled content checks out. Closing an unfinished upload
+ * aborts it.
+ */
+public class PartUpload implements Closeable {
+
+	/** Largest part accepted. */
+	public static final long MAX_PART_SIZE = PartFile.MAX_PART_SIZE;
+
+	final SRepo srepo;
+	final BlobFS blob;
+	final BlobFileTransact bft;
+	final PartFile pf;
+	boolean fDone;
+
+	PartUpload(SRepo srepo, SolderEntry se, BlobFS blob, BlobFileTransact bft) throws IOException {
+		this.srepo = Objects.requireNonNull(srepo, "srepo");
+		this.blob = Objects.requireNonNull(blob, "blob");
+		this.bft = Objects.requireNonNull(bft, "bft");
+		this.pf = new PartFile(se, bft.getFile());
+	}
+
+	public SolderEntry getEntry() {
+		return pf.getEntry();
+	}
+
+	public long getReceived() {
+		return pf.getReceived();
+	}
+
+	/**
+	 * @see PartFile#appendPart(long, long, String, InputStream)
+	 */
+	public long appendPart(long off, long len, String partDigest, InputStream is) throws IOException {
+		return pf.appendPart(off, len, partDigest, is);
+	}
+
+	/**
+	 * Checks size and digest of the assembled content and commits the blob.
+	 *
+	 * @return the blobFsId (an existing one if the same content was stored meanwhile).
+	 */
+	public synchronized long finish() throws IOException {
+		if (fDone) {
+			throw new SolderException("Part upload closed for " + pf.getEntry().getRelPath());
+		}
+		SolderEntry se = pf.getEntry();
+		String digestNew = pf.finish();
+		long blobFsIdExisting = srepo.findBlobs(new String[] { se.getDigest() })[0];
+		if (blobFsIdExisting > 0L) {
+			se.setBlobFsId(blobFsIdExisting);
+			return blobFsIdExisting;
+		}
+		blob.setSizeAndDigest(se.getSize(), digestNew);
+		bft.commit();
+		fDone = true;
+		se.setBlobFsId(blob.getId());
+		return blob.getId();
+	}
+
+	public synchronized void close() throws IOException {
+		if (fDone) {
+			return;
+		}
+		fDone = true;
+		IOUtils.closeQuietly(pf);
+		bft.abort();
+	}
+}
@@ -2,6 +2,7 @@ package org.solder.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -82,7 +83,8 @@ public class SCommit implements ISerializable,Comparable<SCommit> {
 
 		SQLTableSchema tsCommit;
 
-		SQLQuery qCommitIns, qCommitSelId, qCommitSelRepo, qCommitDelOne, qCommitSeq;
+		SQLQuery qCommitIns, qCommitSelId, qCommitSelRepo, qCommitSelRepoIds, qCommitSelPage, qCommitSelPageDesc,
+				qCommitDelOne, qCommitSeq;
 
 		CommitQueries(String dbName, DBType dbType) throws IOException {
 
@@ -96,7 +98,8 @@ public class SCommit implements ISerializable,Comparable<SCommit> {
 
 			String stPrimaryKey = "id";
 			String[] aUnique = new String[] { "repo_sid,prev_id,chash" };
-			String[] aIndex = new String[] {};
+			// Paging (selectCommitPage) walks a repo's commits by id.
+			String[] aIndex = new String[] { "repo_sid,id" };
 
 			tsCommit.setCreateScriptParams(stPrimaryKey, aUnique, aIndex, Tenant.FILE_GROUP, SCOMMIT_SEQ);
 			tsCommit.setSerializerFieldType("info", FieldType.PROP);
@@ -110,12 +113,37 @@ public class SCommit implements ISerializable,Comparable<SCommit> {
 			qCommitIns = DriverUtil.createInsertQuery(dbName, dbType, tsCommit);
 			qCommitSelId = DriverUtil.createSelectQuery(dbName, dbType, tsCommit, "id", "ById");
 			qCommitSelRepo = DriverUtil.createSelectQuery(dbName, dbType, tsCommit, "repo_sid", "ByRepo");
+			// A full chunk of ids; short chunks repeat their last id.
+			qCommitSelRepoIds = DriverUtil.createSelectQuery(dbName, dbType, tsCommit, "repo_sid", "ByRepoIds", (sb) -> {
+				sb.append(" AND id IN (?");
+				for (int i = 1; i < MAX_IDS_PER_SELECT; i++) {
+					sb.append(",?");
+				}
+				sb.append(")");
+			}, null);
+			// Every bound is always bound; an unset one gets a value that matches all rows.
+			qCommitSelPage = DriverUtil.createSelectQuery(dbName, dbType, tsCommit, "repo_sid", "ByRepoPage", (sb) -> {
+				sb.append(" AND id > ? AND id < ? AND create_date >= ? AND create_date < ? ORDER BY id");
+			}, null);
+			qCommitSelPageDesc = DriverUtil.createSelectQuery(dbName, dbType, tsCommit, "repo_sid", "ByRepoPageDesc",
+					(sb) -> {
+						sb.append(" AND id > ? AND id < ? AND create_date >= ? AND create_date < ? ORDER BY id DESC");
+					}, null);
 			qCommitDelOne = DriverUtil.createDeleteQuery(dbName, dbType, tsCommit, "id", "One");
-			SQLQuery.addToMap(qCommitIns, qCommitSelRepo, qCommitDelOne, qCommitSeq);
+			SQLQuery.addToMap(qCommitIns, qCommitSelRepo, qCommitSelRepoIds, qCommitSelPage, qCommitSelPageDesc,
+					qCommitDelOne, qCommitSeq);
 		}
 	}
 	
 	
+	/** Ids bound in one select of {@link #selectCommitByIds}. */
+	static final int MAX_IDS_PER_SELECT = 256;
+	/** Largest page of {@link #selectCommitPage} served to a client. */
+	public static final int MAX_PAGE_SIZE = 10_000;
+	/** Date bounds of an unbounded {@link #selectCommitPage}, inside the range of every supported database. */
+	static final Date DATE_MIN = new Date(0L);
+	static final Date DATE_MAX = new Date(253_402_214_400_000L); // 9999-12-31
+	
 	public static int generateCommitId() throws IOException {
 		return (int) SQLTm.get().nextSequenceId(commQ.qCommitSeq);
 	}
@@ -310,6 +338,71 @@ public class SCommit implements ISerializable,Comparable<SCommit> {
 		return tref.get();
 	}
 
+	/**
+	 * Commits of the repo among the given ids, in no particular order. Unknown ids and ids of other repos are left
+	 * out.
+	 */
+	static List<SCommit> selectCommitByIds(int repoSeqId,int[] aId) throws IOException {
+		if (repoSeqId<=0 ) {
+			throw new SolderException("Invalid repoSeqId "+repoSeqId);
+		}
+		Objects.requireNonNull(aId,"ids");
+		int[] aIdDistinct = Arrays.stream(aId).distinct().toArray();
+		List<SCommit> list = new ArrayList<>();
+		for (int off = 0; off < aIdDistinct.length; off += MAX_IDS_PER_SELECT) {
+			int offFinal = off;
+			int n = Math.min(MAX_IDS_PER_SELECT, aIdDistinct.length - off);
+			// Bound in order: repo_sid, then every IN placeholder.
+			SQLTm.get().select(commQ.qCommitSelRepoIds, (encoder) -> {
+				encoder.writeInt("repo_sid", repoSeqId);
+				for (int i = 0; i < MAX_IDS_PER_SELECT; i++) {
+					encoder.writeInt("id", aIdDistinct[offFinal + Math.min(i, n - 1)]);
+				}
+			}, (decoder) -> {
+				while (decoder.next()) {
+					SCommit scommit = new SCommit();
+					scommit.deserialize(decoder);
+					list.add(scommit);
+				}
+			}, null);
+		}
+		return list;
+	}
+	
+	/**
+	 * A page of the repo's commits ordered by id, read from the (repo_sid,id) index without loading the rest.
+	 * 
+	 * @param afterId only ids above it (<=0: no bound).
+	 * @param beforeId only ids below it (<=0: no bound).
+	 * @param dateFrom only commits created at or after it (null: no bound).
+	 * @param dateTo only commits created before it (null: no bound).
+	 * @param limit most commits returned (<=0: no limit).
+	 * @param fDesc newest (highest id) first.
+	 */
+	static List<SCommit> selectCommitPage(int repoSeqId,int afterId,int beforeId,Date dateFrom,Date dateTo,int limit,
+			boolean fDesc) throws IOException {
+		if (repoSeqId<=0 ) {
+			throw new SolderException("Invalid repoSeqId "+repoSeqId);
+		}
+		List<SCommit> list = new ArrayList<>();
+		// Bound in placeholder order: repo_sid, id > ?, id < ?, create_date >= ?, create_date < ?.
+		SQLTm.get().select(fDesc ? commQ.qCommitSelPageDesc : commQ.qCommitSelPage, (encoder) -> {
+			encoder.writeInt("repo_sid", repoSeqId);
+			encoder.writeInt("id", afterId > 0 ? afterId : 0);
+			encoder.writeInt("id", beforeId > 0 ? beforeId : Integer.MAX_VALUE);
+			encoder.writeDate("create_date", dateFrom != null ? dateFrom : DATE_MIN);
+			encoder.writeDate("create_date", dateTo != null ? dateTo : DATE_MAX);
+		}, (decoder) -> {
+			// Rows past the page are never read.
+			while ((limit <= 0 || list.size() < limit) && decoder.next()) {
+				SCommit scommit = new SCommit();
+				scommit.deserialize(decoder);
+				list.add(scommit);
+			}
+		}, null);
+		return list;
+	}
+
 	static List<SCommit> selectCommitByRepo(int repoSeqId) throws IOException {
 		if (repoSeqId<=0 ) {
 			throw new SolderException("Invalid repoSeqId "+repoSeqId);
@@ -1,10 +1,14 @@
 package org.solder.core;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.text.DateFormat;
@@ -21,6 +25,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
@@ -28,7 +34,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nimbo.blobs.BlobFS;
-import org.nimbo.blobs.BlobFile;
 import org.nimbo.blobs.BlobFileTransact;
 import org.nimbo.blobs.Container;
 import org.nimbo.blobs.ContainerGroup;
@@ -38,6 +43,8 @@ import org.solder.rest.solder.SCommitInfo;
 import org.solder.rest.solder.SLocalRepo;
 import org.solder.rest.solder.SRepoInfo;
 import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.RsyncDelta;
 import org.solder.vsync.SyncLocalRepo;
 
 import com.aura.crypto.CryptoScheme;
@@ -83,8 +90,9 @@ public class SRepo implements ISerializable {
 		if (srepo==null) {
 			return null;
 		} else {
-			SRepoInfo repoInfo = new SRepoInfo(srepo.sid, srepo.id, srepo.tSchema, srepo.tenantId, srepo.aoId,srepo.tag,srepo.commitDir,srepo.commitId,
-				srepo.dateCommit,srepo.dateChange,srepo.dateCreate,srepo.dateUpdate);
+			SRepoInfo repoInfo = srepo.readRow(() -> new SRepoInfo(srepo.sid, srepo.id, srepo.tSchema, srepo.tenantId,
+					srepo.aoId, srepo.tag, srepo.commitDir, srepo.commitId, srepo.dateCommit, srepo.dateChange,
+					srepo.dateCreate, srepo.dateUpdate));
 			repoInfo.setParent(srepo);
 			return repoInfo;
 		}
@@ -112,6 +120,36 @@ public class SRepo implements ISerializable {
 	static AtomicBoolean s_fInit = new AtomicBoolean(false);
 	static RepQueries repQ = null;
 	static Cache<SRepo> cacheRepo = null;
+	
+	/** How old (ms) the repo row read paths use may be; 0 reads it on every call. */
+	public static final long DEFAULT_TIP_STALENESS_MS = 1000L;
+	/** Overrides {@link #DEFAULT_TIP_STALENESS_MS}. */
+	public static final String ENV_TIP_STALENESS_MS = "ENIGMA_SOLDER_TIP_STALENESS_MS";
+	
+	private static volatile long s_tipStalenessMs = DEFAULT_TIP_STALENESS_MS;
+	
+	public static long getTipStalenessMs() {
+		return s_tipStalenessMs;
+	}
+	
+	public static void setTipStalenessMs(long tipStalenessMs) {
+		if (tipStalenessMs < 0L) {
+			throw new IllegalArgumentException("Invalid tip staleness " + tipStalenessMs);
+		}
+		s_tipStalenessMs = tipStalenessMs;
+	}
+	
+	/**
+	 * Applies ENIGMA_SOLDER_TIP_STALENESS_MS when set.
+	 */
+	public static void initTipStaleness() {
+		String stMs = System.getenv(ENV_TIP_STALENESS_MS);
+		if (StringUtils.isBlank(stMs)) {
+			return;
+		}
+		setTipStalenessMs(Long.parseLong(stMs.trim()));
+		LOG.info(String.format("SRepo tip staleness %,d ms", s_tipStalenessMs));
+	}
 
 	public static void init(SQLDatabase db) throws IOException {
 		SQLDatabase dbFinal = Objects.requireNonNull(db, "db");
@@ -191,6 +229,12 @@ public class SRepo implements ISerializable {
 	protected boolean fDeleted;
 	protected int tenantId, aoId, commitId;
 	protected Date dateCommit, dateChange, dateCreate, dateUpdate;
+	// System.nanoTime() when the fields last matched the database row (0: unknown).
+	long tRowNanos;
+	
+	// Row fields: getters read them optimistically and never wait on the monitor. Writers hold the monitor (one at a
+	// time, across their database call) and take the write lock only while assigning the fields.
+	final StampedLock lockRow = new StampedLock();
 
 	public SRepo() {
 	}
@@ -263,49 +307,130 @@ public class SRepo implements ISerializable {
 				CacheHelper.getKey(KEY_SID, sid) };
 	}
 
+	/**
+	 * Reloads the row from the database. Paths that decide on the tip for a write use this;
+	 * read paths use {@link #refreshIfStale()}.
+	 */
 	public synchronized void refresh(IRepoFileService rfs) throws IOException {
 		// rfs is ignored as this is a server object.
-		SRepo srepo = selectRepoById(id, this);
-		if (srepo != this) {
+		SRepo srepo = selectRepoById(id, null);
+		if (srepo == null || srepo.sid != sid) {
 			throw new IOException("Unable to refresh lock id=" + id);
 		}
+		long stamp = lockRow.writeLock();
+		try {
+			sid = srepo.sid;
+			id = srepo.id;
+			tSchema = srepo.tSchema;
+			tenantId = srepo.tenantId;
+			aoId = srepo.aoId;
+			tag = srepo.tag;
+			fDeleted = srepo.fDeleted;
+			commitDir = srepo.commitDir;
+			commitId = srepo.commitId;
+			dateCommit = srepo.dateCommit;
+			dateChange = srepo.dateChange;
+			dateCreate = srepo.dateCreate;
+			dateUpdate = srepo.dateUpdate;
+			onRowCurrent();
+		} finally {
+			lockRow.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Reads row fields consistently without blocking (retried under the read lock if a writer got in).
+	 */
+	<T> T readRow(Supplier<T> sRead) {
+		long stamp = lockRow.tryOptimisticRead();
+		T t = sRead.get();
+		if (!lockRow.validate(stamp)) {
+			stamp = lockRow.readLock();
+			try {
+				t = sRead.get();
+			} finally {
+				lockRow.unlockRead(stamp);
+			}
+		}
+		return t;
+	}
+	
+	/**
+	 * Reloads the row only if it was last read (or written) more than {@link #getTipStalenessMs()} ago, so hot read
+	 * paths do not cost a database round trip each. Writes by this server are seen at once (they update this object);
+	 * other servers' writes within the bound.
+	 */
+	public void refreshIfStale() throws IOException {
+		if (isRowFresh()) {
+			return;
+		}
+		synchronized (this) {
+			// Readers that found it stale together: the first one reloads it.
+			if (!isRowFresh()) {
+				refresh(null);
+			}
+		}
+	}
+	
+	boolean isRowFresh() {
+		long stalenessMs = s_tipStalenessMs;
+		long tRow = readRow(() -> tRowNanos);
+		return stalenessMs > 0L && tRow != 0L
+				&& System.nanoTime() - tRow < TimeUnit.MILLISECONDS.toNanos(stalenessMs);
+	}
+	
+	/**
+	 * The next {@link #refreshIfStale()} reads the database.
+	 */
+	public void invalidateTip() {
+		long stamp = lockRow.writeLock();
+		try {
+			tRowNanos = 0L;
+		} finally {
+			lockRow.unlockWrite(stamp);
+		}
+	}
+	
+	// Under the write lock.
+	void onRowCurrent() {
+		tRowNanos = System.nanoTime();
 	}
 
-	public synchronized int getSeqId() {
-		return sid;
+	public int getSeqId() {
+		return readRow(() -> sid);
 	}
 
-	public synchronized String getId() {
-		return id;
+	public String getId() {
+		return readRow(() -> id);
 	}
 
-	public synchronized String getName() {
+	public String getName() {
 		return getId();
 	}
 
-	public synchronized String getTSchema() {
-		return tSchema;
+	public String getTSchema() {
+		return readRow(() -> tSchema);
 	}
 
-	public synchronized int getTenantId() {
-		return tenantId;
+	public int getTenantId() {
+		return readRow(() -> tenantId);
 	}
 
-	public synchronized int getAoId() {
-		return aoId;
+	public int getAoId() {
+		return readRow(() -> aoId);
 	}
 
-	public synchronized String getTag() {
-		return tag;
+	public String getTag() {
+		return readRow(() -> tag);
 	}
 
-	public synchronized String getCommitDir() {
-		return commitDir;
+	public String getCommitDir() {
+		return readRow(() -> commitDir);
 	}
 
 
-	public synchronized int getCommitId() {
-		return commitId;
+	public int getCommitId() {
+		return readRow(() -> commitId);
 	}
 
 	/**
@@ -313,7 +438,11 @@ public class SRepo implements ISerializable {
 	 * Call at beginCommit (fail fast) and again at commitUpload (tip may have moved).
 	 */
 	public synchronized void requireExpectedTip(int idPrevExpected) throws IOException {
-		refresh(null);
+		refreshIfStale();
+		if (idPrevExpected != commitId) {
+			// The cached tip may be behind the client's; only a fresh read can reject it.
+			refresh(null);
+		}
 		if (idPrevExpected != commitId) {
 			throw new SolderException(String.format(
 					"Stale commit base; client prev_id=%d server tip=%d repo=%s(%d)",
@@ -321,20 +450,20 @@ public class SRepo implements ISerializable {
 		}
 	}
 
-	public synchronized Date getCommitDate() {
-		return dateCommit;
+	public Date getCommitDate() {
+		return readRow(() -> dateCommit);
 	}
 
-	public synchronized Date getChangeDate() {
-		return dateChange;
+	public Date getChangeDate() {
+		return readRow(() -> dateChange);
 	}
 
-	public synchronized Date getCreateDate() {
-		return dateCreate;
+	public Date getCreateDate() {
+		return readRow(() -> dateCreate);
 	}
 
-	public synchronized Date getLastDate() {
-		return dateUpdate;
+	public Date getLastDate() {
+		return readRow(() -> dateUpdate);
 	}
 	
 	public synchronized int[] pruneCommits(int[] aCommitIdsToKeep,boolean fDryRun)throws IOException {
@@ -387,7 +516,7 @@ public class SRepo implements ISerializable {
 	}
 	
 	public boolean isDeleted() {
-		return fDeleted;
+		return readRow(() -> fDeleted);
 	}
 
 	public synchronized void updateChange(String tagNew, Date dateChange) throws IOException {
@@ -412,9 +541,16 @@ public class SRepo implements ISerializable {
 				cmb.putIfChanged("change_date", dateChangeFinal, this.dateChange);
 				cmb.putIfChanged("change_tag", tagFinal, tag);
 			});
-			this.tag = tagFinal;
-			this.dateChange = dateChangeFinal;
-			this.dateUpdate = dateUpdateNew;
+			long stamp = lockRow.writeLock();
+			try {
+				this.tag = tagFinal;
+				this.dateChange = dateChangeFinal;
+				this.dateUpdate = dateUpdateNew;
+			} finally {
+				lockRow.unlockWrite(stamp);
+			}
+			// Other columns may have moved meanwhile.
+			invalidateTip();
 
 		} else {
 			Event.log(SEvent.DbUpdateFail, sid, tenantId, (mb) -> {
@@ -465,10 +601,16 @@ public class SRepo implements ISerializable {
 
 			cacheRepo.remove(CacheHelper.getKey(KEY_SID, sid));
 
-			this.id = idDel;
-			this.tSchema = schemaDel;
-			this.fDeleted = fDeleteNow;
-			this.dateUpdate = dateUpdateNew;
+			long stamp = lockRow.writeLock();
+			try {
+				this.id = idDel;
+				this.tSchema = schemaDel;
+				this.fDeleted = fDeleteNow;
+				this.dateUpdate = dateUpdateNew;
+			} finally {
+				lockRow.unlockWrite(stamp);
+			}
+			invalidateTip();
 
 		} else {
 			Event.log(SEvent.DbUpdateFail, sid, tenantId, (mb) -> {
@@ -518,9 +660,16 @@ public class SRepo implements ISerializable {
 				cmb.putIfChanged("commit_date", dateCommitNew, dateCommit);
 
 			});
-			this.commitId = commitIdNew;
-			this.dateCommit = dateCommitNew;
-			this.dateUpdate = dateUpdateNew;
+			long stamp = lockRow.writeLock();
+			try {
+				this.commitId = commitIdNew;
+				this.dateCommit = dateCommitNew;
+				this.dateUpdate = dateUpdateNew;
+				// The CAS matched the row's tip, so the tip columns are what was just written.
+				onRowCurrent();
+			} finally {
+				lockRow.unlockWrite(stamp);
+			}
 			this.scommit=commit;
 
 		} else {
@@ -568,30 +717,26 @@ public class SRepo implements ISerializable {
 		}
 	}
 
-	SCommit scommit;
+	// Tip commit, reloaded when the tip moves past it.
+	volatile SCommit scommit;
 
-	public synchronized SCommit getLatestCommit() throws IOException {
+	public SCommit getLatestCommit() throws IOException {
 
-		// we can even send null as the parameter is ignored.
-		refresh(null);
+		refreshIfStale();
 
-		if (commitId <= 0) {
+		int tip = getCommitId();
+		if (tip <= 0) {
 			return null;
 		}
 
-		if (scommit != null) {
-			if (scommit.getId() != this.commitId) {
-				scommit = null;
-			}
-		}
-		if (scommit == null) {
-			SCommit sc = SCommit.selectCommitById(commitId);
+		SCommit sc = scommit;
+		if (sc == null || sc.getId() != tip) {
+			sc = SCommit.selectCommitById(tip);
+			Objects.requireNonNull(sc, "scommit " + tip);
 			verifyCommit(sc);
 			scommit = sc;
 		}
-		Objects.requireNonNull(scommit, "scommit " + commitId);
-
-		return scommit;
+		return sc;
 	}
 
 	public List<SCommit> getAllCommit() throws IOException {
@@ -603,6 +748,39 @@ public class SRepo implements ISerializable {
 		return listCommits;
 	}
 	
+	/**
+	 * The commits with the given ids, in that order, selected by id rather than loading the whole history.
+	 */
+	public SCommit[] getCommits(int[] aCommitId) throws IOException {
+		Objects.requireNonNull(aCommitId,"commitIds");
+		Map<Integer, SCommit> mapCommit = new HashMap<>();
+		for (SCommit sc : SCommit.selectCommitByIds(sid, aCommitId)) {
+			verifyCommit(sc);
+			mapCommit.put(sc.getId(), sc);
+		}
+		SCommit[] a = new SCommit[aCommitId.length];
+		for (int i=0;i<aCommitId.length;i++) {
+			a[i] = mapCommit.get(aCommitId[i]);
+			if (a[i] == null) {
+				throw new SolderException(String.format("Unknown commitId %d for repo %s", aCommitId[i], getId()));
+			}
+		}
+		return a;
+	}
+	
+	/**
+	 * A page of the commits ordered by id; see {@link SCommit#selectCommitPage}. The next page starts after (fDesc:
+	 * before) the last id returned; a page shorter than limit is the last.
+	 */
+	public List<SCommit> getCommitPage(int afterId,int beforeId,Date dateFrom,Date dateTo,int limit,boolean fDesc)
+			throws IOException {
+		List<SCommit> listCommits = SCommit.selectCommitPage(sid, afterId, beforeId, dateFrom, dateTo, limit, fDesc);
+		for (SCommit sc : listCommits) {
+			verifyCommit(sc);
+		}
+		return listCommits;
+	}
+	
 	public SCommit getCommit(int commitId) throws IOException {
 		if (commitId<=0) {
 			return getLatestCommit();
@@ -630,6 +808,13 @@ public class SRepo implements ISerializable {
 	}
 	
 	public File downloadFile(String relPath,long blobFsId,String digestExpected) throws IOException {
+		return downloadFile(relPath, blobFsId, digestExpected, null);
+	}
+	
+	/**
+	 * As {@link #downloadFile(String, long, String)}; a cached file stays until pin is closed (pin may be null).
+	 */
+	public File downloadFile(String relPath,long blobFsId,String digestExpected,BlobReadCache.Pin pin) throws IOException {
 		if (StringUtils.isEmpty(relPath)) {
 			// Commit package blob (historical or tip). Ownership is solder_commit + this repo.
 			BlobFS blobFs = BlobFS.getById(blobFsId);
@@ -649,8 +834,7 @@ public class SRepo implements ISerializable {
 							String.format("Digest expect error got %s (expect=%s)", stDigest, digestExpected));
 				}
 			}
-			BlobFile blobFile = Container.read(blobFs);
-			return blobFile.getFile();
+			return BlobReadCache.readFile(blobFs, pin);
 		} else {
 			//These are not...
 			
@@ -662,8 +846,7 @@ public class SRepo implements ISerializable {
 					throw new RestException(String.format("Digest expect error got %s (expect=%s)",stDigest,digestExpected));
 				}
 			}
-			BlobFile blobFile = Container.read(blobFs);
-			return blobFile.getFile();
+			return BlobReadCache.readFile(blobFs, pin);
 		}
 	}
 	
@@ -671,10 +854,14 @@ public class SRepo implements ISerializable {
 			//If the same file is in multiple relPath
 			//this provide the dedup key.
 	public String computeBlobFsKey(SolderEntry se) {
+		return computeBlobFsKey(se.getDigest());
+	}
+	
+	public String computeBlobFsKey(String stDigest) {
 		MessageDigest md = SolderEntry.tlMessageDigest.get();
 		md.reset();
 				
-		byte[] a = PrintUtils.fromHexString(se.getDigest());
+		byte[] a = PrintUtils.fromHexString(stDigest);
 		md.update(a);
 		BitUtil.VH_LE_INT.set(a, 0, sid);
 		md.update(a, 0, 4);
@@ -682,6 +869,44 @@ public class SRepo implements ISerializable {
 		return PrintUtils.toHexString(digest);
 	}
 	
+	/**
+	 * Starts a part upload of se (digest known) into a new blob transaction.
+	 * 
+	 * @return null if the repo already stores the content (se's blobFsId is then set).
+	 */
+	public PartUpload beginPartUpload(SolderEntry se) throws IOException {
+		Objects.requireNonNull(se,"SolderEntry");
+		if (se.isDigestPending()) {
+			throw new SolderException("Part upload needs the digest of "+se.getRelPath());
+		}
+		ContainerGroup cg = SolderMain.getSolderCg();
+		Objects.requireNonNull(cg,()->SolderMain.SOLDER_CGREG_NAME+" registry setting");
+		
+		long blobFsIdExisting = findBlobs(new String[] {se.getDigest()})[0];
+		if (blobFsIdExisting > 0L) {
+			se.setBlobFsId(blobFsIdExisting);
+			return null;
+		}
+		
+		Map<String, String> mapInfo = new HashMap<>();
+		mapInfo.put("path", se.getRelPath());
+		mapInfo.put("pid", SessionManager.getPid());
+		mapInfo.put("parts", "true");
+		
+		BlobFS blob = new BlobFS(computeBlobFsKey(se), BLOB_TYPE_SOLDER_REPO, Integer.toString(sid), se.getCommitId(), mapInfo, tenantId,-1);
+		BlobFileTransact bft = cg.beginFileTransact(blob);
+		boolean fError = true;
+		try {
+			PartUpload pu = new PartUpload(this, se, blob, bft);
+			fError = false;
+			return pu;
+		} finally {
+			if (fError) {
+				bft.abort();
+			}
+		}
+	}
+	
 	public long uploadFile(SolderEntry se,File fileContent) throws IOException {
 		
 		Objects.requireNonNull(se,"SolderEntry");
@@ -724,23 +949,18 @@ public class SRepo implements ISerializable {
 		blob = new BlobFS(name, BLOB_TYPE_SOLDER_REPO, Integer.toString(sid), se.getCommitId(), mapInfo, tenantId,-1);
 		BlobFileTransact bft = cg.beginFileTransact(blob);
 		boolean fError = true;
-		FileOutputStream fos = null;
-		InputStream is = null;
 		
 		MessageDigest md = BlobFileTransact.tlMessageDigest.get();
 		md.reset();
 		
 		try {
-			is = new FileInputStream(fileContent);
-			File fileOut = bft.getFile();
-			fos = new FileOutputStream(fileOut);
-			DigestOutputStream dos = new DigestOutputStream(fos, md);
-			IOUtils.copy(is, dos);
-			dos.close();
+			// A chunk upload (local service) stores a byte range of the file.
+			long szCopied = se.isRange() ? FileDigest.copy(fileContent, se.getRangeOffset(), se.getSize(), bft.getFile(), md)
+					: FileDigest.copy(fileContent, bft.getFile(), md);
 
 			byte[] digest = md.digest();
 			String digestNew = PrintUtils.toHexString(digest);
-			blob.setSizeAndDigest(fileContent.length(), digestNew);
+			blob.setSizeAndDigest(szCopied, digestNew);
 			if (!CompareUtils.stringEquals(digestNew, se.getDigest())) {
 				String stError = String.format("Write digest mismatch for %s. writeDigest=%s, prevCalc=%s",
 						se.getRelPath(), digestNew, se.getDigest());
@@ -753,31 +973,250 @@ public class SRepo implements ISerializable {
 			return blob.getId();
 
 		} finally {
-			IOUtils.closeQuietly(fos, is);
 			if (fError) {
 				bft.abort();
 			}
 		}
 	}
 	
-	public synchronized SCommit commitUpload(int commitId,SCommitInfo scommitInfo,File fileCommit) throws IOException {
+	/**
+	 * Stores se from its content read from is (to the end), written once into the blob transaction and digested on
+	 * the way. The content must match se's size and digest. If the repo already stores it, is is only drained.
+	 */
+	public long uploadFile(SolderEntry se,InputStream is) throws IOException {
+		
+		Objects.requireNonNull(se,"SolderEntry");
+		Objects.requireNonNull(is,"is");
 		
 		ContainerGroup cg = SolderMain.getSolderCg();
 		Objects.requireNonNull(cg,()->SolderMain.SOLDER_CGREG_NAME+" registry setting");
 		
-		Objects.requireNonNull(scommitInfo,"scommit");
+		String name = computeBlobFsKey(se);
+		BlobFS blob = BlobFS.selectByName(name);
+		if (blob != null) {
+			// Stored by an earlier upload; nothing of the body is kept.
+			IOUtils.consume(is);
+			return getBlobFS(blob.getId()).getId();
+		}
+		
+		Map<String, String> mapInfo = new HashMap<>();
+		mapInfo.put("path", se.getRelPath());
+		mapInfo.put("pid", SessionManager.getPid());
+		
+		blob = new BlobFS(name, BLOB_TYPE_SOLDER_REPO, Integer.toString(sid), se.getCommitId(), mapInfo, getTenantId(),-1);
+		BlobFileTransact bft = cg.beginFileTransact(blob);
+		boolean fError = true;
+		
+		MessageDigest md = BlobFileTransact.tlMessageDigest.get();
+		md.reset();
+		
+		try {
+			long szCopied;
+			try (OutputStream os = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(bft.getFile()),
+					FileDigest.DIRECT_BUFFER_SIZE), md)) {
+				szCopied = IOUtils.copyLarge(is, os);
+			}
+			
+			String digestNew = PrintUtils.toHexString(md.digest());
+			blob.setSizeAndDigest(szCopied, digestNew);
+			if (szCopied != se.getSize() || !CompareUtils.stringEquals(digestNew, se.getDigest())) {
+				String stError = String.format("Upload digest mismatch for %s. size=%d/%d writeDigest=%s, prevCalc=%s",
+						se.getRelPath(), szCopied, se.getSize(), digestNew, se.getDigest());
+				LOG.info(stError);
+				throw new SolderException(stError);
+			}
+			fError = false;
+			bft.commit();
+			se.setBlobFsId(blob.getId());
+			return blob.getId();
+
+		} finally {
+			if (fError) {
+				bft.abort();
+			}
+		}
+	}
+	
+	/**
+	 * Stores se from fileHashed, a temp file whose bytes were digested into se's digest as they were written (a
+	 * digest pending upload body). The file is moved into the blob transaction instead of being read and hashed
+	 * again; the caller still removes it if the repo already stored the content.
+	 */
+	public long uploadHashedFile(SolderEntry se,File fileHashed) throws IOException {
+		
+		Objects.requireNonNull(se,"SolderEntry");
+		Validator.checkFile(fileHashed, "content " + se.getRelPath());
+		if (se.isDigestPending()) {
+			throw new SolderException("No digest for hashed upload of "+se.getRelPath());
+		}
+		
+		ContainerGroup cg = SolderMain.getSolderCg();
+		Objects.requireNonNull(cg,()->SolderMain.SOLDER_CGREG_NAME+" registry setting");
+		
+		String name = computeBlobFsKey(se);
+		BlobFS blob = BlobFS.selectByName(name);
+		if (blob != null) {
+			return getBlobFS(blob.getId()).getId();
+		}
+		
+		long size = fileHashed.length();
+		if (size != se.getSize()) {
+			throw new SolderException(String.format("Upload size mismatch for %s. size=%d/%d", se.getRelPath(), size,
+					se.getSize()));
+		}
+		
+		Map<String, String> mapInfo = new HashMap<>();
+		mapInfo.put("path", se.getRelPath());
+		mapInfo.put("pid", SessionManager.getPid());
+		
+		blob = new BlobFS(name, BLOB_TYPE_SOLDER_REPO, Integer.toString(sid), se.getCommitId(), mapInfo, getTenantId(),-1);
+		BlobFileTransact bft = cg.beginFileTransact(blob);
+		boolean fError = true;
+		try {
+			// A rename on the same volume, else a plain copy: either way no second digest.
+			Files.move(fileHashed.toPath(), bft.getFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+			blob.setSizeAndDigest(size, se.getDigest());
+			fError = false;
+			bft.commit();
+			se.setBlobFsId(blob.getId());
+			return blob.getId();
+
+		} finally {
+			if (fError) {
+				bft.abort();
+			}
+		}
+	}
+	
+	/**
+	 * blobFsId of this repo's blob for each content digest, -1 if not stored.
+	 */
+	public long[] findBlobs(String[] aDigest) throws IOException {
+		Objects.requireNonNull(aDigest,"digests");
+		long[] aBlobFsId = new long[aDigest.length];
+		for (int i=0;i<aDigest.length;i++) {
+			String stDigest = Validator.require(aDigest[i], "digest", Rules.NO_NULL_EMPTY, Rules.TRIM_LOWER);
+			if (stDigest.length() != 64) {
+				throw new SolderException("Invalid digest " + stDigest);
+			}
+			BlobFS blob = BlobFS.selectByName(computeBlobFsKey(stDigest));
+			aBlobFsId[i] = -1L;
+			if (blob != null) {
+				// Key includes sid; a foreign owner would be a key collision, never a hit.
+				boolean fOwnerMatch = blob.getOwnerApp().equals(BLOB_TYPE_SOLDER_REPO)
+						&& blob.getOwnerRef().equals(Integer.toString(sid));
+				if (fOwnerMatch) {
+					aBlobFsId[i] = blob.getId();
+				} else {
+					LOG.error(String.format("Incorrect BlobFs for digest %s; id=%d; ownerApp=%s ownerRef=%s expect=%d",
+							stDigest, blob.getId(), blob.getOwnerApp(), blob.getOwnerRef(), sid));
+				}
+			}
+		}
+		return aBlobFsId;
+	}
+	
+	/**
+	 * Block signature of a stored repo blob, the base of a later {@link #uploadFile(SolderEntry, long, int, InputStream)}.
+	 */
+	public RsyncDelta.Signature computeSignature(long blobFsId,int blockSize) throws IOException {
+		if (blockSize < RsyncDelta.MIN_BLOCK_SIZE || blockSize > RsyncDelta.MAX_BLOCK_SIZE) {
+			throw new SolderException("Invalid block size " + blockSize);
+		}
+		BlobFS blobFs = getBlobFS(blobFsId);
+		return RsyncDelta.signature(BlobReadCache.readFile(blobFs), blockSize);
+	}
+	
+	/**
+	 * Stores se from an {@link RsyncDelta} against the base blob. The rebuilt bytes must match se's digest.
+	 */
+	public long uploadFile(SolderEntry se,long baseBlobFsId,int blockSize,InputStream isDelta) throws IOException {
+		
+		Objects.requireNonNull(se,"SolderEntry");
+		Objects.requireNonNull(isDelta,"isDelta");
+		
+		ContainerGroup cg = SolderMain.getSolderCg();
+		Objects.requireNonNull(cg,()->SolderMain.SOLDER_CGREG_NAME+" registry setting");
+		
+		String name = computeBlobFsKey(se);
+		BlobFS blob = BlobFS.selectByName(name);
+		if (blob != null) {
+			// Same content stored meanwhile (another path or client); the delta is not needed.
+			IOUtils.consume(isDelta);
+			return getBlobFS(blob.getId()).getId();
+		}
+		
+		File fileBase = BlobReadCache.readFile(getBlobFS(baseBlobFsId));
+		
+		Map<String, String> mapInfo = new HashMap<>();
+		mapInfo.put("path", se.getRelPath());
+		mapInfo.put("pid", SessionManager.getPid());
+		mapInfo.put("delta_base", Long.toString(baseBlobFsId));
+		
+		blob = new BlobFS(name, BLOB_TYPE_SOLDER_REPO, Integer.toString(sid), se.getCommitId(), mapInfo, tenantId,-1);
+		BlobFileTransact bft = cg.beginFileTransact(blob);
+		boolean fError = true;
+		
+		MessageDigest md = BlobFileTransact.tlMessageDigest.get();
+		md.reset();
+		
+		try {
+			long szCopied;
+			try (OutputStream os = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(bft.getFile()),
+					FileDigest.DIRECT_BUFFER_SIZE), md)) {
+				szCopied = RsyncDelta.apply(fileBase, isDelta, os, blockSize);
+			}
+			
+			String digestNew = PrintUtils.toHexString(md.digest());
+			blob.setSizeAndDigest(szCopied, digestNew);
+			if (szCopied != se.getSize() || !CompareUtils.stringEquals(digestNew, se.getDigest())) {
+				String stError = String.format("Delta digest mismatch for %s. size=%d/%d writeDigest=%s, prevCalc=%s",
+						se.getRelPath(), szCopied, se.getSize(), digestNew, se.getDigest());
+				LOG.info(stError);
+				throw new SolderException(stError);
+			}
+			fError = false;
+			bft.commit();
+			se.setBlobFsId(blob.getId());
+			return blob.getId();
+
+		} finally {
+			if (fError) {
+				bft.abort();
+			}
+		}
+	}
+	
+	public SCommit commitUpload(int commitId,SCommitInfo scommitInfo,File fileCommit) throws IOException {
 		Validator.checkFile(fileCommit, "fileCommit");
+		try (InputStream is = new FileInputStream(fileCommit)) {
+			return commitUpload(commitId, scommitInfo, is, null);
+		}
+	}
+	
+	/**
+	 * Stores the commit package read from isCommit (to the end) and moves the tip to it. The package is written once
+	 * into the commit blob transaction and digested on the way. Not synchronized: the copy runs without the monitor
+	 * (readers and other writers go on). The tip is checked once the blob is committed, and
+	 * {@link #updateCommit(SCommit)}, the tip compare-and-swap, is the only step that takes the monitor. A
+	 * concurrent commit on the same base makes that check or swap fail and this one roll back.
+	 *
+	 * @param digestExpect digest the package must have (null: not checked).
+	 */
+	public SCommit commitUpload(int commitId,SCommitInfo scommitInfo,InputStream isCommit,String digestExpect) throws IOException {
+		
+		ContainerGroup cg = SolderMain.getSolderCg();
+		Objects.requireNonNull(cg,()->SolderMain.SOLDER_CGREG_NAME+" registry setting");
+		
+		Objects.requireNonNull(scommitInfo,"scommit");
+		Objects.requireNonNull(isCommit,"isCommit");
 		if (scommitInfo.getRepoSeqId()!=sid) {
 			throw new SolderException(String.format("CommitId %d; Unexpected repoId %d expect=%d",scommitInfo.getId(),scommitInfo.getRepoSeqId(),sid));
 		}
 		
-		Validator.checkFile(fileCommit, "fileCommit");
 		if (commitId <=0) {
 			throw new SolderException("Invalid commitId "+commitId);
 		}
-
-		// Tip may have moved during UPLOAD_FILE*; refuse rather than parent onto a newer tip.
-		requireExpectedTip(scommitInfo.getPrevId());
 		
 		SCommit scommitToCreate = new SCommit(this, scommitInfo.getCHash(),scommitInfo.getInfo(),commitId);
 		
@@ -791,29 +1230,34 @@ public class SRepo implements ISerializable {
 		CryptoScheme cs = CryptoScheme.getDefault();
 		String name = cs.getTimeEncodedUUID();
 		BlobFS blobCommit = new BlobFS(name, BLOB_TYPE_SOLDER_COMMIT, Integer.toString(sid), commitId, mapInfo,
-				tenantId, -1);
+				getTenantId(), -1);
 		BlobFileTransact bft = cg.beginFileTransact(blobCommit);
 		boolean fError = true;
 		boolean fBlobCommitted = false;
 		boolean fCommitInserted = false;
-		FileOutputStream fos = null;
-		InputStream is = null;
 		MessageDigest md = BlobFileTransact.tlMessageDigest.get();
 		md.reset();
 		try {
-			is = new FileInputStream(fileCommit);
-			File fileOut = bft.getFile();
-			fos = new FileOutputStream(fileOut);
-			DigestOutputStream dos = new DigestOutputStream(fos, md);
-			IOUtils.copy(is, dos);
-			dos.close();
+			long szCopied;
+			try (OutputStream os = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(bft.getFile()),
+					FileDigest.DIRECT_BUFFER_SIZE), md)) {
+				szCopied = IOUtils.copyLarge(isCommit, os);
+			}
 			byte[] digest = md.digest();
 			String digestNew = PrintUtils.toHexString(digest);
+			if (!StringUtils.isEmpty(digestExpect) && !CompareUtils.stringEquals(digestNew, digestExpect)) {
+				String stError = String.format("Commit %d upload digest mismatch. writeDigest=%s, prevCalc=%s", commitId,
+						digestNew, digestExpect);
+				LOG.info(stError);
+				throw new SolderException(stError);
+			}
 			
-			blobCommit.setSizeAndDigest(fileCommit.length(), digestNew);
+			blobCommit.setSizeAndDigest(szCopied, digestNew);
 			scommitToCreate.getInfo().put("digest", digestNew);
 			bft.commit();
 			fBlobCommitted = true;
+			// Tip may have moved during UPLOAD_FILE* or this upload; refuse rather than parent onto a newer tip.
+			requireExpectedTip(scommitInfo.getPrevId());
 			// Create SCommit.
 			scommitToCreate.setBlobFsId(blobCommit.getId());
 			scommitToCreate.insert();
@@ -823,7 +1267,6 @@ public class SRepo implements ISerializable {
 			return scommitToCreate;
 
 		} finally {
-			IOUtils.closeQuietly(fos, is);
 			if (fError) {
 				// Tip CAS / other failure after side effects: do not leave orphan commit or blob rows.
 				if (fCommitInserted) {
@@ -1032,6 +1475,7 @@ public class SRepo implements ISerializable {
 		}, (decoder) -> {
 			if (decoder.next()) {
 				srepoFinal.deserialize(decoder);
+				srepoFinal.tRowNanos = System.nanoTime();
 				tref.set(srepoFinal);
 			}
 		}, null);
@@ -1046,6 +1490,7 @@ public class SRepo implements ISerializable {
 		}, (decoder) -> {
 			if (decoder.next()) {
 				srepoFinal.deserialize(decoder);
+				srepoFinal.tRowNanos = System.nanoTime();
 				tref.set(srepoFinal);
 			}
 		}, null);
@@ -1063,6 +1508,7 @@ public class SRepo implements ISerializable {
 			if (decoder.next()) {
 				SRepo srepo = new SRepo();
 				srepo.deserialize(decoder);
+				srepo.tRowNanos = System.nanoTime();
 				tref.set(srepo);
 			}
 		}, null);
@@ -26,6 +26,7 @@ import org.nimbo.blobs.NimboException;
 import org.solder.rest.solder.CommitDetails;
 import org.solder.rest.solder.SUsageEntry;
 import org.solder.rest.solder.SUsageEntry.SueType;
+import org.solder.rest.solder.SolderChunk;
 import org.solder.rest.solder.SolderEntry;
 import org.solder.rest.solder.SolderEntry.EntryType;
 
@@ -68,6 +69,8 @@ public class SRepoUtil {
 
 		UEType type;
 		SolderEntry se;
+		// Set for the chunks of a chunked entry (one usage entry per chunk).
+		SolderChunk chunk;
 
 		UsageEntry(int sid, int commitId, UEType type, long blobFSId, BlobFS blobFS, boolean fCharged) {
 			this.sid = sid;
@@ -86,12 +89,21 @@ public class SRepoUtil {
 			}
 
 		}
+
+		void setChunk(SolderEntry se, SolderChunk chunk) {
+			this.se = se;
+			this.chunk = chunk;
+			this.szResolved = chunk.getSize();
+		}
 		
 		String makeRelPath() {
 			if (type == UEType.COMMIT) {
 				return "CommitFile";
 			}
 			if (type == UEType.DATA) {
+				if (se != null && chunk != null) {
+					return se.getRelPath() + "#" + chunk.getOffset();
+				}
 				return se != null ? se.getRelPath() : "Unknown";
 			}
 			// ORPHAN — label by blob owner for readability only.
@@ -215,6 +227,24 @@ public class SRepoUtil {
 							continue;
 						}
 
+						if (se.isChunked()) {
+							// Each chunk is its own blob; charged to the first entry (in any commit) using it.
+							for (SolderChunk sc : se.getChunks()) {
+								long scBlobFsId = sc.getBlobFsId();
+								BlobFS blobSc = mapBlobFSRepo.get(scBlobFsId);
+								boolean fCharged = false;
+								if (blobSc == null) {
+									setBlobFSidError.add(scBlobFsId);
+								} else {
+									fCharged = mapBlobFSRepo2.remove(scBlobFsId) != null;
+								}
+								ue = new UsageEntry(sid, commitId, UEType.DATA, scBlobFsId, blobSc, fCharged);
+								ue.setChunk(se, sc);
+								listUE.add(ue);
+							}
+							continue;
+						}
+
 						long seBlobFsId = se.getBlobFsId();
 						BlobFS blobSe = mapBlobFSRepo.get(seBlobFsId);
 						boolean fCharged = false;
@@ -1,11 +1,15 @@
 package org.solder.core;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.solder.rest.solder.CommitSession;
@@ -13,6 +17,7 @@ import org.solder.rest.solder.IRepoFileService;
 import org.solder.rest.solder.SCommitInfo;
 import org.solder.rest.solder.SRepoInfo;
 import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FileDigest;
 
 public class ServerRepoFileService implements IRepoFileService {
 
@@ -57,6 +62,37 @@ public class ServerRepoFileService implements IRepoFileService {
 		return srepo.downloadFile(relPath, blobFsId, stDigestExpected);
 	}
 
+	public void downloadFile(SRepoInfo srepoInfo, String relPath, long blobFsId, String stDigestExpected,
+			OutputStream os) throws IOException {
+		File file = downloadFile(srepoInfo, relPath, blobFsId, stDigestExpected);
+		try (InputStream is = new FileInputStream(file)) {
+			IOUtils.copy(is, os);
+		}
+	}
+
+	public boolean downloadRange(SRepoInfo srepoInfo, String relPath, long blobFsId, String stDigestExpected, long off,
+			long len, OutputStream os) throws IOException {
+		File file = downloadFile(srepoInfo, relPath, blobFsId, stDigestExpected);
+		try (InputStream is = FileDigest.openRange(file, off, len < 0L ? file.length() - off : len)) {
+			IOUtils.copy(is, os);
+		}
+		return true;
+	}
+
+	public void downloadFiles(SRepoInfo srepoInfo, String[] aRelPath, long[] aBlobFsId, String[] aStDigestExpected,
+			BlobSink sink) throws IOException {
+		for (int i = 0; i < aBlobFsId.length; i++) {
+			File file = downloadFile(srepoInfo, aRelPath[i], aBlobFsId[i],
+					aStDigestExpected != null ? aStDigestExpected[i] : null);
+			long size = file.length();
+			OutputStream os = sink.begin(i, size);
+			try (InputStream is = FileDigest.openRange(file, 0L, size)) {
+				IOUtils.copy(is, os);
+			}
+			sink.end(i);
+		}
+	}
+
 	public SCommitInfo createSCommit(SRepoInfo srepoInfo, String chash, Map<String, String> mapInfo, int commitId)
 			throws IOException {
 		SRepo srepo = SRepo.getSRepo(srepoInfo);
@@ -86,9 +122,45 @@ public class ServerRepoFileService implements IRepoFileService {
 	public long uploadFile(CommitSession cs, SolderEntry se) throws IOException {
 		SRepo repo = (SRepo) cs.getParent();
 		Objects.requireNonNull(repo, "Repo not set!");
+		// No transfer to hash during: read the file here.
+		se.resolvePendingDigest();
 		return repo.uploadFile(se, se.getFile());
 	}
 
+	public long[] findBlobs(CommitSession cs, String[] aDigest) throws IOException {
+		SRepo repo = (SRepo) cs.getParent();
+		Objects.requireNonNull(repo, "Repo not set!");
+		return repo.findBlobs(aDigest);
+	}
+
+	public int uploadFiles(CommitSession cs, List<SolderEntry> listSe) throws IOException {
+		// No per-call overhead to save locally.
+		for (SolderEntry se : listSe) {
+			uploadFile(cs, se);
+		}
+		return listSe.size();
+	}
+
+	public long uploadDelta(CommitSession cs, SolderEntry se, SolderEntry seBase) throws IOException {
+		// Local file: nothing to save on the transfer.
+		return -1L;
+	}
+
+	public int getMaxConcurrentUploads() {
+		// SRepo.uploadFile runs in the caller's session/transaction context.
+		return 1;
+	}
+
+	public int getMaxConcurrentDownloads() {
+		// SRepo.downloadFile also runs in the caller's session context.
+		return 1;
+	}
+
+	public void abortCommit(CommitSession cs) throws IOException {
+		// No server side session state (no ecid).
+		LOG.info(String.format("Abort commit %d", cs.getCommitId()));
+	}
+
 	public SCommitInfo uploadCommit(CommitSession cs, File fileCommit) throws IOException {
 		SRepo repo = (SRepo) cs.getParent();
 		Objects.requireNonNull(repo, "Repo not set!");
@@ -74,12 +74,14 @@ public class SolderMain {
 			try {
 				// Dependency first... (Runonce helps circular calls).
 				SRepo.init(dbFinal);
+				SRepo.initTipStaleness();
 				ContainerGroup.init();
 				AzureBlobProvider.init();
 				AwsBlobProvider.init();
 				new SolderVaultFactory();
 				TSnap.init(dbFinal);
 				SyncLocalRepo.initDefault();
+				BlobReadCache.initDefault();
 
 				CGRegistry cgReg = CGRegistry.getByName(SOLDER_CGREG_NAME);
 				if (cgReg == null) {
@@ -146,6 +148,10 @@ public class SolderMain {
 			}
 		}
 		
+		BlobReadCache cache = BlobReadCache.get();
+		if (cache != null) {
+			LOG.info(cache.toString());
+		}
 	}
 
 }
@@ -3,19 +3,26 @@ package org.solder.ens;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.solder.core.PartUpload;
 import org.solder.core.SCommit;
 import org.solder.core.SRepo;
+import org.solder.core.SolderException;
 import org.solder.rest.solder.CommitDetails;
 import org.solder.rest.solder.CommitSession;
 import org.solder.rest.solder.SCommitInfo;
 import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.RsyncDelta;
 
 import com.ee.session.db.EStateObj;
+import com.jnk.util.CompareUtils;
 
 public class SSCommit  implements Closeable{
 	
@@ -35,6 +42,9 @@ public class SSCommit  implements Closeable{
 	String ecid;
 	boolean fClosing = false;
 	
+	// Part uploads in progress by content digest; aborted if the session closes first.
+	final Map<String,PartUpload> mapPartUpload = new ConcurrentHashMap<>();
+	
 	public SSCommit(SRepo srepo,SCommitInfo sci,String[] aStRelPathMod,String[] aStRelPathDel) throws IOException {
 		this.srepo= Objects.requireNonNull(srepo,"srepo");
 		Objects.requireNonNull(sci, "sci");
@@ -62,15 +72,98 @@ public class SSCommit  implements Closeable{
 		return srepo.uploadFile(se,fileContent);
 	}
 	
-	public SCommit uploadCommit(File fileCommit) throws IOException {
-		SCommitInfo commitInfoReq = cs.getCommitInfo();
-		//Create a new 
-		SCommit scommit =  srepo.commitUpload(cs.getCommitId(),commitInfoReq, fileCommit);
+	/**
+	 * Stores se's content streamed from is (no temp copy).
+	 */
+	public long upload(SolderEntry se,InputStream is) throws IOException {
+		return srepo.uploadFile(se,is);
+	}
+	
+	/**
+	 * Content already digested into se's digest while it was written to fileHashed (moved, not re-read).
+	 */
+	public long uploadHashed(SolderEntry se,File fileHashed) throws IOException {
+		return srepo.uploadHashedFile(se,fileHashed);
+	}
+	
+	/**
+	 * The part upload of se's content, begun on first use.
+	 * 
+	 * @return null if the repo already stores the content (se's blobFsId is then set).
+	 */
+	public synchronized PartUpload partUpload(SolderEntry se) throws IOException {
+		if (fClosing) {
+			throw new SolderException("Commit session closed: "+commitId);
+		}
+		PartUpload pu = mapPartUpload.get(se.getDigest());
+		if (pu == null) {
+			pu = srepo.beginPartUpload(se);
+			if (pu != null) {
+				mapPartUpload.put(se.getDigest(), pu);
+			}
+		}
+		return pu;
+	}
+	
+	public PartUpload getPartUpload(String digest) throws IOException {
+		PartUpload pu = mapPartUpload.get(digest);
+		if (pu == null) {
+			throw new SolderException(String.format("No part upload for digest %s in commit %d", digest, commitId));
+		}
+		return pu;
+	}
+	
+	/**
+	 * Commits the assembled blob; the part upload is done either way.
+	 */
+	public long finishPartUpload(String digest) throws IOException {
+		PartUpload pu = getPartUpload(digest);
+		try {
+			return pu.finish();
+		} finally {
+			mapPartUpload.remove(digest, pu);
+			IOUtils.closeQuietly(pu);
+		}
+	}
+	
+	public long[] findBlobs(String[] aDigest) throws IOException {
+		return srepo.findBlobs(aDigest);
+	}
+	
+	public RsyncDelta.Signature signature(long baseBlobFsId,int blockSize) throws IOException {
+		return srepo.computeSignature(baseBlobFsId,blockSize);
+	}
+	
+	public long uploadDelta(SolderEntry se,long baseBlobFsId,int blockSize,InputStream isDelta) throws IOException {
+		return srepo.uploadFile(se,baseBlobFsId,blockSize,isDelta);
+	}
+	
+	/**
+	 * The commit package streamed from is into its blob (no temp copy); it must have the given digest.
+	 *
+	 * @param chash commit hash resolved by the client after its uploads (null if given at beginCommit).
+	 */
+	public SCommit uploadCommit(InputStream is,String digest,String chash) throws IOException {
+		SCommitInfo commitInfoReq = resolveCHash(chash);
+		SCommit scommit =  srepo.commitUpload(cs.getCommitId(),commitInfoReq, is, digest);
 		//We close it commit, Abandoned session will be picked by the background task
 		close();
 		return scommit;
 	}
 	
+	SCommitInfo resolveCHash(String chash) throws IOException {
+		SCommitInfo commitInfoReq = cs.getCommitInfo();
+		if (chash != null) {
+			if (commitInfoReq.getCHash() == null) {
+				commitInfoReq.setCHash(chash);
+			} else if (!CompareUtils.stringEquals(commitInfoReq.getCHash(), chash)) {
+				throw new SolderException(String.format("Commit %d chash %s differs from %s given at beginCommit",
+						commitId, chash, commitInfoReq.getCHash()));
+			}
+		}
+		return commitInfoReq;
+	}
+	
 	
 	
 	public synchronized void close() throws IOException {
@@ -83,6 +176,10 @@ public class SSCommit  implements Closeable{
 			EStateObj.remove(this.ecid);
 			this.ecid=null;
 		}
+		for (PartUpload pu : mapPartUpload.values()) {
+			IOUtils.closeQuietly(pu);
+		}
+		mapPartUpload.clear();
 		
 		
 	}
@@ -3,25 +3,30 @@ package org.solder.ens;
 
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.function.IOConsumer;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.solder.core.BlobReadCache;
+import org.solder.core.PartUpload;
 import org.solder.core.SCommit;
 import org.solder.core.SRepo;
 import org.solder.core.SRepoUtil;
@@ -36,6 +41,10 @@ import org.solder.rest.solder.SCommitInfo;
 import org.solder.rest.solder.SRepoInfo;
 import org.solder.rest.solder.SUsageEntry;
 import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.FileTransfer;
+import org.solder.rest.util.RsyncDelta;
+import org.solder.rest.util.WireCompression;
 
 import com.ee.ens.AbstractHttpServlet.SCall;
 import com.ee.ens.EnServlet;
@@ -59,6 +68,7 @@ import com.jnk.util.Validator;
 import com.jnk.util.Validator.Rules;
 import com.lnk.lucene.RunOnce;
 import com.lnk.lucene.TempFiles;
+import com.lnk.serializer.Decoder;
 
 
 public enum SolderRestSkeleton {
@@ -72,10 +82,19 @@ public enum SolderRestSkeleton {
 	GET_LATEST_COMMIT(SolderRestOp.GET_LATEST_COMMIT,SolderRestSkeleton::doGetLatestCommit),
 	GET_COMMIT(SolderRestOp.GET_COMMIT,SolderRestSkeleton::doGetCommit),
 	DOWNLOAD_FILE(SolderRestOp.DOWNLOAD_FILE,SolderRestSkeleton::doDownloadFile),
+	DOWNLOAD_FILES(SolderRestOp.DOWNLOAD_FILES,SolderRestSkeleton::doDownloadFiles),
 	
 	BEGIN_COMMIT(SolderRestOp.BEGIN_COMMIT,SolderRestSkeleton::doBeginCommit),
 	UPLOAD_FILE(SolderRestOp.UPLOAD_FILE,SolderRestSkeleton::doUploadFile),
+	UPLOAD_FILES(SolderRestOp.UPLOAD_FILES,SolderRestSkeleton::doUploadFiles),
+	HAS_BLOBS(SolderRestOp.HAS_BLOBS,SolderRestSkeleton::doHasBlobs),
 	UPLOAD_COMMIT(SolderRestOp.UPLOAD_COMMIT,SolderRestSkeleton::doUploadCommit),
+	ABORT_COMMIT(SolderRestOp.ABORT_COMMIT,SolderRestSkeleton::doAbortCommit),
+	BLOB_SIGNATURE(SolderRestOp.BLOB_SIGNATURE,SolderRestSkeleton::doBlobSignature),
+	UPLOAD_DELTA(SolderRestOp.UPLOAD_DELTA,SolderRestSkeleton::doUploadDelta),
+	UPLOAD_STATUS(SolderRestOp.UPLOAD_STATUS,SolderRestSkeleton::doUploadStatus),
+	UPLOAD_PART(SolderRestOp.UPLOAD_PART,SolderRestSkeleton::doUploadPart),
+	UPLOAD_PART_END(SolderRestOp.UPLOAD_PART_END,SolderRestSkeleton::doUploadPartEnd),
 	
 	DELETE(SolderRestOp.DELETE,SolderRestSkeleton::doDelete),
 	LIST_COMMITS(SolderRestOp.LIST_COMMITS,SolderRestSkeleton::doListCommits),
@@ -99,6 +118,12 @@ public enum SolderRestSkeleton {
 	
 	
 	static final AtomicBoolean s_fInit = new AtomicBoolean(false);
+	/** Digests per HAS_BLOBS call. */
+	static final int MAX_HAS_BLOBS = 10000;
+	/** Blobs per DOWNLOAD_FILES call. */
+	static final int MAX_DOWNLOAD_FILES = 10000;
+	/** Download throughput is logged at most this often. */
+	static final long TRANSFER_STATS_INTERVAL_MS = 60_000L;
 	static Map<String,String> s_mapContentType;
 
 	public static void init() throws IOException {
@@ -181,6 +206,8 @@ public enum SolderRestSkeleton {
 		state.setSuccess((encoder) -> {
 			// void
 			encoder.writeString("ret", ref.get());
+			// Wire encodings accepted for UPLOAD_* bodies and DOWNLOAD_FILE responses.
+			encoder.writeString("enc", WireCompression.ENC_DEFLATE);
 		});
 		
 	}
@@ -276,7 +303,7 @@ public enum SolderRestSkeleton {
 			LOG.info(String.format("SolderRest Op: doGet; sid=%d repoId=%s", repoSid,""+repoId));
 			
 			
-			repo.refresh(null);
+			repo.refreshIfStale();
 			doSentryCheck(SolderSentryProvider.SOLDEROP_READ,repo,-1);
 			refRepo.set(SRepo.makeSRepoInfo(repo));
 		});
@@ -442,19 +469,12 @@ public enum SolderRestSkeleton {
 			
 			//Verify Roles and Priv..
 			doSentryCheck(SolderSentryProvider.SOLDEROP_READ,repo,-1);
-			List<SCommit> list = repo.getAllCommit();
-			
-			
 			if (commitIds == null) {
+				List<SCommit> list = repo.getAllCommit();
 				ref.set(list.stream().map((r)->SCommit.makeSCommitInfo(r)).toArray(SCommitInfo[]::new));
 			} else {
-				SCommitInfo[] a = new SCommitInfo[commitIds.length];
-				for (int i=0;i<commitIds.length;i++) {
-					int id = commitIds[i];
-					SCommit sci = list.stream().filter((c)->c.getId()==id).findFirst().get();
-					a[i] = SCommit.makeSCommitInfo(Objects.requireNonNull(sci,()->"commit "+id));
-				}
-				ref.set(a);
+				// Selected by id; the rest of the history is not loaded.
+				ref.set(Arrays.stream(repo.getCommits(commitIds)).map((r)->SCommit.makeSCommitInfo(r)).toArray(SCommitInfo[]::new));
 			}
 		});
 
@@ -469,7 +489,9 @@ public enum SolderRestSkeleton {
 		SCall scall = (SCall)state.getCallObject();
 		
 		TReference<File> ref = new TReference<>();
-		
+		AtomicBoolean fFramed = new AtomicBoolean();
+		// [off, len]: the byte range to send (resumed and parallel range downloads).
+		long[] aRange = new long[2];
 		
 		state.readParam((decoder) -> {
 			// int count = decoder.readInt("count");
@@ -477,6 +499,8 @@ public enum SolderRestSkeleton {
 			//User user = (User)SessionManager.getUser();
 			
 			Set<String> params =decoder.getAllObjectFields();
+			fFramed.set(params.contains(WireCompression.PARAM_ACCEPT_ENC)
+					&& WireCompression.acceptsDeflate(decoder.readString(WireCompression.PARAM_ACCEPT_ENC)));
 			int repoSid = params.contains("sid")?decoder.readInt("sid"):-1;
 			String repoId = null;
 			if (repoSid<=0) {
@@ -486,13 +510,15 @@ public enum SolderRestSkeleton {
 			String relPath = decoder.readString("rel_path");
 			long blobFsId = decoder.readLong("blob_fsid");
 			String digestExpected = params.contains("digest_expect")?decoder.readString("digest_expect") :null;
+			long off = params.contains("off")?decoder.readLong("off"):0L;
+			long len = params.contains("len")?decoder.readLong("len"):-1L;
 			
 			if (blobFsId<=0) {
 				throw new SolderException(String.format("Invalid blobFsId %d",blobFsId));
 			}
 
 			
-			LOG.info(String.format("SolderRest Op: doDownloadFile; sid=%d repoId=%s replPath+%s blobFsId=%d digestExpected=%s", repoSid,""+repoId,relPath,blobFsId,digestExpected));
+			LOG.info(String.format("SolderRest Op: doDownloadFile; sid=%d repoId=%s replPath+%s blobFsId=%d digestExpected=%s off=%d len=%d", repoSid,""+repoId,relPath,blobFsId,digestExpected,off,len));
 			
 			SRepo repo = getRepo(repoSid,repoId,true);
 		
@@ -504,21 +530,162 @@ public enum SolderRestSkeleton {
 				SolderEntry.requireSafeRelPath(relPath);
 			} 
 			
-			ref.set(repo.downloadFile(relPath, blobFsId,digestExpected));
+			File file = repo.downloadFile(relPath, blobFsId,digestExpected);
+			long size = file.length();
+			if (off < 0L || off > size || len < -1L || (len >= 0L && len > size - off)) {
+				throw new SolderException(String.format("Invalid range off=%d len=%d for blobFsId %d of size %d",off,len,blobFsId,size));
+			}
+			ref.set(file);
+			aRange[0] = off;
+			aRange[1] = len < 0L ? size - off : len;
+			
+		});
+		
+		state.setSuccess((encoder) -> {
+			encoder.writeString("ret", "success");
+			encoder.writeLong("size", ref.get().length());
+			// The range served: clients check it before writing (older servers sent the whole blob).
+			encoder.writeLong("off", aRange[0]);
+			encoder.writeLong("len", aRange[1]);
+		}, (os)->{
+			File file = ref.get();
+			long off = aRange[0], len = aRange[1];
+			if (fFramed.get() && WireCompression.isCompressible(file, off, len)) {
+				// Digests stay over the stored bytes; only the transfer is deflated.
+				long tStart = System.nanoTime();
+				try (InputStream is = FileDigest.openRange(file, off, len)) {
+					WireCompression.writeFramed(is, os, true);
+				}
+				FileTransfer.record(len, System.nanoTime() - tStart);
+			} else {
+				if (fFramed.get()) {
+					os.write(WireCompression.FRAME_RAW);
+				}
+				FileTransfer.send(file, off, len, os);
+			}
+			if (FileTransfer.getStats().isReportDue(TRANSFER_STATS_INTERVAL_MS)) {
+				LOG.info(FileTransfer.getStats().toString());
+			}
+		});
+		
+	}
+	
+	/**
+	 * Many blobs in one response, in request order: per blob an 8 byte (big endian) size then its bytes. With
+	 * accept_enc the whole body is framed like DOWNLOAD_FILE (deflated if most of the bytes compress).
+	 * Every blob is resolved (and its digest checked) before the first byte is sent; the resolved files are pinned in
+	 * the blob read cache until the response is done, so a long batch cannot lose one to eviction.
+	 */
+	static void doDownloadFiles(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<File[]> ref = new TReference<>();
+		AtomicBoolean fFramed = new AtomicBoolean();
+		BlobReadCache.Pin pin = new BlobReadCache.Pin();
+		
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			
+			Set<String> params =decoder.getAllObjectFields();
+			fFramed.set(params.contains(WireCompression.PARAM_ACCEPT_ENC)
+					&& WireCompression.acceptsDeflate(decoder.readString(WireCompression.PARAM_ACCEPT_ENC)));
+			int repoSid = params.contains("sid")?decoder.readInt("sid"):-1;
+			String repoId = null;
+			if (repoSid<=0) {
+				repoId = Validator.require(decoder.readString("id"),"repo id", Rules.NO_NULL_EMPTY,Rules.TRIM_LOWER);
+			}
+			String[] aRelPath = decoder.readStringArray("rel_paths");
+			long[] aBlobFsId = decoder.readLongArray("blob_fsids");
+			String[] aDigest = decoder.readStringArray("digests");
+			Objects.requireNonNull(aBlobFsId,"blob_fsids");
+			if (aRelPath == null || aRelPath.length != aBlobFsId.length || (aDigest != null && aDigest.length != aBlobFsId.length)) {
+				throw new SolderException(String.format("DOWNLOAD_FILES: %d blobFsIds with mismatched rel_paths/digests", aBlobFsId.length));
+			}
+			if (aBlobFsId.length > MAX_DOWNLOAD_FILES) {
+				throw new SolderException(String.format("Too many blobs %d (max %d)", aBlobFsId.length, MAX_DOWNLOAD_FILES));
+			}
+			LOG.info(String.format("SolderRest Op: doDownloadFiles; sid=%d repoId=%s count=%d", repoSid,""+repoId,aBlobFsId.length));
+			
+			SRepo repo = getRepo(repoSid,repoId,true);
+			doSentryCheck(SolderSentryProvider.SOLDEROP_READ,repo,-1);
 			
+			File[] aFile = new File[aBlobFsId.length];
+			boolean fError = true;
+			try {
+				for (int i = 0; i < aBlobFsId.length; i++) {
+					// Repo blobs only (commit packages go through DOWNLOAD_FILE).
+					SolderEntry.requireSafeRelPath(Validator.require(aRelPath[i], "rel_path", Rules.NO_NULL_EMPTY));
+					if (aBlobFsId[i]<=0) {
+						throw new SolderException(String.format("Invalid blobFsId %d",aBlobFsId[i]));
+					}
+					aFile[i] = repo.downloadFile(aRelPath[i], aBlobFsId[i], aDigest != null ? aDigest[i] : null, pin);
+				}
+				fError = false;
+			} finally {
+				if (fError) {
+					pin.close();
+				}
+			}
+			ref.set(aFile);
 		});
 		
+		File[] aFile = ref.get();
 		state.setSuccess((encoder) -> {
 			encoder.writeString("ret", "success");
+			encoder.writeInt("count", aFile.length);
 		}, (os)->{
-			InputStream is = new FileInputStream(ref.get());
 			try {
-				IOUtils.copy(is,os);
-			}finally {
-				IOUtils.closeQuietly(is);
+				sendFiles(aFile, fFramed.get(), os);
+			} finally {
+				pin.close();
 			}
 		});
+	}
+	
+	static void sendFiles(File[] aFile, boolean fFramed, OutputStream os) throws IOException {
+		long[] aSize = new long[aFile.length];
+		long szTotal = 0L, szCompressible = 0L;
+		for (int i = 0; i < aFile.length; i++) {
+			aSize[i] = aFile[i].length();
+			szTotal += aSize[i];
+			if (fFramed && WireCompression.isCompressible(aFile[i])) {
+				szCompressible += aSize[i];
+			}
+		}
+		boolean fDeflate = szCompressible * 2 > szTotal;
 		
+		OutputStream osBody = os;
+		if (fFramed) {
+			os.write(fDeflate ? WireCompression.FRAME_DEFLATE : WireCompression.FRAME_RAW);
+			if (fDeflate) {
+				osBody = WireCompression.deflating(os);
+			}
+		}
+		long tStart = System.nanoTime();
+		byte[] aHeader = new byte[Long.BYTES];
+		try {
+			for (int i = 0; i < aFile.length; i++) {
+				ByteBuffer.wrap(aHeader).putLong(aSize[i]);
+				osBody.write(aHeader);
+				if (fDeflate) {
+					try (InputStream is = FileDigest.openRange(aFile[i], 0L, aSize[i])) {
+						IOUtils.copy(is, osBody);
+					}
+				} else {
+					FileTransfer.send(aFile[i], 0L, aSize[i], osBody);
+				}
+			}
+		} finally {
+			if (osBody != os) {
+				osBody.close();
+			}
+		}
+		if (fDeflate) {
+			FileTransfer.record(szTotal, System.nanoTime() - tStart);
+		}
+		if (FileTransfer.getStats().isReportDue(TRANSFER_STATS_INTERVAL_MS)) {
+			LOG.info(FileTransfer.getStats().toString());
+		}
 	}
 	
 	static void doBeginCommit(RestSkeletonState state) throws IOException {
@@ -560,7 +727,10 @@ public enum SolderRestSkeleton {
 		});
 	}
 	
-	static File writeTemp(TempFiles tf,String dirName,String fileName,InputStream is,String digestExpect) throws IOException {
+	/**
+	 * @param cDigest receives the digest computed over the written bytes (may be null).
+	 */
+	static File writeTemp(TempFiles tf,String dirName,String fileName,InputStream is,String digestExpect,IOConsumer<String> cDigest) throws IOException {
 		
 		
 		File fileRoot = tf.getTempDir(dirName);
@@ -593,6 +763,9 @@ public enum SolderRestSkeleton {
 				LOG.info(stError);
 				throw new RestException(stError);
 			}
+			if (cDigest != null) {
+				cDigest.accept(digestNew);
+			}
 
 			fError = false;
 			return fileTmp;
@@ -607,6 +780,25 @@ public enum SolderRestSkeleton {
 		
 	}
 	
+	static String readEnc(Decoder decoder) throws IOException {
+		if (!decoder.getAllObjectFields().contains(WireCompression.PARAM_ENC)) {
+			return null;
+		}
+		String enc = decoder.readString(WireCompression.PARAM_ENC);
+		if (!StringUtils.isEmpty(enc) && !WireCompression.acceptsDeflate(enc)) {
+			throw new SolderException("Unsupported encoding " + enc);
+		}
+		return StringUtils.isEmpty(enc) ? null : enc;
+	}
+	
+	/**
+	 * Request body as sent by the client, inflated when it was deflated (writeTemp digests the inflated bytes).
+	 */
+	static InputStream openRequestStream(RestSkeletonState state,String enc) throws IOException {
+		InputStream is = state.getRequestInputStream();
+		return enc == null ? is : WireCompression.inflate(is, enc);
+	}
+	
 	static String requireEcid(String ecid) {
 		return Validator.require(ecid, "ecid", Rules.NO_NULL_EMPTY, Rules.TRIM);
 	}
@@ -618,6 +810,7 @@ public enum SolderRestSkeleton {
 		
 		TReference<SSCommit> refSsc = new TReference<>();
 		TReference<SolderEntry> refA = new TReference<>();
+		TReference<String> refEnc = new TReference<>();
 		state.readParam((decoder) -> {
 			// int count = decoder.readInt("count");
 			scall.handleSession(decoder,null,false);
@@ -625,6 +818,7 @@ public enum SolderRestSkeleton {
 			
 			//Set<String> params =decoder.getAllObjectFields();
 			String ecid = requireEcid(decoder.readString("ecid"));
+			refEnc.set(readEnc(decoder));
 			SolderEntry se = decoder.readObject("se",SolderEntry.class);
 			Objects.requireNonNull(se,"Solder Entry!");
 			LOG.info(String.format("SolderRest Op: doUploadFile; ecid=%s se=(relPath=%s,size=%,d,digest=%s)",ecid,se.getRelPath(),se.getSize(),se.getDigest()));
@@ -647,10 +841,22 @@ public enum SolderRestSkeleton {
 		File fileTmp =null;
 		InputStream is = null;
 		try {
-			is = state.getRequestInputStream() ;
-			fileTmp = writeTemp(tf,ssc.srepo.getId(),se.getDigest(),is,se.getDigest());
-			se.setFile(fileTmp);
-			long blobFsId = ssc.upload(se,fileTmp);
+			is = openRequestStream(state, refEnc.get());
+			long blobFsId;
+			if (se.isDigestPending()) {
+				// The blob name derives from the digest, known only once the body is read: hashed into a temp
+				// first (single pass), moved into the blob and the digest returned to the client.
+				// Own temp dir per upload: uploads of a session run concurrently and each removes its dir.
+				String tmpName = UUID.randomUUID().toString();
+				fileTmp = writeTemp(tf,ssc.srepo.getId()+"_"+ssc.commitId+"_"+tmpName,tmpName,is,null,(digest)->{
+					se.setPendingDigest(digest, SolderEntry.FAST_HASH_NONE, 0L);
+				});
+				se.setFile(fileTmp);
+				blobFsId = ssc.uploadHashed(se,fileTmp);
+			} else {
+				// Known digest: streamed straight into the blob transaction, after the dedup lookup.
+				blobFsId = ssc.upload(se,is);
+			}
 			
 			
 			if (blobFsId <=0L) {
@@ -659,6 +865,7 @@ public enum SolderRestSkeleton {
 			
 			state.setSuccess((encoder) -> {
 				encoder.writeLong("ret", blobFsId);
+				encoder.writeString("digest", se.getDigest());
 			});
 		} finally {
 			IOUtils.closeQuietly(is);
@@ -671,15 +878,114 @@ public enum SolderRestSkeleton {
 	
 	
 	
-	static void doUploadCommit(RestSkeletonState state) throws IOException {
+	/**
+	 * Many small files in one request: the body is the content of each entry (se.size bytes) in order.
+	 * An entry that fails (digest mismatch, store error) gets blobFsId -1 and its error; the rest continue.
+	 * Entries with a digest stream into their blob; digest pending ones are hashed into a temp file first.
+	 */
+	static void doUploadFiles(RestSkeletonState state) throws IOException {
 		SCall scall = (SCall)state.getCallObject();
+		TempFiles tf = TempFiles.get(TempFiles.DEFAULT);
 		
+		TReference<SSCommit> refSsc = new TReference<>();
+		TReference<SolderEntry[]> refA = new TReference<>();
+		TReference<String> refEnc = new TReference<>();
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			refEnc.set(readEnc(decoder));
+			SolderEntry[] aSe = decoder.readObjectArray("ses",SolderEntry.class);
+			Objects.requireNonNull(aSe,"Solder Entries!");
+			long szTotal = 0L;
+			for (SolderEntry se : aSe) {
+				Objects.requireNonNull(se,"Solder Entry!");
+				if (se.getSize() < 0L) {
+					throw new SolderException(String.format("Invalid size %d for %s", se.getSize(), se.getRelPath()));
+				}
+				szTotal += se.getSize();
+			}
+			LOG.info(String.format("SolderRest Op: doUploadFiles; ecid=%s count=%d size=%,d",ecid,aSe.length,szTotal));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			refSsc.set(ssc);
+			refA.set(aSe);
+		});
 		
-		
-		TempFiles tf = TempFiles.get(TempFiles.DEFAULT);
+		SSCommit ssc = refSsc.get();
+		SolderEntry[] aSe = refA.get();
+		long[] aBlobFsId = new long[aSe.length];
+		String[] aDigest = new String[aSe.length];
+		String[] aError = new String[aSe.length];
+		String batchId = ssc.srepo.getId()+"_"+ssc.commitId+"_"+UUID.randomUUID();
+		InputStream is = null;
+		try {
+			is = openRequestStream(state, refEnc.get());
+			for (int i=0;i<aSe.length;i++) {
+				SolderEntry se = aSe[i];
+				aBlobFsId[i] = -1L;
+				aDigest[i] = "";
+				aError[i] = "";
+				InputStream isEntry = BoundedInputStream.builder().setInputStream(is).setMaxCount(se.getSize())
+						.setPropagateClose(false).get();
+				if (!se.isDigestPending()) {
+					// Size and digest are checked by the store; a mismatch fails this entry only.
+					try {
+						aBlobFsId[i] = ssc.upload(se,isEntry);
+						aDigest[i] = se.getDigest();
+					} catch (SolderException e) {
+						LOG.info(String.format("doUploadFiles %s failed: %s", se.getRelPath(), e.toString()));
+						aError[i] = e.toString();
+					}
+					// Rest of a failed entry: the next one starts after it.
+					IOUtils.consume(isEntry);
+					continue;
+				}
+				TReference<String> refDigest = new TReference<>();
+				// No digest check in writeTemp: a mismatch fails this entry only (its bytes are consumed).
+				File fileTmp = writeTemp(tf,batchId+"_"+i,"f"+i,isEntry,null,refDigest::set);
+				try {
+					if (fileTmp.length() != se.getSize()) {
+						throw new SolderException(String.format("Upload body ended in %s (%,d of %,d bytes)",
+								se.getRelPath(), fileTmp.length(), se.getSize()));
+					}
+					aDigest[i] = refDigest.get();
+					se.setPendingDigest(refDigest.get(), SolderEntry.FAST_HASH_NONE, 0L);
+					se.setFile(fileTmp);
+					try {
+						aBlobFsId[i] = ssc.uploadHashed(se,fileTmp);
+					} catch (SolderException e) {
+						LOG.info(String.format("doUploadFiles %s failed: %s", se.getRelPath(), e.toString()));
+						aError[i] = e.toString();
+					}
+				} finally {
+					fileTmp.delete();
+					tf.removeTempDir(fileTmp.getParentFile());
+				}
+			}
+			if (is.read() >= 0) {
+				throw new SolderException("Upload body longer than the entries");
+			}
+			
+			state.setSuccess((encoder) -> {
+				encoder.writeLongArray("ret", aBlobFsId);
+				encoder.writeStringArray("digest", aDigest);
+				encoder.writeStringArray("error", aError);
+			});
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+	
+	static void doUploadCommit(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
 		
 		TReference<SSCommit> refSsc = new TReference<>();
 		TReference<String> refDigest = new TReference<>();
+		TReference<String> refCHash = new TReference<>();
+		TReference<String> refEnc = new TReference<>();
 		
 		
 		state.readParam((decoder) -> {
@@ -690,6 +996,7 @@ public enum SolderRestSkeleton {
 			
 			String ecid = requireEcid(decoder.readString("ecid"));
 			String digest = requireEcid(decoder.readString("digest"));
+			refEnc.set(readEnc(decoder));
 			
 			LOG.info(String.format("SolderRest Op: doUploadCommit; ecid=%s digest=%s",ecid,digest));
 			
@@ -699,19 +1006,21 @@ public enum SolderRestSkeleton {
 			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
 			refSsc.set(ssc);
 			refDigest.set(digest);
+			if (decoder.getAllObjectFields().contains("chash")) {
+				refCHash.set(Validator.require(decoder.readString("chash"), "chash", Rules.NO_NULL_EMPTY, Rules.TRIM_LOWER));
+			}
 			
 		});
 		
 		
 		SSCommit ssc = refSsc.get();
 		String digest = refDigest.get();
-		File fileTmp =null;
 		InputStream is = null;
 
 		try {
-			is = state.getRequestInputStream() ;
-			fileTmp = writeTemp(tf,ssc.srepo.getId(),ssc.commitId+"_"+digest,is,digest);
-			SCommit scommit = ssc.uploadCommit(fileTmp);
+			is = openRequestStream(state, refEnc.get());
+			// Streamed into the commit blob; the tip is checked and swapped once it is committed.
+			SCommit scommit = ssc.uploadCommit(is,digest,refCHash.get());
 			SCommitInfo sciRet = SCommit.makeSCommitInfo(Objects.requireNonNull(scommit));
 			
 			state.setSuccess((encoder) -> {
@@ -720,15 +1029,227 @@ public enum SolderRestSkeleton {
 			});
 		} finally {
 			IOUtils.closeQuietly(is);
-			if (fileTmp!=null) {
-				fileTmp.delete();
-				tf.removeTempDir(fileTmp.getParentFile());
-			}
 		}
 	}
 	
 
 	
+	static void doAbortCommit(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<Boolean> ref = new TReference<>();
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			LOG.info(String.format("SolderRest Op: doAbortCommit; ecid=%s found=%s",ecid,Boolean.toString(ssc!=null)));
+			if (ssc == null) {
+				// Already closed or expired.
+				ref.set(false);
+				return;
+			}
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			ssc.close();
+			ref.set(true);
+		});
+		
+		state.setSuccess((encoder) -> {
+			encoder.writeBoolean("ret", ref.get());
+		});
+	}
+	
+	/**
+	 * blobFsIds (-1 if absent) the repo already holds for the given content digests.
+	 */
+	static void doHasBlobs(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<long[]> ref = new TReference<>();
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			String[] aDigest = decoder.readStringArray("digests");
+			Objects.requireNonNull(aDigest,"digests");
+			if (aDigest.length > MAX_HAS_BLOBS) {
+				throw new SolderException(String.format("Too many digests %d (max %d)", aDigest.length, MAX_HAS_BLOBS));
+			}
+			LOG.info(String.format("SolderRest Op: doHasBlobs; ecid=%s count=%d",ecid,aDigest.length));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			ref.set(ssc.findBlobs(aDigest));
+		});
+		
+		state.setSuccess((encoder) -> {
+			encoder.writeLongArray("ret", ref.get());
+		});
+	}
+	
+	/**
+	 * Block signature of a stored blob (delta base) for a client computing an UPLOAD_DELTA.
+	 */
+	static void doBlobSignature(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<RsyncDelta.Signature> ref = new TReference<>();
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			long blobFsId = decoder.readLong("blob_fsid");
+			int blockSize = decoder.readInt("block_size");
+			LOG.info(String.format("SolderRest Op: doBlobSignature; ecid=%s blobFsId=%d blockSize=%d",ecid,blobFsId,blockSize));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			ref.set(ssc.signature(blobFsId, blockSize));
+		});
+		
+		state.setSuccess((encoder) -> {
+			encoder.writeInt("ret", ref.get().getBlockCount());
+		}, (os)->{
+			ref.get().write(os);
+		});
+	}
+	
+	static void doUploadDelta(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<SSCommit> refSsc = new TReference<>();
+		TReference<SolderEntry> refA = new TReference<>();
+		long[] aBase = new long[2];
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			SolderEntry se = decoder.readObject("se",SolderEntry.class);
+			Objects.requireNonNull(se,"Solder Entry!");
+			Validator.require(se.getDigest(), "digest", Rules.NO_NULL_EMPTY);
+			aBase[0] = decoder.readLong("base_fsid");
+			aBase[1] = decoder.readInt("block_size");
+			LOG.info(String.format("SolderRest Op: doUploadDelta; ecid=%s se=(relPath=%s,size=%,d,digest=%s) base=%d",ecid,se.getRelPath(),se.getSize(),se.getDigest(),aBase[0]));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			refSsc.set(ssc);
+			refA.set(se);
+		});
+		
+		SSCommit ssc = refSsc.get();
+		SolderEntry se = refA.get();
+		InputStream is = null;
+		try {
+			is = state.getRequestInputStream();
+			long blobFsId = ssc.uploadDelta(se, aBase[0], (int) aBase[1], is);
+			if (blobFsId <=0L) {
+				throw new SolderException("Error, bad BlobFSId "+blobFsId);
+			}
+			state.setSuccess((encoder) -> {
+				encoder.writeLong("ret", blobFsId);
+			});
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+	
+	/**
+	 * Part upload of a large blob: begins it on first call and returns the bytes received so far (where the client
+	 * resumes), or ret > 0 if the repo already stores the content.
+	 */
+	static void doUploadStatus(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		// [blobFsId, received]
+		long[] aStatus = new long[2];
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			SolderEntry se = decoder.readObject("se",SolderEntry.class);
+			Objects.requireNonNull(se,"Solder Entry!");
+			Validator.require(se.getDigest(), "digest", Rules.NO_NULL_EMPTY);
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			
+			PartUpload pu = ssc.partUpload(se);
+			aStatus[0] = pu != null ? -1L : se.getBlobFsId();
+			aStatus[1] = pu != null ? pu.getReceived() : se.getSize();
+			LOG.info(String.format("SolderRest Op: doUploadStatus; ecid=%s se=(relPath=%s,size=%,d,digest=%s) received=%,d blobFsId=%d",
+					ecid,se.getRelPath(),se.getSize(),se.getDigest(),aStatus[1],aStatus[0]));
+		});
+		
+		state.setSuccess((encoder) -> {
+			encoder.writeLong("ret", aStatus[0]);
+			encoder.writeLong("received", aStatus[1]);
+			encoder.writeLong("part_size", PartUpload.MAX_PART_SIZE);
+		});
+	}
+	
+	/**
+	 * One part of a part upload: the body is len bytes at off, kept only if its SHA-256 is part_digest.
+	 */
+	static void doUploadPart(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		TReference<PartUpload> refPu = new TReference<>();
+		TReference<String> refEnc = new TReference<>();
+		TReference<String> refPartDigest = new TReference<>();
+		long[] aPart = new long[2];
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			refEnc.set(readEnc(decoder));
+			String digest = Validator.require(decoder.readString("digest"), "digest", Rules.NO_NULL_EMPTY);
+			refPartDigest.set(Validator.require(decoder.readString("part_digest"), "part_digest", Rules.NO_NULL_EMPTY));
+			aPart[0] = decoder.readLong("off");
+			aPart[1] = decoder.readLong("len");
+			LOG.info(String.format("SolderRest Op: doUploadPart; ecid=%s digest=%s off=%,d len=%,d",ecid,digest,aPart[0],aPart[1]));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			refPu.set(ssc.getPartUpload(digest));
+		});
+		
+		InputStream is = null;
+		try {
+			is = openRequestStream(state, refEnc.get());
+			long received = refPu.get().appendPart(aPart[0], aPart[1], refPartDigest.get(), is);
+			state.setSuccess((encoder) -> {
+				encoder.writeLong("ret", received);
+			});
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+	
+	static void doUploadPartEnd(RestSkeletonState state) throws IOException {
+		SCall scall = (SCall)state.getCallObject();
+		
+		long[] aBlobFsId = new long[1];
+		state.readParam((decoder) -> {
+			scall.handleSession(decoder,null,false);
+			String ecid = requireEcid(decoder.readString("ecid"));
+			String digest = Validator.require(decoder.readString("digest"), "digest", Rules.NO_NULL_EMPTY);
+			LOG.info(String.format("SolderRest Op: doUploadPartEnd; ecid=%s digest=%s",ecid,digest));
+			
+			SSCommit ssc = EStateObj.get(ecid);
+			Objects.requireNonNull(ssc,()->String.format("SSCommit ecid %s not found. Invalid or expired!", ecid));
+			doSentryCheck(SolderSentryProvider.SOLDEROP_WRITE,ssc.srepo,-1);
+			aBlobFsId[0] = ssc.finishPartUpload(digest);
+		});
+		
+		if (aBlobFsId[0] <= 0L) {
+			throw new SolderException("Error, bad BlobFSId "+aBlobFsId[0]);
+		}
+		state.setSuccess((encoder) -> {
+			encoder.writeLong("ret", aBlobFsId[0]);
+		});
+	}
+	
 	static void doDelete(RestSkeletonState state) throws IOException {
 		SCall scall = (SCall)state.getCallObject();
 		
@@ -789,12 +1310,24 @@ public enum SolderRestSkeleton {
 				repoId = Validator.require(decoder.readString("id"), "repo id", Rules.NO_NULL_EMPTY, Rules.TRIM_LOWER);
 			}
 			SRepo repo = getRepo(repoSid, repoId, true);
-			repo.refresh(null);
+			repo.refreshIfStale();
 			doSentryCheck(SolderSentryProvider.SOLDEROP_SOLDER_ADMIN, repo, -1);
 			
-			LOG.info(String.format("SolderRest Op: doListCommits; sid=%d repoId=%s", repo.getSeqId(), repo.getId()));
+			// Optional page (no limit: the whole history, as before).
+			int afterId = params.contains("after") ? decoder.readInt("after") : -1;
+			int beforeId = params.contains("before") ? decoder.readInt("before") : -1;
+			Date dateFrom = params.contains("from") ? decoder.readDate("from") : null;
+			Date dateTo = params.contains("to") ? decoder.readDate("to") : null;
+			int limit = params.contains("limit") ? decoder.readInt("limit") : -1;
+			boolean fDesc = params.contains("desc") && decoder.readBoolean("desc");
+			if (limit > SCommit.MAX_PAGE_SIZE) {
+				limit = SCommit.MAX_PAGE_SIZE;
+			}
+			
+			LOG.info(String.format("SolderRest Op: doListCommits; sid=%d repoId=%s after=%d before=%d limit=%d desc=%s",
+					repo.getSeqId(), repo.getId(), afterId, beforeId, limit, Boolean.toString(fDesc)));
 			
-			List<SCommit> list = repo.getAllCommit();
+			List<SCommit> list = repo.getCommitPage(afterId, beforeId, dateFrom, dateTo, limit, fDesc);
 			SCommitInfo[] a = new SCommitInfo[list.size()];
 			for (int i = 0; i < list.size(); i++) {
 				a[i] = SCommit.makeSCommitInfo(list.get(i));
@@ -886,7 +1419,7 @@ public enum SolderRestSkeleton {
 			
 			
 			SRepo repo = getRepo(repoSid, repoId, true);
-			repo.refresh(null);
+			repo.refreshIfStale();
 			doSentryCheck(SolderSentryProvider.SOLDEROP_SOLDER_ADMIN, repo, -1);
 			
 			LOG.info(String.format("SolderRest Op: doUsageReport; sid=%d repoId=%s", repo.getSeqId(), repo.getId()));
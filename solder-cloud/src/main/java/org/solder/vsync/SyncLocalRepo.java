@@ -9,6 +9,8 @@ import java.util.function.Supplier;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.solder.rest.solder.BlobCache;
+import org.solder.rest.solder.RemoteRepoSync;
 
 import com.lnk.lucene.LuceneUtilException;
 import com.lnk.lucene.NamedSPI;
@@ -25,6 +27,11 @@ public class SyncLocalRepo {
 	
 	public static final String DEFAULT = "sdefault";
 	
+	/** Sibling of the repo folders root holding the blob cache shared by them. */
+	public static final String BLOB_CACHE_SUFFIX = ".blobs";
+	/** Size bound (bytes) of the shared blob cache; unset: no cache. */
+	public static final String ENV_BLOB_CACHE_BYTES = "ENIGMA_BLOB_CACHE_BYTES";
+	
 	
 	
 	private static final NamedSPI<SyncLocalRepo> REGISTERED = new NamedSPI<SyncLocalRepo>(true);
@@ -40,13 +47,18 @@ public class SyncLocalRepo {
 			}
 	
 			File fileSyncCache = new File(stSyncRoot, "syncLocalRepo");
-			ensure(TempFiles.DEFAULT,()->{
+			SyncLocalRepo syncRepo = ensure(TempFiles.DEFAULT,()->{
 				try {
 					return new SyncLocalRepo(SyncLocalRepo.DEFAULT, fileSyncCache);
 				}catch(IOException e) {
 					throw LuceneUtilException.rethrowUnchecked(e);
 				}
 			});
+			
+			String stBlobCacheBytes = mapEnv.get(ENV_BLOB_CACHE_BYTES);
+			if (stBlobCacheBytes != null && !stBlobCacheBytes.isBlank()) {
+				RemoteRepoSync.setBlobCache(syncRepo.initBlobCache(Long.parseLong(stBlobCacheBytes.trim())));
+			}
 		}
 	}
 
@@ -62,6 +74,8 @@ public class SyncLocalRepo {
 	String name;
 	File fileCacheRoot;
 	String stCacheRoot; 
+	File fileBlobCache;
+	BlobCache blobCache;
 	
 	
 	
@@ -73,6 +87,7 @@ public class SyncLocalRepo {
 		
 		FileUtils.forceMkdir(fileRoot);
 		fileCacheRoot = new File(fileRoot,name);
+		fileBlobCache = new File(fileRoot,name+BLOB_CACHE_SUFFIX);
 		stCacheRoot = fileCacheRoot.getAbsolutePath();
 		
 		FileUtils.forceMkdir(fileCacheRoot);
@@ -93,6 +108,21 @@ public class SyncLocalRepo {
 		return file;
 	}
 	
+	/**
+	 * Opens the blob cache shared by the sync folders. Files are hard linked to it, so identical blobs of several
+	 * repos take the disk space once.
+	 */
+	public synchronized BlobCache initBlobCache(long maxBytes) throws IOException {
+		if (blobCache == null) {
+			blobCache = new BlobCache(fileBlobCache, maxBytes, true);
+		}
+		return blobCache;
+	}
+	
+	public synchronized BlobCache getBlobCache() {
+		return blobCache;
+	}
+	
 	
 	
 	
@@ -0,0 +1,63 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.solder.rest.solder.BlobCache;
+import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.solder.SolderEntry.EntryType;
+
+/**
+ * {@link BlobCache} in link mode: a working file edited in place through its link must never be handed out again,
+ * even once every working link is gone and the entry looks unshared.
+ */
+public class SolderBlobCacheTest {
+
+	@TempDir
+	File fileRoot;
+
+	static byte[] writeRandom(File file, int size, long seed) throws IOException {
+		byte[] aB = new byte[size];
+		new Random(seed).nextBytes(aB);
+		FileUtils.writeByteArrayToFile(file, aB);
+		return aB;
+	}
+
+	@Test
+	public void test_001_EditedLinkNotTrusted() throws Exception {
+		BlobCache cache = new BlobCache(new File(fileRoot, "cache"), 1L << 30, true);
+		File fileWork = new File(fileRoot, "work1/a.bin");
+		byte[] aB = writeRandom(fileWork, 100_000, 1L);
+		SolderEntry se = new SolderEntry("a.bin", EntryType.BLOB, fileWork, -1L, 0, null);
+		cache.put(se, fileWork);
+
+		// Unchanged: served from the cache.
+		File fileWork2 = new File(fileRoot, "work2/a.bin");
+		fileWork2.getParentFile().mkdirs();
+		assertNotNull(cache.checkout(se, fileWork2));
+		assertArrayEquals(aB, FileUtils.readFileToByteArray(fileWork2));
+
+		// Same size edit in place, then every working link deleted: the entry has one link again.
+		try (RandomAccessFile raf = new RandomAccessFile(fileWork, "rw")) {
+			raf.seek(10);
+			raf.write(new byte[] { 1, 2, 3 });
+		}
+		FileUtils.delete(fileWork);
+		FileUtils.delete(fileWork2);
+
+		File fileWork3 = new File(fileRoot, "work3/a.bin");
+		fileWork3.getParentFile().mkdirs();
+		assertNull(cache.checkout(se, fileWork3));
+		assertFalse(fileWork3.exists());
+	}
+}
@@ -0,0 +1,151 @@
+package org.solder.ctest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.XXHash64;
+
+/**
+ * SHA-256/XXH64 whole file digest: stream (IOUtils.copy into DigestOutputStream) vs FileDigest direct
+ * ({@link FileDigest#digest}, never mapped) vs mapped ({@link FileDigest#digestImmutable} with the threshold at 1).
+ * The file is read once in setup so every variant runs against a warm page cache.
+ * <p>
+ * Run: java -cp "lib/*" org.openjdk.jmh.Main SolderDigestBench -p sizeMB=64,1024
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SolderDigestBench {
+
+	@Param({ "64", "1024" })
+	int sizeMB;
+
+	File file;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("SolderDigestBench", ".bin");
+		file.deleteOnExit();
+		Random random = new Random(sizeMB);
+		byte[] aB = new byte[1 << 20];
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			for (int i = 0; i < sizeMB; i++) {
+				random.nextBytes(aB);
+				fc.write(ByteBuffer.wrap(aB));
+			}
+		}
+		SolderEntry.computeFastHash(file);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+	static MessageDigest sha() {
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		return md;
+	}
+
+	@Benchmark
+	public byte[] sha256Stream() throws IOException {
+		MessageDigest md = sha();
+		InputStream is = new FileInputStream(file);
+		OutputStream os = new DigestOutputStream(NullOutputStream.INSTANCE, md);
+		try {
+			IOUtils.copy(is, os);
+		} finally {
+			IOUtils.closeQuietly(os, is);
+		}
+		return md.digest();
+	}
+
+	@Benchmark
+	public byte[] sha256Direct() throws IOException {
+		MessageDigest md = sha();
+		FileDigest.digest(file, md, null);
+		return md.digest();
+	}
+
+	@Benchmark
+	public byte[] sha256Mapped() throws IOException {
+		// Mapped whatever sizeMB is run (the default threshold would read small files direct).
+		long threshold = FileDigest.getMapThreshold();
+		FileDigest.setMapThreshold(1L);
+		try {
+			MessageDigest md = sha();
+			FileDigest.digestImmutable(file, md, null);
+			return md.digest();
+		} finally {
+			FileDigest.setMapThreshold(threshold);
+		}
+	}
+
+	@Benchmark
+	public long xxh64Stream() throws IOException {
+		XXHash64 xxh = new XXHash64();
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buf = IOUtils.byteArray();
+			int n;
+			while ((n = is.read(buf)) > 0) {
+				xxh.update(buf, 0, n);
+			}
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		return xxh.getValue();
+	}
+
+	@Benchmark
+	public long xxh64Direct() throws IOException {
+		XXHash64 xxh = new XXHash64();
+		FileDigest.digest(file, null, xxh);
+		return xxh.getValue();
+	}
+
+	@Benchmark
+	public long xxh64Mapped() throws IOException {
+		long threshold = FileDigest.getMapThreshold();
+		FileDigest.setMapThreshold(1L);
+		try {
+			XXHash64 xxh = new XXHash64();
+			FileDigest.digestImmutable(file, null, xxh);
+			return xxh.getValue();
+		} finally {
+			FileDigest.setMapThreshold(threshold);
+		}
+	}
+}
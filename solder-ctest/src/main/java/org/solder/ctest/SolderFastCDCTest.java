@@ -0,0 +1,153 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.solder.rest.util.FastCDC;
+
+/**
+ * Cut points of {@link FastCDC}. Chunk digests are stored in commits and local indexes, so the cut points for given
+ * bytes must never change, and an edit must only move the cuts near it.
+ */
+public class SolderFastCDCTest {
+
+	/** Cut points (end offsets) of 12MiB from Random(42) with the default sizes; the tail is not a cut. */
+	static final long[] CUTS_SEED42 = { 319932, 1630579, 2294731, 3471738, 4244113, 5584602, 7709622, 8155074,
+			9294557, 11339486, 11883449 };
+
+	static byte[] random(int len, long seed) {
+		byte[] aB = new byte[len];
+		new Random(seed).nextBytes(aB);
+		return aB;
+	}
+
+	/**
+	 * Feeds aB in pieces of at most piece bytes.
+	 *
+	 * @return end offset of every cut.
+	 */
+	static long[] cuts(FastCDC cdc, byte[] aB, int piece) {
+		List<Long> list = new ArrayList<>();
+		long pos = 0L;
+		for (int off = 0; off < aB.length;) {
+			int n = Math.min(piece, aB.length - off);
+			for (int i = 0; i < n;) {
+				int cut = cdc.next(aB, off + i, n - i);
+				if (cut < 0) {
+					pos += n - i;
+					i = n;
+				} else {
+					i += cut;
+					pos += cut;
+					list.add(pos);
+				}
+			}
+			off += n;
+		}
+		return list.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/** Chunk sizes, including the unfinished tail. */
+	static long[] sizes(long[] aCut, long len) {
+		long[] aSize = new long[aCut.length + 1];
+		long prev = 0L;
+		for (int i = 0; i < aCut.length; i++) {
+			aSize[i] = aCut[i] - prev;
+			prev = aCut[i];
+		}
+		aSize[aCut.length] = len - prev;
+		return aSize;
+	}
+
+	@Test
+	public void test_001_DeterministicCutPoints() {
+		byte[] aB = random(12 << 20, 42L);
+		assertArrayEquals(CUTS_SEED42, cuts(new FastCDC(), aB, 1 << 20));
+		// Read size must not matter: the chunker carries its state across calls.
+		assertArrayEquals(CUTS_SEED42, cuts(new FastCDC(), aB, 777));
+		assertArrayEquals(CUTS_SEED42, cuts(new FastCDC(), aB, aB.length));
+
+		// reset starts a new chunk.
+		FastCDC cdc = new FastCDC();
+		assertEquals(-1, cdc.next(aB, 0, 1000));
+		assertEquals(1000, cdc.getChunkLength());
+		cdc.reset();
+		assertEquals(0, cdc.getChunkLength());
+		assertArrayEquals(CUTS_SEED42, cuts(cdc, aB, 1 << 20));
+	}
+
+	@Test
+	public void test_002_SizeBounds() {
+		int min = 1024, avg = 4096, max = 16384;
+		byte[] aB = random(4 << 20, 7L);
+		long[] aSize = sizes(cuts(new FastCDC(min, avg, max), aB, 1 << 16), aB.length);
+		assertTrue(aSize.length > aB.length / max, "chunks " + aSize.length);
+		long total = 0L;
+		for (int i = 0; i < aSize.length; i++) {
+			if (i < aSize.length - 1) {
+				assertTrue(aSize[i] >= min && aSize[i] <= max, "chunk " + i + " size " + aSize[i]);
+			} else {
+				assertTrue(aSize[i] <= max, "tail size " + aSize[i]);
+			}
+			total += aSize[i];
+		}
+		assertEquals(aB.length, total);
+
+		// No content cut in constant data: every chunk is cut at max.
+		byte[] aZero = new byte[10 << 20];
+		long[] aCut = cuts(new FastCDC(), aZero, 1 << 20);
+		assertArrayEquals(new long[] { FastCDC.MAX_SIZE, 2L * FastCDC.MAX_SIZE }, aCut);
+		for (long size : sizes(cuts(new FastCDC(min, avg, max), aZero, 1000), aZero.length)) {
+			assertTrue(size <= max);
+		}
+
+		assertThrows(IllegalArgumentException.class, () -> new FastCDC(0, 4096, 16384));
+		assertThrows(IllegalArgumentException.class, () -> new FastCDC(4096, 4096, 16384));
+		assertThrows(IllegalArgumentException.class, () -> new FastCDC(1024, 5000, 16384));
+		assertThrows(IllegalArgumentException.class, () -> new FastCDC(1024, 4096, 4096));
+	}
+
+	@Test
+	public void test_003_ResyncAfterInsert() {
+		byte[] base = random(16 << 20, 11L);
+		int offInsert = 5 << 20;
+		byte[] aInsert = random(1000, 12L);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(base, 0, offInsert);
+		bos.write(aInsert, 0, aInsert.length);
+		bos.write(base, offInsert, base.length - offInsert);
+		byte[] target = bos.toByteArray();
+
+		long[] aCutBase = cuts(new FastCDC(), base, 1 << 20);
+		long[] aCutTarget = cuts(new FastCDC(), target, 1 << 20);
+
+		// Target cuts mapped back to base offsets.
+		Set<Long> setTarget = new HashSet<>();
+		for (long cut : aCutTarget) {
+			setTarget.add(cut <= offInsert ? cut : cut - aInsert.length);
+		}
+		int nLost = 0;
+		for (long cut : aCutBase) {
+			if (cut <= offInsert) {
+				assertTrue(setTarget.contains(cut), "cut before the insert moved " + cut);
+			} else if (!setTarget.contains(cut)) {
+				nLost++;
+				// Only a cut inside the chunk that holds the insert may move.
+				assertTrue(cut < offInsert + FastCDC.MAX_SIZE, "cut far after the insert moved " + cut);
+			}
+		}
+		assertTrue(nLost <= 1, "lost cuts " + nLost);
+		// At most the chunk holding the insert (and the one after a moved cut) differ.
+		assertTrue(Math.abs(aCutTarget.length - aCutBase.length) <= 1);
+	}
+}
@@ -0,0 +1,237 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.solder.rest.solder.SLocalIndex;
+import org.solder.rest.solder.SLocalRepo;
+import org.solder.rest.solder.SRepoInfo;
+import org.solder.rest.solder.SolderChunk;
+import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FastCDC;
+
+import com.jnk.util.PrintUtils;
+
+/**
+ * {@link SLocalIndex} round trips: writing an index and rewriting it from its mapped view must keep every field,
+ * including the chunk lists of chunked entries.
+ */
+public class SolderLocalIndexTest {
+
+	private static Log LOG = LogFactory.getLog(SolderLocalIndexTest.class.getName());
+
+	static final long CHUNK_THRESHOLD = 1L << 20;
+
+	@TempDir
+	File fileRoot;
+
+	static void writeRandom(File file, int size, long seed) throws IOException {
+		byte[] aB = new byte[size];
+		new Random(seed).nextBytes(aB);
+		FileUtils.writeByteArrayToFile(file, aB);
+	}
+
+	/** Small files sharing path prefixes (several restart intervals) and two files above the chunk threshold. */
+	void writeTree() throws IOException {
+		for (int d = 0; d < 5; d++) {
+			for (int f = 0; f < 9; f++) {
+				writeRandom(new File(fileRoot, String.format("data/dir%02d/file%02d.bin", d, f)), 100 + d * 10 + f,
+						d * 100 + f);
+			}
+		}
+		writeRandom(new File(fileRoot, "data/big/one.bin"), (3 << 20) + 17, 1000L);
+		writeRandom(new File(fileRoot, "data/big/two.bin"), 6 << 20, 1001L);
+	}
+
+	SLocalRepo openRepo() throws IOException {
+		SRepoInfo repoInfo = new SRepoInfo(1, "localindextest", "test", 1, 1, "active", "commit", 0, null, null, null,
+				null);
+		return new SLocalRepo(repoInfo, fileRoot, true);
+	}
+
+	/**
+	 * Push scan of the tree; BLOBs of at least CHUNK_THRESHOLD come back chunked when fChunk.
+	 */
+	Map<String, SolderEntry> scan(boolean fChunk) throws IOException {
+		long chunkThresholdPrev = SLocalRepo.getChunkThreshold();
+		SLocalRepo.setChunkThreshold(fChunk ? CHUNK_THRESHOLD : Long.MAX_VALUE);
+		try {
+			SLocalRepo lrepo = openRepo();
+			Map<String, SolderEntry> map = lrepo.createEntryMap(new HashMap<>(), fChunk);
+			int i = 0;
+			for (SolderEntry se : map.values()) {
+				assertFalse(se.isDigestPending(), se.getRelPath());
+				se.setBlobFsId(1000L + i);
+				se.setCommitId(7 + i % 3);
+				if (se.isChunked()) {
+					for (SolderChunk sc : se.getChunks()) {
+						sc.setBlobFsId(5000L + i++);
+					}
+				}
+				i++;
+			}
+			return map;
+		} finally {
+			SLocalRepo.setChunkThreshold(chunkThresholdPrev);
+		}
+	}
+
+	static void assertEntry(SolderEntry expect, SolderEntry se) {
+		String stPath = expect.getRelPath();
+		assertNotNull(se, stPath);
+		assertEquals(stPath, se.getRelPath());
+		assertEquals(expect.getType(), se.getType(), stPath);
+		assertEquals(expect.getLastModified(), se.getLastModified(), stPath);
+		assertEquals(expect.getSize(), se.getSize(), stPath);
+		assertEquals(expect.getDigest(), se.getDigest(), stPath);
+		assertEquals(expect.getBlobFsId(), se.getBlobFsId(), stPath);
+		assertEquals(expect.getCommitId(), se.getCommitId(), stPath);
+		assertEquals(expect.getFastHashAlgo(), se.getFastHashAlgo(), stPath);
+		assertEquals(expect.getFastHash(), se.getFastHash(), stPath);
+		assertEquals(expect.isChunked(), se.isChunked(), stPath);
+		if (expect.isChunked()) {
+			SolderChunk[] aExpect = expect.getChunks();
+			SolderChunk[] aChunk = se.getChunks();
+			assertEquals(aExpect.length, aChunk.length, stPath);
+			for (int i = 0; i < aExpect.length; i++) {
+				assertEquals(aExpect[i].getOffset(), aChunk[i].getOffset(), stPath + " chunk " + i);
+				assertEquals(aExpect[i].getSize(), aChunk[i].getSize(), stPath + " chunk " + i);
+				assertEquals(aExpect[i].getDigest(), aChunk[i].getDigest(), stPath + " chunk " + i);
+				assertEquals(aExpect[i].getBlobFsId(), aChunk[i].getBlobFsId(), stPath + " chunk " + i);
+			}
+		}
+	}
+
+	static void assertIndex(Map<String, SolderEntry> mapExpect, SLocalIndex lindex) {
+		assertEquals(mapExpect.size(), lindex.size());
+		Iterator<SolderEntry> iter = lindex.iterator();
+		for (SolderEntry expect : new TreeMap<>(mapExpect).values()) {
+			assertTrue(iter.hasNext());
+			assertEntry(expect, iter.next());
+			assertEntry(expect, lindex.get(expect.getRelPath()));
+		}
+		assertFalse(iter.hasNext());
+		assertNull(lindex.get("data/dir00/file00.bin.missing"));
+		assertNull(lindex.get("a"));
+		assertNull(lindex.get("zzz"));
+		assertFalse(lindex.asMap().containsKey("data/dir05"));
+	}
+
+	@Test
+	public void test_001_RoundTripWithChunks() throws Exception {
+		writeTree();
+		Map<String, SolderEntry> mapWhole = scan(false);
+		Map<String, SolderEntry> mapChunked = scan(true);
+		assertEquals(mapWhole.keySet(), mapChunked.keySet());
+		assertTrue(mapChunked.get("data/big/one.bin").isChunked());
+		assertTrue(mapChunked.get("data/big/two.bin").isChunked());
+
+		for (Map<String, SolderEntry> map : List.of(mapWhole, mapChunked)) {
+			File fileIndex = new File(fileRoot, ".solder/test.index");
+			assertEquals(map.size(), SLocalIndex.write(fileIndex, new TreeMap<>(map).values()));
+			SLocalIndex lindex = SLocalIndex.open(fileIndex);
+			LOG.info(String.format("Written %s", lindex));
+			assertIndex(map, lindex);
+
+			// Once more straight from the mapped view.
+			File fileAgain = new File(fileRoot, ".solder/test.index.again");
+			SLocalIndex.write(fileAgain, lindex.asMap().values());
+			assertIndex(map, SLocalIndex.open(fileAgain));
+		}
+
+		// Any other version is refused rather than misread.
+		File fileIndex = new File(fileRoot, ".solder/test.index");
+		try (RandomAccessFile raf = new RandomAccessFile(fileIndex, "rw")) {
+			raf.seek(4L);
+			raf.writeInt(2);
+			raf.seek(raf.length() - 8L);
+			raf.writeInt(2);
+		}
+		assertThrows(Exception.class, () -> SLocalIndex.open(fileIndex));
+	}
+
+	@Test
+	public void test_002_ChunkListMatchesContent() throws Exception {
+		writeTree();
+		Map<String, SolderEntry> mapChunked = scan(true);
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		for (String stPath : new String[] { "data/big/one.bin", "data/big/two.bin" }) {
+			SolderEntry se = mapChunked.get(stPath);
+			byte[] aB = FileUtils.readFileToByteArray(new File(fileRoot, stPath));
+			md.reset();
+			md.update(aB);
+			assertEquals(PrintUtils.toHexString(md.digest()), se.getDigest());
+
+			FastCDC cdc = new FastCDC();
+			long off = 0L;
+			for (SolderChunk sc : se.getChunks()) {
+				assertEquals(off, sc.getOffset(), stPath);
+				assertTrue(sc.getSize() > 0L && sc.getSize() <= FastCDC.MAX_SIZE, sc.toString());
+				int cut = cdc.next(aB, (int) off, (int) sc.getSize());
+				// Every chunk but the tail ends at a cut point.
+				assertTrue(cut == sc.getSize() || (cut < 0 && off + sc.getSize() == aB.length), sc.toString());
+				md.reset();
+				md.update(aB, (int) off, (int) sc.getSize());
+				assertEquals(PrintUtils.toHexString(md.digest()), sc.getDigest(), sc.toString());
+				off += sc.getSize();
+			}
+			assertEquals(aB.length, off);
+			assertTrue(se.getChunks().length > 1, stPath);
+		}
+	}
+
+	@Test
+	public void test_003_IndexMapAsPrior() throws Exception {
+		writeTree();
+		Map<String, SolderEntry> mapPrev = scan(false);
+		File fileIndex = new File(fileRoot, ".solder/test.index");
+		SLocalIndex.write(fileIndex, new TreeMap<>(mapPrev).values());
+		Map<String, SolderEntry> mapIndex = SLocalIndex.open(fileIndex).asMap();
+		assertThrows(UnsupportedOperationException.class, () -> mapIndex.remove("data/dir00/file00.bin"));
+
+		// Edit, delete and add; the index view is only looked up, never copied or changed.
+		writeRandom(new File(fileRoot, "data/dir00/file00.bin"), 500, 99L);
+		assertTrue(new File(fileRoot, "data/dir01/file01.bin").delete());
+		writeRandom(new File(fileRoot, "data/dir09/new.bin"), 10, 98L);
+
+		SLocalRepo lrepo = openRepo();
+		// A new local repo commits an empty current version index.
+		assertEquals(0, lrepo.getEntryMap().size());
+		assertTrue(new File(fileRoot, ".solder/" + SLocalRepo.SOLDER_LOCAL_INDEX_PREFIX + "1").exists());
+
+		Map<String, SolderEntry> mapNow = lrepo.createEntryMap(mapIndex, false);
+		assertEquals(mapPrev.size(), mapNow.size());
+		assertEquals(mapPrev.size(), mapIndex.size());
+		assertNull(mapNow.get("data/dir01/file01.bin"));
+		assertNotNull(mapNow.get("data/dir09/new.bin"));
+		assertNotEquals(mapPrev.get("data/dir00/file00.bin").getDigest(),
+				mapNow.get("data/dir00/file00.bin").getDigest());
+		for (SolderEntry se : mapNow.values()) {
+			SolderEntry sePrev = mapIndex.get(se.getRelPath());
+			if (sePrev != null && sePrev.getSize() == se.getSize()) {
+				assertEquals(sePrev.getDigest(), se.getDigest(), se.getRelPath());
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.solder.core.PartFile;
+import org.solder.core.SolderException;
+import org.solder.rest.solder.RemoteRepoSync;
+import org.solder.rest.solder.RestRepoFileService;
+import org.solder.rest.solder.SLocalRepo;
+import org.solder.rest.solder.SRepoInfo;
+import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.solder.SolderEntry.EntryType;
+import org.solder.rest.util.FileDigest;
+
+import com.jnk.util.PrintUtils;
+
+/**
+ * A new file of at least the part upload size must reach the push with its digest, so it is sent as resumable
+ * parts (UPLOAD_PART) instead of a single digest pending upload; the server side {@link PartFile} must keep exactly
+ * the parts that arrived whole, in order.
+ */
+public class SolderPartUploadTest {
+
+	private static Log LOG = LogFactory.getLog(SolderPartUploadTest.class.getName());
+
+	static final long PART_MIN_SIZE = 8L << 20;
+	static final int PART = 64 << 10;
+
+	@TempDir
+	File fileRoot;
+
+	static void writeRandom(File file, byte[] aB, long seed) throws IOException {
+		new Random(seed).nextBytes(aB);
+		FileUtils.writeByteArrayToFile(file, aB);
+	}
+
+	static File writeRandom(File file, long size, long seed) throws IOException {
+		Random random = new Random(seed);
+		byte[] aB = new byte[(int) size];
+		random.nextBytes(aB);
+		FileUtils.writeByteArrayToFile(file, aB);
+		return file;
+	}
+
+	static String sha256(File file) throws IOException {
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		FileDigest.digest(file, md, null);
+		return PrintUtils.toHexString(md.digest());
+	}
+
+	static String sha256(byte[] aB, int off, int len) {
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		md.update(aB, off, len);
+		return PrintUtils.toHexString(md.digest());
+	}
+
+	/**
+	 * Sends part i (of PART bytes) of aB with its own digest.
+	 */
+	static long append(PartFile pf, byte[] aB, int i) throws IOException {
+		int off = i * PART;
+		int len = Math.min(PART, aB.length - off);
+		return pf.appendPart(off, len, sha256(aB, off, len), new ByteArrayInputStream(aB, off, len));
+	}
+
+	/** Entry of random content, which is also written to aB. */
+	SolderEntry entry(byte[] aB, long seed) throws IOException {
+		File file = new File(fileRoot, "src/" + seed + ".bin");
+		writeRandom(file, aB, seed);
+		return new SolderEntry("data/" + seed + ".bin", EntryType.BLOB, file, -1L, 0, null);
+	}
+
+	@Test
+	public void test_001_NewLargeFileGoesAsParts() throws Exception {
+		long partMinSizePrev = RemoteRepoSync.getPartUploadMinSize();
+		RemoteRepoSync.setPartUploadMinSize(PART_MIN_SIZE);
+		try {
+			SRepoInfo repoInfo = new SRepoInfo(1, "partuploadtest", "test", 1, 1, "active", "commit", 0, null, null,
+					null, null);
+			File fileLarge = writeRandom(new File(fileRoot, "data/large.bin"), PART_MIN_SIZE + 1, 1L);
+			File fileSmall = writeRandom(new File(fileRoot, "data/small.bin"), SLocalRepo.getDeferDigestSize(), 2L);
+
+			SLocalRepo lrepo = new SLocalRepo(repoInfo, fileRoot, true);
+			Map<String, SolderEntry> map = lrepo.createEntryMap(new HashMap<>(), true);
+			LOG.info(String.format("Push entries: %s", map.keySet()));
+
+			SolderEntry seLarge = map.get("data/large.bin");
+			assertNotNull(seLarge);
+			assertFalse(seLarge.isDigestPending(), "large new file must be digested by the scan");
+			assertEquals(sha256(fileLarge), seLarge.getDigest());
+			assertTrue(RestRepoFileService.isPartUpload(seLarge), "large new file must go through UPLOAD_PART");
+
+			SolderEntry seSmall = map.get("data/small.bin");
+			assertNotNull(seSmall);
+			assertTrue(seSmall.isDigestPending(), "smaller new file is still hashed while it is uploaded");
+			assertFalse(RestRepoFileService.isPartUpload(seSmall));
+		} finally {
+			RemoteRepoSync.setPartUploadMinSize(partMinSizePrev);
+		}
+	}
+
+	@Test
+	public void test_002_BadPartDigestTruncated() throws Exception {
+		byte[] aB = new byte[3 * PART + PART / 2];
+		SolderEntry se = entry(aB, 3L);
+		File fileAssembled = new File(fileRoot, "assembled");
+		try (PartFile pf = new PartFile(se, fileAssembled)) {
+			assertEquals(PART, append(pf, aB, 0));
+			// Wrong digest: the part is dropped and its bytes truncated away.
+			String digestWrong = sha256(aB, 0, PART);
+			assertThrows(SolderException.class,
+					() -> pf.appendPart(PART, PART, digestWrong, new ByteArrayInputStream(aB, PART, PART)));
+			assertEquals(PART, pf.getReceived());
+			assertEquals(PART, fileAssembled.length());
+			// A body that ends early is dropped too.
+			assertThrows(IOException.class, () -> pf.appendPart(PART, PART, sha256(aB, PART, PART),
+					new ByteArrayInputStream(aB, PART, PART / 2)));
+			assertEquals(PART, pf.getReceived());
+			assertEquals(PART, fileAssembled.length());
+
+			for (int i = 1; i < 4; i++) {
+				append(pf, aB, i);
+			}
+			assertEquals(se.getDigest(), pf.finish());
+		}
+		assertTrue(Arrays.equals(aB, FileUtils.readFileToByteArray(fileAssembled)));
+	}
+
+	@Test
+	public void test_003_ResentPart() throws Exception {
+		byte[] aB = new byte[3 * PART + PART / 2];
+		SolderEntry se = entry(aB, 4L);
+		File fileAssembled = new File(fileRoot, "assembled");
+		try (PartFile pf = new PartFile(se, fileAssembled)) {
+			append(pf, aB, 0);
+			assertEquals(2L * PART, append(pf, aB, 1));
+			// Acknowledgement lost, part sent again: skipped, its body consumed.
+			ByteArrayInputStream bis = new ByteArrayInputStream(aB, PART, PART);
+			assertEquals(2L * PART, pf.appendPart(PART, PART, sha256(aB, PART, PART), bis));
+			assertEquals(0, bis.available());
+			assertEquals(2L * PART, append(pf, aB, 0));
+			append(pf, aB, 2);
+			assertEquals(aB.length, append(pf, aB, 3));
+			assertEquals(se.getDigest(), pf.finish());
+		}
+		assertTrue(Arrays.equals(aB, FileUtils.readFileToByteArray(fileAssembled)));
+	}
+
+	@Test
+	public void test_004_OutOfOrderOffset() throws Exception {
+		byte[] aB = new byte[3 * PART + PART / 2];
+		SolderEntry se = entry(aB, 5L);
+		try (PartFile pf = new PartFile(se, new File(fileRoot, "assembled"))) {
+			// Ahead of the bytes received.
+			assertThrows(SolderException.class, () -> append(pf, aB, 1));
+			assertEquals(0L, pf.getReceived());
+			append(pf, aB, 0);
+			// Overlapping the end of what was received.
+			int off = PART / 2;
+			assertThrows(SolderException.class, () -> pf.appendPart(off, PART, sha256(aB, off, PART),
+					new ByteArrayInputStream(aB, off, PART)));
+			// Past the entry size.
+			assertThrows(SolderException.class, () -> pf.appendPart(PART, aB.length, sha256(aB, PART, PART),
+					new ByteArrayInputStream(aB, PART, PART)));
+			assertEquals(PART, pf.getReceived());
+			// Incomplete.
+			assertThrows(SolderException.class, () -> pf.finish());
+		}
+	}
+
+	@Test
+	public void test_005_FinalDigestMismatch() throws Exception {
+		byte[] aB = new byte[3 * PART + PART / 2];
+		SolderEntry se = entry(aB, 6L);
+		// Every part whole and matching its own digest, but not the content the entry was digested from.
+		byte[] aOther = aB.clone();
+		aOther[aOther.length - 1] ^= 1;
+		try (PartFile pf = new PartFile(se, new File(fileRoot, "assembled"))) {
+			for (int i = 0; i < 4; i++) {
+				append(pf, aOther, i);
+			}
+			assertEquals(aB.length, pf.getReceived());
+			assertThrows(SolderException.class, () -> pf.finish());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.solder.rest.solder.SolderEntry;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.RsyncDelta;
+
+import com.jnk.util.PrintUtils;
+
+/**
+ * Round trips of {@link RsyncDelta}: the server rebuilds stored blobs from these deltas, so every rebuilt file must
+ * be byte identical to what the client digested.
+ */
+public class SolderRsyncDeltaTest {
+
+	static final int BS = RsyncDelta.MIN_BLOCK_SIZE;
+	/** RsyncDelta.MAX_LITERAL: longest literal op. */
+	static final int MAX_LITERAL = 64 << 10;
+
+	@TempDir
+	File fileRoot;
+
+	static byte[] random(int len, long seed) {
+		byte[] aB = new byte[len];
+		new Random(seed).nextBytes(aB);
+		return aB;
+	}
+
+	static byte[] concat(byte[]... aaB) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (byte[] aB : aaB) {
+			bos.write(aB, 0, aB.length);
+		}
+		return bos.toByteArray();
+	}
+
+	static byte[] range(byte[] aB, int from, int to) {
+		byte[] aR = new byte[to - from];
+		System.arraycopy(aB, from, aR, 0, aR.length);
+		return aR;
+	}
+
+	/**
+	 * Deltas target against base, rebuilds it and checks bytes and digest.
+	 *
+	 * @return bytes sent as literals.
+	 */
+	long roundTrip(byte[] base, byte[] target, int blockSize) throws IOException {
+		File fileBase = new File(fileRoot, "base");
+		File fileTarget = new File(fileRoot, "target");
+		FileUtils.writeByteArrayToFile(fileBase, base);
+		FileUtils.writeByteArrayToFile(fileTarget, target);
+
+		RsyncDelta.Signature sig = RsyncDelta.signature(fileBase, blockSize);
+		ByteArrayOutputStream bosSig = new ByteArrayOutputStream();
+		sig.write(bosSig);
+		sig = RsyncDelta.Signature.read(new ByteArrayInputStream(bosSig.toByteArray()));
+
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		ByteArrayOutputStream bosDelta = new ByteArrayOutputStream();
+		long szLiteral = RsyncDelta.delta(fileTarget, sig, bosDelta, md, null);
+		String digestSent = PrintUtils.toHexString(md.digest());
+
+		ByteArrayOutputStream bosNew = new ByteArrayOutputStream();
+		long szRebuilt = RsyncDelta.apply(fileBase, new ByteArrayInputStream(bosDelta.toByteArray()), bosNew, blockSize);
+		assertEquals(target.length, szRebuilt);
+		assertArrayEquals(target, bosNew.toByteArray());
+
+		md.reset();
+		md.update(target);
+		assertEquals(PrintUtils.toHexString(md.digest()), digestSent);
+		assertTrue(szLiteral >= 0L && szLiteral <= target.length);
+		return szLiteral;
+	}
+
+	@Test
+	public void test_001_EmptyBase() throws Exception {
+		byte[] target = random(100_000, 1L);
+		assertEquals(target.length, roundTrip(new byte[0], target, BS));
+		assertEquals(0L, roundTrip(new byte[0], new byte[0], BS));
+	}
+
+	@Test
+	public void test_002_PartialLastBlock() throws Exception {
+		byte[] base = random(10 * BS + 123, 2L);
+		assertEquals(0L, roundTrip(base, base, BS));
+		// Shorter than a block: only the base's partial last block can be copied.
+		byte[] small = random(BS - 1, 3L);
+		assertEquals(0L, roundTrip(small, small, BS));
+		// Changed tail: the full blocks are still copied.
+		byte[] target = concat(range(base, 0, 10 * BS), random(123, 4L));
+		assertEquals(123L, roundTrip(base, target, BS));
+	}
+
+	@Test
+	public void test_003_InsertDeleteAppend() throws Exception {
+		byte[] base = random(1 << 20, 5L);
+		byte[] target = concat(range(base, 0, 300_000), random(777, 6L), range(base, 300_000, 600_000),
+				range(base, 650_000, base.length), random(5000, 7L));
+		long szLiteral = roundTrip(base, target, BS);
+		// Edits plus at most a partial block around each of them.
+		assertTrue(szLiteral < 777 + 5000 + 4 * BS, "literal " + szLiteral);
+	}
+
+	@Test
+	public void test_004_LongLiteralRuns() throws Exception {
+		byte[] base = random(8 * BS, 8L);
+		byte[] target = random(5 * MAX_LITERAL + 17, 9L);
+		assertEquals(target.length, roundTrip(base, target, BS));
+		// A long run of new bytes between copied blocks.
+		byte[] target2 = concat(range(base, 0, 4 * BS), random(3 * MAX_LITERAL + 1, 10L), range(base, 4 * BS, 8 * BS));
+		assertTrue(roundTrip(base, target2, BS) < 3 * MAX_LITERAL + 1 + 2 * BS);
+	}
+
+	@Test
+	public void test_005_RefillBoundaries() throws Exception {
+		int bs = 8 << 10;
+		int buffer = Math.max(FileDigest.DIRECT_BUFFER_SIZE, bs * 4);
+		byte[] base = random(3 * buffer + buffer / 2 + 321, 11L);
+		byte[] target = base.clone();
+		// Single byte changes on both sides of each refill point.
+		for (int k = 1; k <= 3; k++) {
+			target[k * buffer - 1] ^= 1;
+			target[k * buffer + bs] ^= 1;
+		}
+		long szLiteral = roundTrip(base, target, bs);
+		assertTrue(szLiteral <= 6L * 2 * bs, "literal " + szLiteral);
+
+		// A shift that straddles the first refill: every later block must still match.
+		byte[] shifted = concat(range(base, 0, buffer - 10), random(33, 12L), range(base, buffer - 10, base.length));
+		szLiteral = roundTrip(base, shifted, bs);
+		assertTrue(szLiteral < 33 + 2 * bs, "literal " + szLiteral);
+
+		// Larger than the buffer and unrelated to the base.
+		byte[] other = random(buffer + buffer / 3, 13L);
+		assertEquals(other.length, roundTrip(base, other, bs));
+	}
+}
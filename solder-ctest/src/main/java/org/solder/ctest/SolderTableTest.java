@@ -1,10 +1,17 @@
 package org.solder.ctest;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
@@ -13,6 +20,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.solder.core.SCommit;
 import org.solder.core.SRepo;
 import org.solder.core.SolderVaultFactory;
 
@@ -127,4 +135,72 @@ public class SolderTableTest {
 		svf.repoGitPush(repoId);
 	}
 	
+	static List<Integer> ids(List<SCommit> list) {
+		List<Integer> listId = new ArrayList<>();
+		for (SCommit sc : list) {
+			listId.add(sc.getId());
+		}
+		return listId;
+	}
+	
+	static List<Integer> ids(List<SCommit> listAll, Predicate<SCommit> pred, boolean fDesc) {
+		List<Integer> listId = new ArrayList<>();
+		for (SCommit sc : listAll) {
+			if (pred.test(sc)) {
+				listId.add(sc.getId());
+			}
+		}
+		if (fDesc) {
+			Collections.reverse(listId);
+		}
+		return listId;
+	}
+	
+	/**
+	 * Commit selects by ids and by page (id and date bounds, both orders) against the full history pushed by the
+	 * tests above.
+	 */
+	@Test
+	public void test_005_CommitQueries() throws Exception {
+		SRepo srepo = SRepo.getRepoById(repoId);
+		List<SCommit> listAll = srepo.getAllCommit();
+		assertFalse(listAll.isEmpty(), "commits pushed by the earlier tests");
+		int n = listAll.size();
+		SCommit scFirst = listAll.get(0), scMid = listAll.get(n / 2), scLast = listAll.get(n - 1);
+		
+		// Ids: any order, duplicates, a chunk far from full.
+		int[] aId = new int[] { scLast.getId(), scFirst.getId(), scMid.getId(), scFirst.getId() };
+		SCommit[] aCommit = srepo.getCommits(aId);
+		for (int i = 0; i < aId.length; i++) {
+			assertEquals(aId[i], aCommit[i].getId());
+		}
+		
+		for (boolean fDesc : new boolean[] { false, true }) {
+			assertEquals(ids(listAll, (sc) -> true, fDesc), ids(srepo.getCommitPage(0, 0, null, null, 0, fDesc)));
+			assertEquals(ids(listAll, (sc) -> sc.getId() > scFirst.getId() && sc.getId() < scLast.getId(), fDesc),
+					ids(srepo.getCommitPage(scFirst.getId(), scLast.getId(), null, null, 0, fDesc)));
+			assertEquals(ids(listAll, (sc) -> sc.getId() > scFirst.getId(), fDesc),
+					ids(srepo.getCommitPage(scFirst.getId(), 0, null, null, 0, fDesc)));
+			assertEquals(ids(listAll, (sc) -> sc.getId() < scMid.getId(), fDesc),
+					ids(srepo.getCommitPage(0, scMid.getId(), null, null, 0, fDesc)));
+			
+			Date dateFrom = scMid.getCreateDate(), dateTo = scLast.getCreateDate();
+			assertEquals(ids(listAll, (sc) -> !sc.getCreateDate().before(dateFrom), fDesc),
+					ids(srepo.getCommitPage(0, 0, dateFrom, null, 0, fDesc)));
+			assertEquals(ids(listAll, (sc) -> sc.getCreateDate().before(dateTo), fDesc),
+					ids(srepo.getCommitPage(0, 0, null, dateTo, 0, fDesc)));
+			// Every bound at once, so each placeholder gets its own value.
+			assertEquals(
+					ids(listAll, (sc) -> sc.getId() > scFirst.getId() && sc.getId() < scLast.getId() + 1
+							&& !sc.getCreateDate().before(dateFrom) && sc.getCreateDate().before(dateTo), fDesc),
+					ids(srepo.getCommitPage(scFirst.getId(), scLast.getId() + 1, dateFrom, dateTo, 0, fDesc)));
+			
+			List<Integer> listPage = ids(srepo.getCommitPage(0, 0, null, null, 1, fDesc));
+			assertEquals(1, listPage.size());
+			assertEquals(fDesc ? scLast.getId() : scFirst.getId(), listPage.get(0).intValue());
+		}
+		// No rows once the bounds cross.
+		assertEquals(0, srepo.getCommitPage(scLast.getId(), scFirst.getId(), null, null, 0, false).size());
+	}
+	
 }
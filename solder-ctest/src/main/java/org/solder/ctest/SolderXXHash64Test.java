@@ -0,0 +1,128 @@
+package org.solder.ctest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.solder.rest.util.XXHash64;
+
+/**
+ * {@link XXHash64} against the reference XXH64 vectors (xxhsum sanity checks). Stored entries carry this hash: any
+ * change to its output silently invalidates every recorded fast hash.
+ */
+public class SolderXXHash64Test {
+
+	static final long PRIME32 = 2654435761L;
+	/** xxhsum's generator multiplier 11400714785074694797 (not XXH64's PRIME64_1). */
+	static final long PRIME64 = 0x9E3779B185EBCA8DL;
+
+	static final int[] SANITY_LEN = { 0, 1, 14, 222 };
+	/** XXH64 of the first SANITY_LEN bytes of the sanity buffer, seed 0. */
+	static final long[] SANITY_SEED0 = { 0xEF46DB3751D8E999L, 0xE934A84ADB052768L, 0x8282DCC4994E35C8L,
+			0xB641AE8CB691C174L };
+	/** Same, seed PRIME32. */
+	static final long[] SANITY_SEED_PRIME = { 0xAC75FDA2929B17EFL, 0x5014607643A9B4C3L, 0xC3BD6BF63DEB6DF0L,
+			0x20CB8AB7AE10C14AL };
+
+	/**
+	 * The xxhsum sanity buffer: top byte of a PRIME32 seeded multiplicative generator.
+	 */
+	static byte[] sanityBuffer(int len) {
+		byte[] aB = new byte[len];
+		long byteGen = PRIME32;
+		for (int i = 0; i < len; i++) {
+			aB[i] = (byte) (byteGen >>> 56);
+			byteGen *= PRIME64;
+		}
+		return aB;
+	}
+
+	static long hash(byte[] aB, int len, long seed) {
+		XXHash64 xxh = new XXHash64(seed);
+		xxh.update(aB, 0, len);
+		return xxh.getValue();
+	}
+
+	@Test
+	public void test_001_ReferenceVectors() {
+		byte[] aB = sanityBuffer(222);
+		for (int i = 0; i < SANITY_LEN.length; i++) {
+			assertEquals(SANITY_SEED0[i], hash(aB, SANITY_LEN[i], 0L), "len " + SANITY_LEN[i]);
+			assertEquals(SANITY_SEED0[i], XXHash64.hash(aB, 0, SANITY_LEN[i]), "len " + SANITY_LEN[i]);
+			assertEquals(SANITY_SEED_PRIME[i], hash(aB, SANITY_LEN[i], PRIME32), "len " + SANITY_LEN[i]);
+		}
+		byte[] aText = "Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0xFBCEA83C8A378BF1L, XXHash64.hash(aText, 0, aText.length));
+		byte[] aAbc = "abc".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0x44BC2CF5AD770999L, XXHash64.hash(aAbc, 0, aAbc.length));
+	}
+
+	@Test
+	public void test_002_StreamingSplits() {
+		byte[] aB = sanityBuffer(222);
+		long expect = SANITY_SEED0[3];
+		// Every split point, so updates end inside, at and across the 32 byte stripe.
+		for (int split = 0; split <= aB.length; split++) {
+			XXHash64 xxh = new XXHash64();
+			xxh.update(aB, 0, split);
+			xxh.update(aB, split, aB.length - split);
+			assertEquals(expect, xxh.getValue(), "split " + split);
+			assertEquals(aB.length, xxh.getLength());
+		}
+		// Uneven pieces, byte at a time and through byte buffers.
+		int[] aPiece = { 1, 31, 2, 33, 64, 7, 32 };
+		XXHash64 xxhPieces = new XXHash64();
+		XXHash64 xxhHeap = new XXHash64();
+		XXHash64 xxhDirect = new XXHash64();
+		ByteBuffer bbDirect = ByteBuffer.allocateDirect(aB.length);
+		bbDirect.put(aB).flip();
+		for (int off = 0, k = 0; off < aB.length; k++) {
+			int n = Math.min(aPiece[k % aPiece.length], aB.length - off);
+			xxhPieces.update(aB, off, n);
+			xxhHeap.update(ByteBuffer.wrap(aB, off, n));
+			ByteBuffer bb = bbDirect.duplicate();
+			bb.position(off).limit(off + n);
+			xxhDirect.update(bb);
+			off += n;
+		}
+		XXHash64 xxhBytes = new XXHash64();
+		for (byte b : aB) {
+			xxhBytes.update(b);
+		}
+		assertEquals(expect, xxhPieces.getValue());
+		assertEquals(expect, xxhHeap.getValue());
+		assertEquals(expect, xxhDirect.getValue());
+		assertEquals(expect, xxhBytes.getValue());
+
+		// getValue does not end the stream; reset starts over.
+		xxhPieces.reset();
+		xxhPieces.update(aB, 0, 14);
+		assertEquals(SANITY_SEED0[2], xxhPieces.getValue());
+	}
+
+	@Test
+	public void test_003_HashingStreams() throws IOException {
+		byte[] aB = sanityBuffer(222);
+		XXHash64 xxhIn = new XXHash64();
+		try (InputStream is = new XXHash64.HashingInputStream(new ByteArrayInputStream(aB), xxhIn)) {
+			IOUtils.copy(is, OutputStream.nullOutputStream(), 13);
+		}
+		assertEquals(SANITY_SEED0[3], xxhIn.getValue());
+
+		XXHash64 xxhOut = new XXHash64();
+		try (OutputStream os = new XXHash64.HashingOutputStream(new ByteArrayOutputStream(), xxhOut)) {
+			os.write(aB, 0, 100);
+			os.write(aB[100]);
+			os.write(aB, 101, aB.length - 101);
+		}
+		assertEquals(SANITY_SEED0[3], xxhOut.getValue());
+	}
+}
@@ -27,11 +27,20 @@ public enum SolderRestOp implements RestOp {
 	GET_COMMIT("solgc", SolderRestOp::autoboxSolder, false, false),
 	
 	DOWNLOAD_FILE("soldf", SolderRestOp::autoboxSolder, false, true),
+	DOWNLOAD_FILES("soldfs", SolderRestOp::autoboxSolder, false, true),
 	
 	
 	BEGIN_COMMIT("solbc", SolderRestOp::autoboxSolder, false, false),
 	UPLOAD_FILE("soluf", null, true, false), 
-	UPLOAD_COMMIT("soluc", null, true, false);
+	UPLOAD_FILES("solufs", null, true, false),
+	HAS_BLOBS("solhb", SolderRestOp::autoboxSolder, false, false),
+	UPLOAD_COMMIT("soluc", null, true, false),
+	ABORT_COMMIT("solac", SolderRestOp::autoboxSolder, false, false),
+	BLOB_SIGNATURE("solbsig", SolderRestOp::autoboxSolder, false, true),
+	UPLOAD_DELTA("solud", null, true, false),
+	UPLOAD_STATUS("solups", SolderRestOp::autoboxSolder, false, false),
+	UPLOAD_PART("solupp", null, true, false),
+	UPLOAD_PART_END("solupe", SolderRestOp::autoboxSolder, false, false);
 	
 	
 	//static final String[] git_Ops = { "create","checkout","push","init","status","search","delete","prune","orphan","usagereport","purge"};
@@ -0,0 +1,388 @@
+package org.solder.rest.solder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.XXHash64;
+
+import com.ee.rest.RestException;
+import com.jnk.util.CompareUtils;
+import com.jnk.util.PrintUtils;
+import com.jnk.util.Validator;
+
+/**
+ * Machine wide cache of blob contents keyed by their SHA-256 digest, shared by the local repos (and processes) of a
+ * host: a checkout takes the blobs it has from here instead of downloading them again.
+ * <p>
+ * Entries are files root/&lt;first 2 hex&gt;/&lt;digest&gt;. The cache is bounded by maxBytes and evicts the least
+ * recently used entries first. Recency is kept in memory (seeded from the entry mtimes when opened), so with several
+ * processes on one root the order and the bound are per process and approximate.
+ * <p>
+ * Working files are copied from an entry with {@link FileChannel#transferTo} (copy_file_range, which reflinks on file
+ * systems that support it) or, in link mode, hard linked to it. An entry ever linked into a working tree could have
+ * been edited in place through that link, and its link count drops back to one once the working file is deleted, so
+ * linking first leaves a root/&lt;first 2 hex&gt;/&lt;digest&gt;.linked marker. An entry with a marker or more than one
+ * link has its digest checked before it is used and is dropped on mismatch; only entries that were always copies are
+ * trusted. A linked entry is only linked again when its mtime is already the one the working file needs (links share
+ * it); otherwise it is copied.
+ */
+public class BlobCache {
+
+	private static Log LOG = LogFactory.getLog(BlobCache.class.getName());
+
+	public static final long DEFAULT_MAX_BYTES = 4L << 30;
+
+	static final String TMP_SUFFIX = ".tmp";
+	/** Working file temp, renamed into place. */
+	static final String CHECKOUT_SUFFIX = ".soldercache";
+	/** Marker of an entry that was hard linked (see class doc). */
+	static final String LINKED_SUFFIX = ".linked";
+	/** Temp files of other processes are left alone for this long. */
+	static final long STALE_TMP_MS = 60L * 60L * 1000L;
+
+	final File dirRoot;
+	final long maxBytes;
+	final boolean fLink;
+
+	// digest -> size, least recently used first.
+	final LinkedHashMap<String, Long> mapEntry = new LinkedHashMap<>(1024, 0.75f, true);
+	long totalBytes;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder puts = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param fLink hard link working files to entries (same file system only; falls back to copies).
+	 */
+	public BlobCache(File dirRoot, long maxBytes, boolean fLink) throws IOException {
+		Objects.requireNonNull(dirRoot, "dirRoot");
+		if (maxBytes < 0L) {
+			throw new IllegalArgumentException("Invalid blob cache size " + maxBytes);
+		}
+		FileUtils.forceMkdir(dirRoot);
+		this.dirRoot = dirRoot;
+		this.maxBytes = maxBytes;
+		this.fLink = fLink;
+		load();
+	}
+
+	public File getRoot() {
+		return dirRoot;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public boolean isLink() {
+		return fLink;
+	}
+
+	synchronized void load() {
+		List<File> listFile = new ArrayList<>();
+		long tNow = System.currentTimeMillis();
+		File[] aDir = dirRoot.listFiles(File::isDirectory);
+		if (aDir != null) {
+			for (File dir : aDir) {
+				File[] aFile = dir.listFiles(File::isFile);
+				if (aFile == null) {
+					continue;
+				}
+				for (File file : aFile) {
+					String name = file.getName();
+					if (name.endsWith(TMP_SUFFIX)) {
+						if (tNow - file.lastModified() > STALE_TMP_MS) {
+							file.delete();
+						}
+					} else if (name.endsWith(LINKED_SUFFIX)) {
+						if (!new File(dir, name.substring(0, name.length() - LINKED_SUFFIX.length())).isFile()) {
+							file.delete();
+						}
+					} else if (isValidDigest(file.getName())) {
+						listFile.add(file);
+					}
+				}
+			}
+		}
+		listFile.sort(Comparator.comparingLong(File::lastModified));
+		for (File file : listFile) {
+			long size = file.length();
+			mapEntry.put(file.getName(), size);
+			totalBytes += size;
+		}
+		evict();
+		LOG.info(String.format("BlobCache %s: %d entries, %,d bytes (max %,d, link=%s)", dirRoot.getAbsolutePath(),
+				mapEntry.size(), totalBytes, maxBytes, fLink));
+	}
+
+	static boolean isValidDigest(String digest) {
+		if (digest == null || digest.length() < 8) {
+			return false;
+		}
+		for (int i = 0; i < digest.length(); i++) {
+			char c = digest.charAt(i);
+			if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f') && !(c >= 'A' && c <= 'F')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	File entryFile(String digest) {
+		return new File(new File(dirRoot, digest.substring(0, 2)), digest);
+	}
+
+	File linkedFile(String digest) {
+		return new File(new File(dirRoot, digest.substring(0, 2)), digest + LINKED_SUFFIX);
+	}
+
+	/**
+	 * Marks digest's entry as linked; done before the link exists, so a crash leaves at most an extra check.
+	 */
+	void markLinked(String digest) throws IOException {
+		File fileLinked = linkedFile(digest);
+		if (!fileLinked.isFile()) {
+			fileLinked.createNewFile();
+		}
+	}
+
+	/**
+	 * Writes se's content to fileDest (atomically, mtime set) if the cache has it.
+	 *
+	 * @return the local entry (with the fast hash when it was computed), null if the cache does not have it.
+	 */
+	public SolderEntry checkout(SolderEntry se, File fileDest) throws InterruptedIOException {
+		String digest = se.getDigest();
+		if (!isValidDigest(digest)) {
+			return null;
+		}
+		File file = entryFile(digest);
+		if (!file.isFile()) {
+			remove(digest, null);
+			misses.increment();
+			return null;
+		}
+		if (file.length() != se.getSize()) {
+			LOG.info(String.format("BlobCache dropping %s: size %d, expect %d", digest, file.length(), se.getSize()));
+			remove(digest, file);
+			misses.increment();
+			return null;
+		}
+		try {
+			SolderEntry seLocal = populate(se, file, fileDest);
+			if (seLocal == null) {
+				remove(digest, file);
+				misses.increment();
+				return null;
+			}
+			touch(digest, se.getSize());
+			hits.increment();
+			return seLocal;
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			// Evicted by another process meanwhile, full disk...: the caller downloads it.
+			LOG.info(String.format("BlobCache checkout of %s failed: %s", se.getRelPath(), e.toString()));
+			misses.increment();
+			return null;
+		}
+	}
+
+	SolderEntry populate(SolderEntry se, File file, File fileDest) throws IOException {
+		int nLink = linkCount(file);
+		int fastHashAlgo = SolderEntry.FAST_HASH_NONE;
+		long fastHash = 0L;
+		if (nLink > 1 || linkedFile(se.getDigest()).isFile()) {
+			// Is or was also a working file: it may have been edited in place.
+			MessageDigest md = SolderEntry.tlMessageDigest.get();
+			md.reset();
+			XXHash64 xxh = new XXHash64();
+			FileDigest.digest(file, md, xxh);
+			String stDigest = PrintUtils.toHexString(md.digest());
+			if (!CompareUtils.stringEquals(stDigest, se.getDigest())) {
+				LOG.info(String.format("BlobCache dropping %s: modified through a link (digest %s)", se.getDigest(), stDigest));
+				return null;
+			}
+			fastHashAlgo = SolderEntry.FAST_HASH_XXH64;
+			fastHash = xxh.getValue();
+		}
+
+		File fileTmp = new File(fileDest.getParentFile(), fileDest.getName() + CHECKOUT_SUFFIX);
+		Validator.checkNewFile(fileTmp, true, se.getRelPath());
+		boolean fError = true;
+		try {
+			boolean fLinked = false;
+			if (fLink && (nLink == 1 || file.lastModified() == se.getLastModified())) {
+				markLinked(se.getDigest());
+				fLinked = link(fileTmp, file);
+			}
+			if (!fLinked) {
+				copy(file, fileTmp);
+			}
+			fileTmp.setLastModified(se.getLastModified());
+			Files.move(fileTmp.toPath(), fileDest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			fError = false;
+		} finally {
+			if (fError) {
+				fileTmp.delete();
+			}
+		}
+		return se.copyWithFastHash(fastHashAlgo, fastHash);
+	}
+
+	/**
+	 * Adds fileSrc (just written and verified with se's digest) to the cache. Failures are logged, not thrown.
+	 */
+	public void put(SolderEntry se, File fileSrc) throws InterruptedIOException {
+		String digest = se.getDigest();
+		if (!isValidDigest(digest) || se.getSize() > maxBytes) {
+			return;
+		}
+		File file = entryFile(digest);
+		if (file.isFile() && file.length() == se.getSize()) {
+			// Already cached (possibly by another process).
+			touch(digest, se.getSize());
+			return;
+		}
+		File fileTmp = new File(file.getParentFile(), digest + "." + UUID.randomUUID().toString() + TMP_SUFFIX);
+		boolean fError = true;
+		try {
+			FileUtils.forceMkdir(file.getParentFile());
+			boolean fLinked = false;
+			if (fLink) {
+				markLinked(digest);
+				fLinked = link(fileTmp, fileSrc);
+			}
+			if (!fLinked) {
+				MessageDigest md = SolderEntry.tlMessageDigest.get();
+				md.reset();
+				FileDigest.copy(fileSrc, fileTmp, md);
+				String stDigest = PrintUtils.toHexString(md.digest());
+				if (!CompareUtils.stringEquals(stDigest, digest)) {
+					throw new RestException(String.format("%s changed while cached; digest=%s expect=%s", se.getRelPath(), stDigest, digest));
+				}
+				// Recency when the cache is next opened.
+				fileTmp.setLastModified(System.currentTimeMillis());
+			}
+			Files.move(fileTmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			fError = false;
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			LOG.info(String.format("BlobCache put of %s failed: %s", se.getRelPath(), e.toString()));
+			return;
+		} finally {
+			if (fError) {
+				fileTmp.delete();
+			}
+		}
+		puts.increment();
+		touch(digest, se.getSize());
+	}
+
+	synchronized void touch(String digest, long size) {
+		if (mapEntry.get(digest) != null) {
+			return;
+		}
+		mapEntry.put(digest, size);
+		totalBytes += size;
+		evict();
+	}
+
+	synchronized void remove(String digest, File file) {
+		Long size = mapEntry.remove(digest);
+		if (size != null) {
+			totalBytes -= size;
+		}
+		if (file != null) {
+			file.delete();
+			linkedFile(digest).delete();
+		}
+	}
+
+	synchronized void evict() {
+		for (Iterator<Map.Entry<String, Long>> iter = mapEntry.entrySet().iterator(); totalBytes > maxBytes
+				&& iter.hasNext();) {
+			Map.Entry<String, Long> entry = iter.next();
+			iter.remove();
+			totalBytes -= entry.getValue();
+			// Working files linked to it keep their content.
+			entryFile(entry.getKey()).delete();
+			linkedFile(entry.getKey()).delete();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Hard links fileLink to file; false if the file system cannot (another device, no link support).
+	 */
+	static boolean link(File fileLink, File file) {
+		try {
+			Files.createLink(fileLink.toPath(), file.toPath());
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			LOG.info(String.format("BlobCache cannot link %s, copying: %s", fileLink.getName(), e.toString()));
+			return false;
+		}
+	}
+
+	/**
+	 * Links to file (1 when only the cache has it). Unknown counts as shared, so the content is checked.
+	 */
+	static int linkCount(File file) {
+		try {
+			return ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue();
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	static void copy(File src, File dest) throws IOException {
+		try (FileChannel fcIn = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+				FileChannel fcOut = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.WRITE)) {
+			long size = fcIn.size();
+			for (long pos = 0L; pos < size;) {
+				long n = fcIn.transferTo(pos, size - pos, fcOut);
+				if (n <= 0L) {
+					throw new EOFException(String.format("Unexpected EOF at %d copying %s", pos, src.getName()));
+				}
+				pos += n;
+			}
+		}
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized String toString() {
+		return String.format("BlobCache %s entries=%d bytes=%,d max=%,d link=%s hits=%d misses=%d puts=%d evictions=%d",
+				dirRoot.getAbsolutePath(), mapEntry.size(), totalBytes, maxBytes, fLink, hits.sum(), misses.sum(),
+				puts.sum(), evictions.sum());
+	}
+}
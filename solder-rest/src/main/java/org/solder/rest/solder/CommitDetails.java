@@ -52,6 +52,13 @@ public class CommitDetails implements ISerializable {
 	
 	Map<String, SolderEntry> mapDigestToFirst;
 	List<String> listMod, listDel,listDedupUpload;
+	// New content whose digest is computed by the upload (cHash is null until resolvePendingDigests).
+	List<SolderEntry> listPending;
+	// Chunks of chunked entries not yet stored: first upload entry per chunk digest.
+	Map<String, SolderEntry> mapChunkToFirst;
+	List<SolderEntry> listChunkUpload;
+	// Changed paths whose previous version is a stored blob (base of a delta upload).
+	Map<String, SolderEntry> mapDeltaBase;
 
 	int commitId;
 
@@ -98,14 +105,14 @@ public class CommitDetails implements ISerializable {
 		//Put the commit Id 
 		
 
-		Map<String, SolderEntry> mapSolderEntry = new LinkedHashMap<>();
-		mapSolderEntry.putAll(lRepo.mapEntry);
+		// Looked up and scanned once for deletes in place: the (index backed) local map is not copied.
+		Map<String, SolderEntry> mapSolderEntry = lRepo.mapEntry;
 		
 		LOG.info(String.format("mapSolderEntry %d entries",mapSolderEntry.size()));
 		
 		swEntryMap.resume();
 
-		Map<String, SolderEntry> mapEntriesNow = lRepo.createEntryMap(mapSolderEntry);
+		Map<String, SolderEntry> mapEntriesNow = lRepo.createEntryMap(mapSolderEntry, true);
 		swEntryMap.suspend();
 
 		TempFiles tempFiles = TempFiles.get(TempFiles.DEFAULT);
@@ -126,6 +133,10 @@ public class CommitDetails implements ISerializable {
 		
 		mapDigestToFirst = new HashMap<String,SolderEntry>();
 		listDedupUpload = new ArrayList<>();
+		listPending = new ArrayList<>();
+		mapChunkToFirst = new HashMap<>();
+		listChunkUpload = new ArrayList<>();
+		mapDeltaBase = new HashMap<>();
 
 		commitId = -1;
 
@@ -135,7 +146,6 @@ public class CommitDetails implements ISerializable {
 			if (prev != null) {
 				throw new RestException("Found a prev entry for " + se.getRelPath());
 			}
-			sbHash.append(String.format("%s %s\r\n", se.stRelPath, se.digest));
 		};
 		
 		swCommitHash.resume();
@@ -160,11 +170,21 @@ public class CommitDetails implements ISerializable {
 			} else if (se.etype == EntryType.BLOB) {
 
 				// Either we have it or not...
-				SolderEntry sePrev = mapSolderEntry.remove(relPath);
+				SolderEntry sePrev = mapSolderEntry.get(relPath);
+				if (se.isDigestPending()) {
+					// New content; digest and first-owner are known once uploaded.
+					se.setCommitId(commitId);
+					cHashBuilder.accept(se);
+					listMod.add(se.getRelPath());
+					listPending.add(se);
+					addDeltaBase(sePrev);
+					continue;
+				}
 				if (sePrev != null && CompareUtils.stringEquals(sePrev.getDigest(),se.getDigest())) {
 					// We have it.. (No change)
 					cHashBuilder.accept(sePrev);
 				} else {
+					addDeltaBase(sePrev);
 					sePrev=null;
 					// New File...
 					se.setCommitId(commitId);
@@ -172,6 +192,12 @@ public class CommitDetails implements ISerializable {
 					listMod.add(se.getRelPath());
 				}
 				
+				SolderEntry seNow = sePrev != null ? sePrev : se;
+				if (seNow.isChunked()) {
+					// Content lives in its chunks; only chunks not stored yet are uploaded.
+					addChunkUploads(seNow);
+					continue;
+				}
 				
 				SolderEntry seFirst = mapDigestToFirst.get(se.getDigest());
 				if (seFirst == null) {
@@ -194,21 +220,21 @@ public class CommitDetails implements ISerializable {
 		}
 
 		for (SolderEntry seDel : mapSolderEntry.values()) {
-			if (seDel.etype == EntryType.BLOB) {
+			SolderEntry seNow = mapEntriesNow.get(seDel.getRelPath());
+			if (seDel.etype == EntryType.BLOB && (seNow == null || seNow.etype != EntryType.BLOB)) {
 				LOG.info(String.format("Previous known %s deleted",seDel.stRelPath));
 				listDel.add(seDel.getRelPath());
-				sbHash.append(String.format("%s %s\r\n", seDel.stRelPath, "DELETE"));
 			}
 		}
 
-		byte[] aBHashBytes = sbHash.toString().getBytes(StandardCharsets.UTF_8);
+		if (listPending.isEmpty()) {
+			computeCHash();
+			fNewCommit = !CompareUtils.stringEquals(lRepo.chash, cHash);
+		} else {
+			// New content cannot hash to the current commit.
+			fNewCommit = true;
+		}
 		swCommitHash.suspend();
-
-		MessageDigest md = SolderEntry.tlMessageDigest.get();
-		md.reset();
-		md.update(aBHashBytes);
-		cHash = PrintUtils.toHexString(md.digest());
-		fNewCommit = !CompareUtils.stringEquals(lRepo.chash, cHash);
 		
 		sw.suspend();
 		
@@ -230,16 +256,81 @@ public class CommitDetails implements ISerializable {
 				}
 			}
 		}
+		for (SolderEntry se : listPending) {
+			listDedupUpload.add(se.getRelPath());
+			szUpload += se.size;
+		}
+		for (SolderEntry se : listChunkUpload) {
+			szUpload += se.size;
+		}
 		
 		
 
-		LOG.info(String.format("Commit %s**(fNewCommit=%s)\r\n%s\rnHash=%s (lRepoHash=%s) (nMod=%d,nDel=%d) (nUpload=%d,szUpload=%,d)",
-				lRepo.srepo.getId(), "" + fNewCommit, sbHash, cHash, lRepo.chash, listMod.size(), listDel.size(),listDedupUpload.size(),szUpload));
+		LOG.info(String.format("Commit %s**(fNewCommit=%s)\r\n%s\rnHash=%s (lRepoHash=%s) (nMod=%d,nDel=%d) (nUpload=%d,szUpload=%,d,nPending=%d,nChunkUpload=%d)",
+				lRepo.srepo.getId(), "" + fNewCommit, sbHash, cHash, lRepo.chash, listMod.size(), listDel.size(),listDedupUpload.size(),szUpload,listPending.size(),listChunkUpload.size()));
 		StopWatchUtil.printTime("CommitInfo Times", sw, swEntryMap,swCommitHash);
 
 		
 	}
 	
+	void addDeltaBase(SolderEntry sePrev) {
+		if (sePrev != null && sePrev.etype == EntryType.BLOB && !sePrev.isChunked() && sePrev.getBlobFsId() > 0) {
+			mapDeltaBase.put(sePrev.getRelPath(), sePrev);
+		}
+	}
+	
+	void addChunkUploads(SolderEntry se) {
+		for (SolderChunk sc : se.getChunks()) {
+			if (sc.getBlobFsId() > 0 || mapChunkToFirst.containsKey(sc.getDigest())) {
+				continue;
+			}
+			SolderEntry seUpload = sc.toUploadEntry(se);
+			mapChunkToFirst.put(sc.getDigest(), seUpload);
+			listChunkUpload.add(seUpload);
+		}
+	}
+
+	/**
+	 * Commit hash over every entry ("path digest") in path order, then the deletes ("path DELETE").
+	 */
+	void computeCHash() {
+		sbHash.setLength(0);
+		for (SolderEntry se : mapAll.values()) {
+			sbHash.append(String.format("%s %s\r\n", se.stRelPath, se.digest));
+		}
+		for (String relPath : listDel) {
+			sbHash.append(String.format("%s %s\r\n", relPath, "DELETE"));
+		}
+		byte[] aBHashBytes = sbHash.toString().getBytes(StandardCharsets.UTF_8);
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		md.update(aBHashBytes);
+		cHash = PrintUtils.toHexString(md.digest());
+	}
+
+	public boolean hasPendingDigests() {
+		return !listPending.isEmpty();
+	}
+
+	/**
+	 * After the uploads hashed the pending entries: registers their content and computes the commit hash.
+	 */
+	void resolvePendingDigests() throws IOException {
+		if (listPending.isEmpty()) {
+			return;
+		}
+		for (SolderEntry se : listPending) {
+			if (se.isDigestPending() || se.getBlobFsId() <= 0) {
+				throw new RestException(String.format("Pending entry %s not resolved by upload (digest=%s,blobFsId=%d)",
+						se.getRelPath(), se.getDigest(), se.getBlobFsId()));
+			}
+			mapDigestToFirst.putIfAbsent(se.getDigest(), se);
+		}
+		computeCHash();
+		LOG.info(String.format("Resolved %d pending digests; cHash=%s", listPending.size(), cHash));
+		listPending.clear();
+	}
+
 	void setCommitId(int commitIdNew) {
 		if (commitIdNew<=0) {
 			throw new RuntimeException("Invalid commitId "+commitIdNew);
@@ -249,6 +340,9 @@ public class CommitDetails implements ISerializable {
 			var se = mapAll.get(st);
 			se.setCommitId(commitId);
 		}
+		for (SolderEntry se : listChunkUpload) {
+			se.setCommitId(commitId);
+		}
 		
 	}
 	
@@ -258,7 +352,17 @@ public class CommitDetails implements ISerializable {
 		for (var entry : mapAll.entrySet()) {
 			String relPath = entry.getKey();
 			SolderEntry se = entry.getValue();
-			if (se.etype == EntryType.BLOB) {
+			if (se.etype == EntryType.BLOB && se.isChunked()) {
+				for (SolderChunk sc : se.getChunks()) {
+					if (sc.getBlobFsId() <= 0) {
+						SolderEntry seUpload = mapChunkToFirst.get(sc.getDigest());
+						if (seUpload == null || seUpload.getBlobFsId() <= 0) {
+							throw new RestException(String.format("Chunk %s of %s has no valid blobFsId", sc, relPath));
+						}
+						sc.setBlobFsId(seUpload.getBlobFsId());
+					}
+				}
+			} else if (se.etype == EntryType.BLOB) {
 				if (se.getBlobFsId()<=0) {
 					// Map is digest-keyed (first path that owns the upload for that content).
 					SolderEntry seFirst = mapDigestToFirst.get(se.getDigest());
@@ -2,6 +2,7 @@ package org.solder.rest.solder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -22,6 +23,41 @@ public  interface IRepoFileService {
 	
 	public File downloadFile(SRepoInfo repoInfo,String relPath,long blobFsId,String stDigestExpect) throws IOException;
 	
+	/**
+	 * Writes the blob content to os (not closed) as it is received; no intermediate file.
+	 */
+	public void downloadFile(SRepoInfo repoInfo,String relPath,long blobFsId,String stDigestExpect,OutputStream os) throws IOException;
+	
+	/**
+	 * Writes len bytes of the blob from off (len -1: to the end) to os (not closed) as they are received. What
+	 * reached os before a failure is valid, so the caller can resume from there.
+	 * 
+	 * @return false if the service does not serve ranges (an older server): what reached os is not the range and
+	 *         the caller downloads the whole blob instead.
+	 */
+	public boolean downloadRange(SRepoInfo repoInfo,String relPath,long blobFsId,String stDigestExpect,long off,long len,OutputStream os) throws IOException;
+	
+	/**
+	 * Receives the blobs of a downloadFiles call, in request order.
+	 */
+	public interface BlobSink {
+		/**
+		 * Blob i starts: its size bytes are written to the returned stream.
+		 */
+		public OutputStream begin(int i,long size) throws IOException;
+		
+		/**
+		 * Every byte of blob i was written; the sink closes the stream begin returned.
+		 */
+		public void end(int i) throws IOException;
+	}
+	
+	/**
+	 * Downloads many repo blobs (aStDigestExpect may be null) in one call. On failure, the blobs ended so far
+	 * are complete.
+	 */
+	public void downloadFiles(SRepoInfo repoInfo,String[] aRelPath,long[] aBlobFsId,String[] aStDigestExpect,BlobSink sink) throws IOException;
+	
 	
 	
 	public CommitSession beginCommit(SCommitInfo commitInfoReq,List<String> listAddEntryRelPath,List<String> listDelEntryRelPath) throws IOException;
@@ -30,6 +66,41 @@ public  interface IRepoFileService {
 	
 	public long uploadFile(CommitSession cs,SolderEntry se) throws IOException;
 	
+	/**
+	 * blobFsId of the repo's blob for each content digest, -1 if the repo does not hold it.
+	 */
+	public long[] findBlobs(CommitSession cs,String[] aDigest) throws IOException;
+	
+	/**
+	 * Uploads small files together. Entries that fail are left without a blobFsId for the caller to upload
+	 * with uploadFile.
+	 * 
+	 * @return number of entries uploaded.
+	 */
+	public int uploadFiles(CommitSession cs,List<SolderEntry> listSe) throws IOException;
+	
+	/**
+	 * Uploads se as a delta against seBase (a prior version of the same path already in the repo).
+	 * 
+	 * @return the blobFsId, or -1 if a delta is not supported or not worth it (caller then uses uploadFile).
+	 */
+	public long uploadDelta(CommitSession cs,SolderEntry se,SolderEntry seBase) throws IOException;
+	
+	/**
+	 * Max uploadFile calls the client may have in flight for one CommitSession (1 = caller thread only).
+	 */
+	public int getMaxConcurrentUploads();
+	
+	/**
+	 * Max downloadFile calls the client may have in flight during a checkout (1 = caller thread only).
+	 */
+	public int getMaxConcurrentDownloads();
+	
+	/**
+	 * Releases the session after a failed commit; uploaded blobs are left to orphan cleanup.
+	 */
+	public void abortCommit(CommitSession cs) throws IOException;
+	
 	public SCommitInfo uploadCommit(CommitSession cs,File fileCommit) throws IOException;
 	
 }
\ No newline at end of file
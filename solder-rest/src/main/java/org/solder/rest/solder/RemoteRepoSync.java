@@ -1,25 +1,51 @@
 package org.solder.rest.solder;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
+import org.apache.commons.io.function.IORunnable;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.solder.rest.solder.SolderEntry.EntryType;
+import org.solder.rest.util.BoundedTasks;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.XXHash64;
 
 import com.beech.bfs.BeechFS;
 import com.beech.bfs.Mode;
@@ -28,6 +54,7 @@ import com.jnk.util.CompareUtils;
 import com.jnk.util.PrintUtils;
 import com.jnk.util.Validator;
 import com.lnk.lucene.LBytesRefBuilder;
+import com.lnk.lucene.TempFiles;
 import com.lnk.lucene.util.LogJsonDecoder;
 
 public class RemoteRepoSync {
@@ -40,6 +67,172 @@ public class RemoteRepoSync {
 
 	
 
+	/** Default blob uploads in flight per commit session (REST only; see IRepoFileService.getMaxConcurrentUploads). */
+	public static final int DEFAULT_UPLOAD_CONCURRENCY = 8;
+	/** Attempts per blob upload before the commit session is aborted. */
+	public static final int UPLOAD_ATTEMPTS = 3;
+	static final long UPLOAD_RETRY_BACKOFF_MS = 500L;
+
+	private static volatile int s_uploadConcurrency = DEFAULT_UPLOAD_CONCURRENCY;
+
+	public static int getUploadConcurrency() {
+		return s_uploadConcurrency;
+	}
+
+	public static void setUploadConcurrency(int nConcurrent) {
+		if (nConcurrent <= 0) {
+			throw new IllegalArgumentException("Invalid upload concurrency " + nConcurrent);
+		}
+		s_uploadConcurrency = nConcurrent;
+	}
+
+	/** Default blob downloads and package extractions in flight during checkout. */
+	public static final int DEFAULT_CHECKOUT_CONCURRENCY = 8;
+
+	private static volatile int s_checkoutConcurrency = DEFAULT_CHECKOUT_CONCURRENCY;
+
+	public static int getCheckoutConcurrency() {
+		return s_checkoutConcurrency;
+	}
+
+	public static void setCheckoutConcurrency(int nConcurrent) {
+		if (nConcurrent <= 0) {
+			throw new IllegalArgumentException("Invalid checkout concurrency " + nConcurrent);
+		}
+		s_checkoutConcurrency = nConcurrent;
+	}
+
+	/** Digests per HAS_BLOBS request. */
+	public static final int FIND_BLOBS_MAX = 1000;
+
+	/**
+	 * Digest pending upload candidates of at least this size are hashed before HAS_BLOBS, so content the server
+	 * already stores (e.g. a copied file) is not sent again; it costs a second read when the server lacks it.
+	 * Long.MAX_VALUE leaves every pending digest to the upload.
+	 */
+	public static final long DEFAULT_FIND_PENDING_MIN_SIZE = 16L << 20;
+
+	private static volatile long s_findPendingMinSize = DEFAULT_FIND_PENDING_MIN_SIZE;
+
+	public static long getFindPendingMinSize() {
+		return s_findPendingMinSize;
+	}
+
+	public static void setFindPendingMinSize(long findPendingMinSize) {
+		if (findPendingMinSize <= 0L) {
+			throw new IllegalArgumentException("Invalid find pending min size " + findPendingMinSize);
+		}
+		s_findPendingMinSize = findPendingMinSize;
+	}
+
+	/** Byte budget of one UPLOAD_FILES request of small files (0 disables batching). */
+	public static final long DEFAULT_UPLOAD_BATCH_BYTES = 4L << 20;
+	/** Larger files are always uploaded on their own. */
+	public static final long BATCH_MAX_FILE_SIZE = 256L << 10;
+	public static final int BATCH_MAX_FILES = 1000;
+
+	private static volatile long s_uploadBatchBytes = DEFAULT_UPLOAD_BATCH_BYTES;
+
+	public static long getUploadBatchBytes() {
+		return s_uploadBatchBytes;
+	}
+
+	public static void setUploadBatchBytes(long batchBytes) {
+		if (batchBytes < 0L) {
+			throw new IllegalArgumentException("Invalid upload batch bytes " + batchBytes);
+		}
+		s_uploadBatchBytes = batchBytes;
+	}
+
+	/** Byte budget of one DOWNLOAD_FILES request of small blobs at checkout (0 disables batching). */
+	public static final long DEFAULT_DOWNLOAD_BATCH_BYTES = 4L << 20;
+
+	private static volatile long s_downloadBatchBytes = DEFAULT_DOWNLOAD_BATCH_BYTES;
+
+	public static long getDownloadBatchBytes() {
+		return s_downloadBatchBytes;
+	}
+
+	public static void setDownloadBatchBytes(long batchBytes) {
+		if (batchBytes < 0L) {
+			throw new IllegalArgumentException("Invalid download batch bytes " + batchBytes);
+		}
+		s_downloadBatchBytes = batchBytes;
+	}
+
+	private static volatile BlobCache s_blobCache;
+
+	public static BlobCache getBlobCache() {
+		return s_blobCache;
+	}
+
+	/**
+	 * Machine wide cache checkouts take blobs from before downloading them, and add downloaded blobs to (null: none).
+	 */
+	public static void setBlobCache(BlobCache blobCache) {
+		s_blobCache = blobCache;
+	}
+
+	/** Files from this size are sent as a delta against their previous version (Long.MAX_VALUE disables). */
+	public static final long DEFAULT_DELTA_MIN_SIZE = 256L << 10;
+
+	private static volatile long s_deltaMinSize = DEFAULT_DELTA_MIN_SIZE;
+
+	public static long getDeltaMinSize() {
+		return s_deltaMinSize;
+	}
+
+	public static void setDeltaMinSize(long deltaMinSize) {
+		if (deltaMinSize <= 0L) {
+			throw new IllegalArgumentException("Invalid delta min size " + deltaMinSize);
+		}
+		s_deltaMinSize = deltaMinSize;
+	}
+
+	/** Files from this size are uploaded in acknowledged parts that survive network errors (Long.MAX_VALUE disables). */
+	public static final long DEFAULT_PART_UPLOAD_MIN_SIZE = 64L << 20;
+
+	private static volatile long s_partUploadMinSize = DEFAULT_PART_UPLOAD_MIN_SIZE;
+
+	public static long getPartUploadMinSize() {
+		return s_partUploadMinSize;
+	}
+
+	public static void setPartUploadMinSize(long partUploadMinSize) {
+		if (partUploadMinSize <= 0L) {
+			throw new IllegalArgumentException("Invalid part upload min size " + partUploadMinSize);
+		}
+		s_partUploadMinSize = partUploadMinSize;
+	}
+
+	/** Suffix of the sibling file a blob or package entry is written to before its rename into place. */
+	static final String DOWNLOAD_SUFFIX = ".solderdl";
+	/** Suffix of the sibling file a chunked entry is assembled in during checkout. */
+	static final String CHUNK_ASSEMBLE_SUFFIX = ".solderchunks";
+
+	/** Unchunked blobs from this size are downloaded as resumable ranges (Long.MAX_VALUE disables). */
+	public static final long DEFAULT_RANGE_MIN_SIZE = 64L << 20;
+	/** Bytes per range request of a ranged download. */
+	public static final long RANGE_SIZE = 32L << 20;
+	/** Attempts per range; each one resumes from the last byte received. */
+	public static final int RANGE_ATTEMPTS = 5;
+	/** Suffix of a ranged download's partial file (in SLocalRepo's partial dir) and of its journal of finished ranges. */
+	static final String PARTIAL_SUFFIX = ".solderpart";
+	static final String PARTIAL_RANGES_SUFFIX = ".ranges";
+
+	private static volatile long s_rangeMinSize = DEFAULT_RANGE_MIN_SIZE;
+
+	public static long getRangeMinSize() {
+		return s_rangeMinSize;
+	}
+
+	public static void setRangeMinSize(long rangeMinSize) {
+		if (rangeMinSize <= 0L) {
+			throw new IllegalArgumentException("Invalid range min size " + rangeMinSize);
+		}
+		s_rangeMinSize = rangeMinSize;
+	}
+
 	/** Sample size for sparse digests (first/last/middle chunks). */
 	public static final int SPARSE_SAMPLE_SIZE = 4096;
 	/** Cap on middle-region samples for large files. */
@@ -74,32 +267,27 @@ public class RemoteRepoSync {
 			return PrintUtils.toHexString(md.digest());
 		}
 
-		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-			byte[] buf = new byte[sample];
+		ByteBuffer bb = FileDigest.acquireBuffer();
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
 
 			if (size <= (long) sample * 2L) {
 				// Small file: first+last would overlap; hash entire content.
-				int remaining = (int) size;
-				while (remaining > 0) {
-					int n = raf.read(buf, 0, Math.min(sample, remaining));
-					if (n < 0) {
-						throw new RestException("Unexpected EOF reading " + file.getAbsolutePath());
-					}
-					md.update(buf, 0, n);
-					remaining -= n;
-				}
+				bb.limit((int) size);
+				FileDigest.readFully(fc, bb, 0L);
+				bb.flip();
+				md.update(bb);
 				return PrintUtils.toHexString(md.digest());
 			}
 
 			// First 4KiB
-			raf.seek(0L);
-			raf.readFully(buf);
-			md.update(buf);
+			bb.clear().limit(sample);
+			FileDigest.readFully(fc, bb, 0L);
+			md.update(bb.flip());
 
 			// Last 4KiB
-			raf.seek(size - sample);
-			raf.readFully(buf);
-			md.update(buf);
+			bb.clear().limit(sample);
+			FileDigest.readFully(fc, bb, size - sample);
+			md.update(bb.flip());
 
 			// Middle region [sample, size - sample)
 			long midStart = sample;
@@ -133,12 +321,13 @@ public class RemoteRepoSync {
 					if (offset + readLen > midEnd) {
 						offset = midEnd - readLen;
 					}
-					int toRead = (int) readLen;
-					raf.seek(offset);
-					raf.readFully(buf, 0, toRead);
-					md.update(buf, 0, toRead);
+					bb.clear().limit((int) readLen);
+					FileDigest.readFully(fc, bb, offset);
+					md.update(bb.flip());
 				}
 			}
+		} finally {
+			FileDigest.releaseBuffer(bb);
 		}
 
 		return PrintUtils.toHexString(md.digest());
@@ -190,17 +379,26 @@ public class RemoteRepoSync {
 		
 		
 		//We always download this..
-		File fileDownload = rfs.downloadFile(srepo,"",scommit.getBlobFsId(),null);
-		
-		BeechFS fsCommit = new BeechFS(fileDownload, Mode.READONLY);
+		// Into a temp file of our own, removed once the checkout is done.
+		TempFiles tf = TempFiles.get(TempFiles.DEFAULT);
+		File fileDownload = new File(tf.getTempDir(srepo.getId()), "commit_" + scommit.getBlobFsId() + "_" + UUID.randomUUID());
+		BeechFS fsCommit = null;
 		try {
-			checkoutFromCommit(lrepo, rfs, srepo, scommit,fsCommit);
+			try (OutputStream os = new FileOutputStream(fileDownload)) {
+				rfs.downloadFile(srepo, "", scommit.getBlobFsId(), null, os);
+			}
+			fsCommit = new BeechFS(fileDownload, Mode.READONLY);
+			checkoutFromCommit(lrepo, rfs, srepo, scommit,fsCommit,fileDownload);
 		} finally {
 			IOUtils.closeQuietly(fsCommit);
+			fileDownload.delete();
 		}
 	}
 
-	static void checkoutFromCommit(SLocalRepo lrepo, IRepoFileService rfs, SRepoInfo srepo,SCommitInfo scommit, BeechFS fsCommit)
+	/**
+	 * @param fileCommit the package fsCommit reads (opened again for concurrent extraction).
+	 */
+	static void checkoutFromCommit(SLocalRepo lrepo, IRepoFileService rfs, SRepoInfo srepo,SCommitInfo scommit, BeechFS fsCommit,File fileCommit)
 			throws IOException {
 		
 		//Get fS d
@@ -229,12 +427,30 @@ public class RemoteRepoSync {
 		//Sync the commits..
 		//do the deletions and then the orphans if asked to...
 		
+		PackageReaders readers = new PackageReaders(fsCommit, fileCommit);
+		File dirPartial = lrepo.getPartialDir();
 		Map<String,SolderEntry> mapCommit = new LinkedHashMap<>();
 		mapCommit.putAll(commitDetails.getAllEntryMap());
 		
-		Map<String,SolderEntry> mapEntriesNow = lrepo.createEntryMap(mapCommit);
+		// Local entries (with fast hashes) take precedence as the prior; commit entries cover fresh checkouts.
+		Map<String,SolderEntry> mapPrior = SLocalRepo.priorView(lrepo.mapEntry, commitDetails.getAllEntryMap());
+		// Temp files of an earlier killed checkout are not part of the tree.
+		lrepo.removeCheckoutTemps();
+		Map<String,SolderEntry> mapEntriesNow = lrepo.createEntryMap(mapPrior);
+		
+		// Decisions and deletes run here; downloads and package extraction run as tasks.
+		// The local repo is committed only after every task succeeded.
+		// What the local repo records: commit metadata plus the fast hash of what is on disk.
+		Map<String,SolderEntry> mapLocal = new ConcurrentSkipListMap<>();
+		List<IORunnable> listFetch = new ArrayList<>();
+		List<IORunnable> listExtract = new ArrayList<>();
+		
+		// Small whole blobs are fetched in DOWNLOAD_FILES batches of up to batchBytes.
+		long batchBytes = getDownloadBatchBytes();
+		List<SolderEntry> listBatch = new ArrayList<>();
+		List<File> listBatchDest = new ArrayList<>();
+		long szBatch = 0L;
 		
-		MessageDigest md = SolderEntry.tlMessageDigest.get();
 		for (var iter = mapCommit.values().iterator();iter.hasNext();iter.hasNext()) {
 			SolderEntry seData = iter.next();
 			
@@ -252,6 +468,8 @@ public class RemoteRepoSync {
 			//
 			SolderEntry seCurrent= mapEntriesNow.remove(stDataRelPath);
 			boolean fFetch = true;
+			// Local chunked file whose unchanged chunks are copied instead of downloaded.
+			SolderEntry seReuse = null;
 			if (seCurrent!= null) {
 				//Probably a previous abort brought it..
 				//Check the hashes.
@@ -264,6 +482,10 @@ public class RemoteRepoSync {
 						// Local only; seData is server/commit metadata — do not mutate it.
 						seCurrent.tModified = seCurrent.file.lastModified();
 					}
+					mapLocal.put(stDataRelPath, seData.copyWithFastHash(seCurrent.fastHashAlgo, seCurrent.fastHash));
+				} else if (seData.isChunked() && seCurrent.isChunked()) {
+					LOG.info(String.format("Add %s (Exists chunked with non-matching curr(sz=%d;digest=%s) add=(sz=%d, digest=%s), fetch changed chunks.",stDataRelPath,seCurrent.size,seCurrent.digest,seData.size,seData.digest));
+					seReuse = seCurrent;
 				} else {
 					LOG.info(String.format("Add %s (Exists with non-matching curr(sz=%d;digest=%s) add=(sz=%d, digest=%s), delete and refetch.",stDataRelPath,seCurrent.size,seCurrent.digest,seData.size,seData.digest));
 					seCurrent.file.delete();
@@ -273,30 +495,30 @@ public class RemoteRepoSync {
 				}
 			}
 			if (fFetch) {
-				long fsId = seData.getBlobFsId();
-				File fileSrc = rfs.downloadFile(srepo,stDataRelPath,fsId,seData.getDigest());
 				File fileDest = lrepo.relPath.resolve(stDataRelPath);
-				Validator.checkNewFile(fileDest,true, stDataRelPath);
-				md.reset();
-				InputStream isSrc = null;
-				DigestOutputStream dos = null;
-				try {
-					isSrc = new FileInputStream(fileSrc);
-					dos = new DigestOutputStream(new FileOutputStream(fileDest), md);
-					IOUtils.copy(isSrc,dos);
-				} finally {
-					IOUtils.closeQuietly(dos, isSrc);
-				}
-				
-				String stDigestWritten = PrintUtils.toHexString(md.digest());
-				LOG.info(String.format("New Blob File %s",seData.toString()));
-				
-				if (!CompareUtils.stringEquals(seData.digest, stDigestWritten)) {
-					throw new RestException("Digest match erorr for "+stDataRelPath+"; writtenDigest="+stDigestWritten+"; expect="+seData.digest);
+				// Parent dirs are created here, not concurrently by the tasks.
+				fileDest.getParentFile().mkdirs();
+				if (batchBytes > 0L && !seData.isChunked() && seData.getSize() <= BATCH_MAX_FILE_SIZE) {
+					listBatch.add(seData);
+					listBatchDest.add(fileDest);
+					szBatch += seData.getSize();
+					if (szBatch >= batchBytes || listBatch.size() >= BATCH_MAX_FILES) {
+						addFetchBatch(listFetch, rfs, srepo, listBatch, listBatchDest, mapLocal, dirPartial);
+						listBatch = new ArrayList<>();
+						listBatchDest = new ArrayList<>();
+						szBatch = 0L;
+					}
+					continue;
 				}
-				fileDest.setLastModified(seData.getLastModified());
+				SolderEntry seReuseFinal = seReuse;
+				listFetch.add(() -> {
+					mapLocal.put(stDataRelPath, fetchBlob(rfs, srepo, seData, seReuseFinal, fileDest, dirPartial));
+				});
 			}
 		}
+		if (!listBatch.isEmpty()) {
+			addFetchBatch(listFetch, rfs, srepo, listBatch, listBatchDest, mapLocal, dirPartial);
+		}
 		
 		//Sync the Commits...
 		for (var iter = mapCommit.values().iterator();iter.hasNext();) {
@@ -318,6 +540,7 @@ public class RemoteRepoSync {
 						// Local only; seCommit is server/commit metadata — do not mutate it.
 						seCurrent.tModified = seCurrent.file.lastModified();
 					}
+					mapLocal.put(stRelPath, seCommit.copyWithFastHash(seCurrent.fastHashAlgo, seCurrent.fastHash));
 
 				} else {
 					LOG.info(String.format("Commit %s (Exists with non-matching curr(sz=%d;digest=%s) add=(sz=%d, digest=%s), delete and refetch.",stRelPath,seCurrent.size,seCurrent.digest,seCommit.size,seCommit.digest));
@@ -329,29 +552,25 @@ public class RemoteRepoSync {
 			}
 			
 			if (fCopy) {
-				
 				File fileDest = lrepo.relPath.resolve(stRelPath);
-				Validator.checkNewFile(fileDest,true, stRelPath);
-				md.reset();
-				InputStream isSrc = null;
-				DigestOutputStream dos = null;
-				try {
-					isSrc = fsCommit.read(stRelPath);
-					dos = new DigestOutputStream(new FileOutputStream(fileDest), md);
-					IOUtils.copy(isSrc,dos);
-				} finally {
-					IOUtils.closeQuietly(dos, isSrc);
-				}
-				
-				String stDigestWritten = PrintUtils.toHexString(md.digest());
-				LOG.info(String.format("New Commit File %s",seCommit.toString()));
-				if (!CompareUtils.stringEquals(seCommit.digest, stDigestWritten)) {
-					throw new RestException("Digest match erorr for "+stRelPath+"; writtenDigest="+stDigestWritten+"; expect="+seCommit.digest);
-				}
-				fileDest.setLastModified(seCommit.tModified);
+				fileDest.getParentFile().mkdirs();
+				listExtract.add(() -> {
+					mapLocal.put(stRelPath, extractCommitEntry(readers, seCommit, fileDest));
+				});
 			}
 		}
 		
+		int nDownload = rfs.getMaxConcurrentDownloads();
+		int nExtract = getCheckoutConcurrency();
+		LOG.info(String.format("Checkout %d blobs (inFlight=%d) and %d package entries (inFlight=%d)", listFetch.size(),
+				nDownload, listExtract.size(), nExtract));
+		try {
+			runTasks("SolderFetch", nDownload, listFetch);
+			runTasks("SolderExtract", nExtract, listExtract);
+		} finally {
+			IOUtils.closeQuietly(readers);
+		}
+		
 		
 		//Sync the Deletes..
 		for (var iter = mapEntriesNow.values().iterator();iter.hasNext();) {
@@ -367,12 +586,310 @@ public class RemoteRepoSync {
 
 		lrepo.commitId = commitDetails.commitId;
 		lrepo.chash = commitDetails.cHash;
-		lrepo.mapEntry = commitDetails.getAllEntryMap();
+		lrepo.mapEntry = new TreeMap<>(mapLocal);
 		lrepo.commitLocalRepo(false);
 		
-
+		// Partials left by blobs this commit no longer has.
+		deletePartials(dirPartial);
+	}
+	
+	
+	static void runTasks(String name, int nConcurrent, List<IORunnable> listTask) throws IOException {
+		if (listTask.isEmpty()) {
+			return;
+		}
+		if (nConcurrent <= 1) {
+			// Caller thread (server side services rely on its session context).
+			for (IORunnable task : listTask) {
+				task.run();
+			}
+			return;
+		}
+		try (BoundedTasks tasks = new BoundedTasks(name, nConcurrent)) {
+			for (IORunnable task : listTask) {
+				tasks.submit(task);
+			}
+			tasks.await();
+		}
+	}
+	
+	/**
+	 * Downloads (or assembles from chunks) seData into fileDest; the written bytes must have seData's digest.
+	 * 
+	 * @param dirPartial where large blobs are downloaded as resumable ranges (see {@link #fetchRanges}).
+	 * @return the local entry (commit metadata with the fast hash of the written file).
+	 */
+	static SolderEntry fetchBlob(IRepoFileService rfs, SRepoInfo srepo, SolderEntry seData, SolderEntry seReuse,
+			File fileDest, File dirPartial) throws IOException {
+		BlobCache cache = getBlobCache();
+		if (cache != null) {
+			SolderEntry seLocal = cache.checkout(seData, fileDest);
+			if (seLocal != null) {
+				LOG.info(String.format("Cached Blob File %s",seData.toString()));
+				return seLocal;
+			}
+		}
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		XXHash64 xxh = new XXHash64();
+		if (seData.isChunked()) {
+			fetchChunks(rfs, srepo, seData, seReuse, fileDest, md, xxh);
+			LOG.info(String.format("New Chunked File %s",seData.toString()));
+		} else if (seData.getSize() >= getRangeMinSize()) {
+			fetchRanges(rfs, srepo, seData, dirPartial, fileDest, md, xxh);
+			LOG.info(String.format("New Ranged File %s",seData.toString()));
+		} else {
+			writeVerified(fileDest, DOWNLOAD_SUFFIX, seData, md, xxh, (os) -> {
+				rfs.downloadFile(srepo, seData.getRelPath(), seData.getBlobFsId(), seData.getDigest(), os);
+			});
+			LOG.info(String.format("New Blob File %s",seData.toString()));
+		}
+		if (cache != null) {
+			cache.put(seData, fileDest);
+		}
+		return seData.copyWithFastHash(SolderEntry.FAST_HASH_XXH64, xxh.getValue());
+	}
+	
+	static void addFetchBatch(List<IORunnable> listFetch, IRepoFileService rfs, SRepoInfo srepo,
+			List<SolderEntry> listSe, List<File> listDest, Map<String, SolderEntry> mapLocal, File dirPartial) {
+		if (listSe.size() == 1) {
+			SolderEntry seData = listSe.get(0);
+			File fileDest = listDest.get(0);
+			listFetch.add(() -> {
+				mapLocal.put(seData.getRelPath(), fetchBlob(rfs, srepo, seData, null, fileDest, dirPartial));
+			});
+			return;
+		}
+		listFetch.add(() -> {
+			fetchBatch(rfs, srepo, listSe, listDest, mapLocal, dirPartial);
+		});
 	}
 	
+	/**
+	 * Downloads small blobs with one DOWNLOAD_FILES call, each streamed into its destination through
+	 * {@link VerifiedWriter}. Blobs the batch did not complete are fetched one by one.
+	 */
+	static void fetchBatch(IRepoFileService rfs, SRepoInfo srepo, List<SolderEntry> listSe, List<File> listDest,
+			Map<String, SolderEntry> mapLocal, File dirPartial) throws IOException {
+		BlobCache cache = getBlobCache();
+		if (cache != null) {
+			List<SolderEntry> listMiss = new ArrayList<>();
+			List<File> listMissDest = new ArrayList<>();
+			for (int i = 0; i < listSe.size(); i++) {
+				SolderEntry seLocal = cache.checkout(listSe.get(i), listDest.get(i));
+				if (seLocal != null) {
+					mapLocal.put(seLocal.getRelPath(), seLocal);
+				} else {
+					listMiss.add(listSe.get(i));
+					listMissDest.add(listDest.get(i));
+				}
+			}
+			if (listMiss.isEmpty()) {
+				return;
+			}
+			listSe = listMiss;
+			listDest = listMissDest;
+		}
+		List<SolderEntry> listSeFinal = listSe;
+		List<File> listDestFinal = listDest;
+		int n = listSeFinal.size();
+		String[] aRelPath = new String[n];
+		long[] aBlobFsId = new long[n];
+		String[] aDigest = new String[n];
+		for (int i = 0; i < n; i++) {
+			SolderEntry se = listSeFinal.get(i);
+			aRelPath[i] = se.getRelPath();
+			aBlobFsId[i] = se.getBlobFsId();
+			aDigest[i] = se.getDigest();
+		}
+		
+		VerifiedWriter[] aWriter = new VerifiedWriter[n];
+		XXHash64[] aXxh = new XXHash64[n];
+		BitSet bsDone = new BitSet(n);
+		try {
+			rfs.downloadFiles(srepo, aRelPath, aBlobFsId, aDigest, new IRepoFileService.BlobSink() {
+				public OutputStream begin(int i, long size) throws IOException {
+					SolderEntry se = listSeFinal.get(i);
+					if (size != se.getSize()) {
+						throw new RestException(String.format("Size mismatch for %s; received=%d; expect=%d",
+								se.getRelPath(), size, se.getSize()));
+					}
+					MessageDigest md = SolderEntry.tlMessageDigest.get();
+					md.reset();
+					aXxh[i] = new XXHash64();
+					aWriter[i] = VerifiedWriter.open(listDestFinal.get(i), DOWNLOAD_SUFFIX, se, md, aXxh[i]);
+					return aWriter[i].getOutputStream();
+				}
+				
+				public void end(int i) throws IOException {
+					VerifiedWriter vw = aWriter[i];
+					aWriter[i] = null;
+					vw.commit();
+					SolderEntry se = listSeFinal.get(i);
+					mapLocal.put(se.getRelPath(), se.copyWithFastHash(SolderEntry.FAST_HASH_XXH64, aXxh[i].getValue()));
+					bsDone.set(i);
+					if (cache != null) {
+						cache.put(se, listDestFinal.get(i));
+					}
+				}
+			});
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			LOG.info(String.format("Batched download of %d blobs failed after %d, fetching the rest one by one: %s", n,
+					bsDone.cardinality(), e.toString()));
+		} finally {
+			for (VerifiedWriter vw : aWriter) {
+				if (vw != null) {
+					vw.abort();
+				}
+			}
+		}
+		LOG.info(String.format("New Batched Files %d of %d", bsDone.cardinality(), n));
+		for (int i = bsDone.nextClearBit(0); i < n; i = bsDone.nextClearBit(i + 1)) {
+			SolderEntry se = listSeFinal.get(i);
+			mapLocal.put(se.getRelPath(), fetchBlob(rfs, srepo, se, null, listDestFinal.get(i), dirPartial));
+		}
+	}
+	
+	static SolderEntry extractCommitEntry(PackageReaders readers, SolderEntry seCommit, File fileDest) throws IOException {
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		XXHash64 xxh = new XXHash64();
+		BeechFS fs = readers.acquire();
+		try {
+			writeVerified(fileDest, DOWNLOAD_SUFFIX, seCommit, md, xxh, (os) -> {
+				try (InputStream isSrc = fs.read(seCommit.getRelPath())) {
+					IOUtils.copy(isSrc, os);
+				}
+			});
+		} finally {
+			readers.release(fs);
+		}
+		LOG.info(String.format("New Commit File %s",seCommit.toString()));
+		return seCommit.copyWithFastHash(SolderEntry.FAST_HASH_XXH64, xxh.getValue());
+	}
+	
+	/**
+	 * Writes fileDest through a sibling temp file (same directory, so the rename is atomic), hashing the bytes as
+	 * they are written. The temp file is renamed into place (mtime already set) only if the bytes have se's digest;
+	 * on any failure it is removed and fileDest is left as it was.
+	 */
+	static void writeVerified(File fileDest, String stSuffix, SolderEntry se, MessageDigest md, XXHash64 xxh,
+			IOConsumer<OutputStream> cWrite) throws IOException {
+		VerifiedWriter vw = VerifiedWriter.open(fileDest, stSuffix, se, md, xxh);
+		boolean fError = true;
+		try {
+			cWrite.accept(vw.getOutputStream());
+			vw.commit();
+			fError = false;
+		} finally {
+			if (fError) {
+				vw.abort();
+			}
+		}
+	}
+	
+	/**
+	 * The temp file of {@link #writeVerified}, for writers that are not a single callback (e.g. a batched download
+	 * feeding many files in turn): write to {@link #getOutputStream()}, then {@link #commit()} or {@link #abort()}.
+	 */
+	static class VerifiedWriter {
+		final File fileDest;
+		final File fileTmp;
+		final SolderEntry se;
+		final MessageDigest md;
+		DigestOutputStream dos;
+		
+		VerifiedWriter(File fileDest, File fileTmp, SolderEntry se, MessageDigest md) {
+			this.fileDest = fileDest;
+			this.fileTmp = fileTmp;
+			this.se = se;
+			this.md = md;
+		}
+		
+		static VerifiedWriter open(File fileDest, String stSuffix, SolderEntry se, MessageDigest md, XXHash64 xxh)
+				throws IOException {
+			File fileTmp = new File(fileDest.getParentFile(), fileDest.getName() + stSuffix);
+			Validator.checkNewFile(fileTmp, true, se.getRelPath());
+			VerifiedWriter vw = new VerifiedWriter(fileDest, fileTmp, se, md);
+			vw.dos = new DigestOutputStream(new XXHash64.HashingOutputStream(new FileOutputStream(fileTmp), xxh), md);
+			return vw;
+		}
+		
+		OutputStream getOutputStream() {
+			return dos;
+		}
+		
+		/**
+		 * Checks the digest and renames the temp file into place; on failure it is removed.
+		 */
+		void commit() throws IOException {
+			String stRelPath = se.getRelPath();
+			boolean fError = true;
+			try {
+				dos.close();
+				dos = null;
+				String stDigestWritten = PrintUtils.toHexString(md.digest());
+				if (!CompareUtils.stringEquals(se.digest, stDigestWritten)) {
+					throw new RestException("Digest match erorr for "+stRelPath+"; writtenDigest="+stDigestWritten+"; expect="+se.digest);
+				}
+				fileTmp.setLastModified(se.getLastModified());
+				Files.move(fileTmp.toPath(), fileDest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				fError = false;
+			} finally {
+				if (fError) {
+					abort();
+				}
+			}
+		}
+		
+		void abort() {
+			IOUtils.closeQuietly(dos);
+			dos = null;
+			fileTmp.delete();
+		}
+	}
+	
+	/**
+	 * Read-only handles on a commit package, one per concurrent extraction: the caller's BeechFS (which the
+	 * caller closes) and extra ones opened on the same file as needed.
+	 */
+	static class PackageReaders implements Closeable {
+		final File fileCommit;
+		final Queue<BeechFS> queueFree = new ConcurrentLinkedQueue<>();
+		final List<BeechFS> listOpened = new ArrayList<>();
+		
+		PackageReaders(BeechFS fsCommit,File fileCommit) {
+			this.fileCommit = Objects.requireNonNull(fileCommit,"commit package file");
+			queueFree.add(Objects.requireNonNull(fsCommit,"fsCommit"));
+		}
+		
+		BeechFS acquire() throws IOException {
+			BeechFS fs = queueFree.poll();
+			if (fs == null) {
+				fs = new BeechFS(fileCommit, Mode.READONLY);
+				synchronized (listOpened) {
+					listOpened.add(fs);
+				}
+			}
+			return fs;
+		}
+		
+		void release(BeechFS fs) {
+			queueFree.add(fs);
+		}
+		
+		public void close() {
+			synchronized (listOpened) {
+				for (BeechFS fs : listOpened) {
+					IOUtils.closeQuietly(fs);
+				}
+				listOpened.clear();
+			}
+		}
+	}
 	
 	public static CommitDetails repCommit(SLocalRepo lRepo, File fileCache, Consumer<Map<String, String>> cCommitProp,IRepoFileService rfs)
 			throws IOException {
@@ -413,26 +930,42 @@ public class RemoteRepoSync {
 		
 		CommitSession commitSess = rfs.beginCommit(sci,commitDetails.listMod,commitDetails.listDel);
 		commitDetails.setCommitId(commitSess.getCommitId());
+		if (commitSess.getCommitInfo() == null) {
+			// uploadCommit sends the chash resolved after the uploads.
+			commitSess.set(sci, commitDetails.listMod, commitDetails.listDel);
+		}
 		
-		for (String stUploadRelPath : commitDetails.listDedupUpload) {
-			// Create a new item...
-			SolderEntry se = commitDetails.mapAll.get(stUploadRelPath);
-			Objects.requireNonNull(se,()->stUploadRelPath);
-			long blobFsId = rfs.uploadFile(commitSess, se);
-			if (blobFsId<=0) {
-				throw new RestException("Invalid blobFsId "+blobFsId+" for path "+stUploadRelPath);
+		SCommitInfo sciServer;
+		boolean fError = true;
+		try {
+			findExistingBlobs(rfs, commitSess, commitDetails);
+			uploadBlobs(rfs, commitSess, commitDetails);
+			
+			// Pending digests were computed by the uploads.
+			commitDetails.resolvePendingDigests();
+			if (sci.getCHash() == null) {
+				sci.setCHash(commitDetails.getCHash());
+			}
+			
+			// Every blobFsId is set (uploads awaited) before this.
+			commitDetails.setAndVerifyPostUpload();
+	
+			// Actual Commit file..
+			// fileCommit
+			commitDetails.finalizeFsCommit();
+			
+			sciServer = rfs.uploadCommit(commitSess,commitDetails.getFileCommit());
+			fError = false;
+		} finally {
+			if (fError) {
+				try {
+					rfs.abortCommit(commitSess);
+				} catch (IOException | RuntimeException e) {
+					LOG.info(String.format("Abort of commit session %d failed: %s", commitSess.getCommitId(), e.toString()));
+				}
 			}
-			se.setBlobFsId(blobFsId);
 		}
 		
-		commitDetails.setAndVerifyPostUpload();
-
-		// Actual Commit file..
-		// fileCommit
-		commitDetails.finalizeFsCommit();
-		
-		SCommitInfo sciServer = rfs.uploadCommit(commitSess,commitDetails.getFileCommit());
-		
 		if (sciServer.getId()!=commitSess.commitId) {
 			throw new RestException(String.format("Returned commitId %d is different from id %d assigned at beginCommit ", sciServer.getId(),commitSess.commitId));
 		}
@@ -454,5 +987,503 @@ public class RemoteRepoSync {
 
 	}
 
+	/**
+	 * Writes a chunked entry to fileDest from its chunks: chunks of seReuse (the local file being replaced) are
+	 * copied from it, the others downloaded. The content is assembled in a sibling file that then replaces fileDest.
+	 */
+	static void fetchChunks(IRepoFileService rfs, SRepoInfo srepo, SolderEntry seData, SolderEntry seReuse, File fileDest,
+			MessageDigest md, XXHash64 xxh) throws IOException {
+		String stRelPath = seData.getRelPath();
+		Map<String, SolderChunk> mapReuse = new HashMap<>();
+		if (seReuse != null) {
+			for (SolderChunk sc : seReuse.getChunks()) {
+				mapReuse.putIfAbsent(sc.getDigest(), sc);
+			}
+		}
+		int[] aReused = new int[1];
+		long[] aSzReused = new long[1];
+		// Chunks are streamed into the assembly file; the whole file digest covers every chunk.
+		writeVerified(fileDest, CHUNK_ASSEMBLE_SUFFIX, seData, md, xxh, (os) -> {
+			for (SolderChunk sc : seData.getChunks()) {
+				SolderChunk scLocal = mapReuse.get(sc.getDigest());
+				if (scLocal != null && scLocal.getSize() == sc.getSize()) {
+					try (InputStream isSrc = FileDigest.openRange(seReuse.file, scLocal.getOffset(), scLocal.getSize())) {
+						IOUtils.copy(isSrc, os);
+					}
+					aReused[0]++;
+					aSzReused[0] += sc.getSize();
+				} else {
+					rfs.downloadFile(srepo, stRelPath, sc.getBlobFsId(), sc.getDigest(), os);
+				}
+			}
+		});
+		LOG.info(String.format("Chunked %s: %d chunks, %d (%,d bytes) reused locally", stRelPath,
+				seData.getChunks().length, aReused[0], aSzReused[0]));
+	}
+
+	/**
+	 * Downloads a large unchunked blob as {@link #RANGE_SIZE} ranges, up to rfs.getMaxConcurrentDownloads() in
+	 * flight, into a partial file under dirPartial. Finished ranges are journaled and a failed range resumes from its
+	 * last received byte, so neither a dropped connection nor a later checkout starts the blob over. The partial file
+	 * replaces fileDest only once its SHA-256 matches; a mismatch discards it. A server that does not serve ranges
+	 * gets the blob downloaded whole instead.
+	 */
+	static void fetchRanges(IRepoFileService rfs, SRepoInfo srepo, SolderEntry seData, File dirPartial, File fileDest,
+			MessageDigest md, XXHash64 xxh) throws IOException {
+		String stRelPath = seData.getRelPath();
+		dirPartial.mkdirs();
+		// Same content at the same path: two paths with one digest are fetched concurrently into separate partials.
+		byte[] aBPath = stRelPath.getBytes(StandardCharsets.UTF_8);
+		String stName = String.format("%s_%016x%s", seData.getDigest(), XXHash64.hash(aBPath, 0, aBPath.length), PARTIAL_SUFFIX);
+		File filePart = new File(dirPartial, stName);
+
+		AtomicBoolean fNoRanges = new AtomicBoolean();
+		try (PartialDownload pd = PartialDownload.open(filePart, seData.getSize(), RANGE_SIZE)) {
+			List<IORunnable> listRange = new ArrayList<>();
+			for (int iRange = pd.bsDone.nextClearBit(0); iRange < pd.nRange; iRange = pd.bsDone.nextClearBit(iRange + 1)) {
+				int iRangeFinal = iRange;
+				listRange.add(() -> fetchRange(rfs, srepo, seData, pd, iRangeFinal, fNoRanges));
+			}
+			LOG.info(String.format("Ranged %s: %d of %d ranges to fetch (%,d bytes)", stRelPath, listRange.size(), pd.nRange,
+					seData.getSize()));
+			runTasks("SolderRange", Math.min(rfs.getMaxConcurrentDownloads(), listRange.size()), listRange);
+		}
+		if (fNoRanges.get()) {
+			// Ranges may hold bytes of the wrong offsets.
+			filePart.delete();
+			PartialDownload.journalFile(filePart).delete();
+			LOG.info(String.format("Server does not serve ranges, downloading %s whole", stRelPath));
+			writeVerified(fileDest, DOWNLOAD_SUFFIX, seData, md, xxh, (os) -> {
+				rfs.downloadFile(srepo, stRelPath, seData.getBlobFsId(), seData.getDigest(), os);
+			});
+			return;
+		}
+
+		boolean fError = true;
+		try {
+			FileDigest.digestImmutable(filePart, md, xxh);
+			String stDigestWritten = PrintUtils.toHexString(md.digest());
+			if (!CompareUtils.stringEquals(seData.digest, stDigestWritten)) {
+				throw new RestException("Digest match erorr for "+stRelPath+"; writtenDigest="+stDigestWritten+"; expect="+seData.digest);
+			}
+			filePart.setLastModified(seData.getLastModified());
+			Files.move(filePart.toPath(), fileDest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			fError = false;
+		} finally {
+			if (fError) {
+				filePart.delete();
+			}
+			PartialDownload.journalFile(filePart).delete();
+		}
+	}
+
+	/**
+	 * Downloads one range of pd, resuming after a failure from the bytes already written.
+	 * 
+	 * @param fNoRanges set (and the range left undone) if the server does not serve ranges; the other ranges of the
+	 *                  blob then stop too.
+	 */
+	static void fetchRange(IRepoFileService rfs, SRepoInfo srepo, SolderEntry seData, PartialDownload pd, int iRange,
+			AtomicBoolean fNoRanges) throws IOException {
+		long off = pd.getRangeOffset(iRange);
+		long len = pd.getRangeLength(iRange);
+		RangeOutputStream ros = new RangeOutputStream(pd.fc, off, len);
+		for (int attempt = 1;; attempt++) {
+			if (fNoRanges.get()) {
+				return;
+			}
+			try {
+				long done = ros.getCount();
+				if (!rfs.downloadRange(srepo, seData.getRelPath(), seData.getBlobFsId(), seData.getDigest(), off + done,
+						len - done, ros)) {
+					fNoRanges.set(true);
+					return;
+				}
+				if (ros.getCount() != len) {
+					throw new EOFException(String.format("Range %d of %s ended at %,d of %,d bytes", iRange,
+							seData.getRelPath(), ros.getCount(), len));
+				}
+				pd.markDone(iRange);
+				return;
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				if (attempt >= RANGE_ATTEMPTS) {
+					throw e;
+				}
+				long tSleep = UPLOAD_RETRY_BACKOFF_MS << (attempt - 1);
+				LOG.info(String.format("Range %d of %s failed at %,d of %,d bytes (attempt %d/%d), resume in %dms: %s",
+						iRange, seData.getRelPath(), ros.getCount(), len, attempt, RANGE_ATTEMPTS, tSleep, e.toString()));
+				try {
+					Thread.sleep(tSleep);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted resuming range download of " + seData.getRelPath());
+				}
+			}
+		}
+	}
+
+	static void deletePartials(File dirPartial) {
+		File[] aFile = dirPartial.listFiles();
+		if (aFile == null) {
+			return;
+		}
+		for (File file : aFile) {
+			if (file.getName().endsWith(PARTIAL_SUFFIX) || file.getName().endsWith(PARTIAL_SUFFIX + PARTIAL_RANGES_SUFFIX)) {
+				LOG.info(String.format("Removing stale partial download %s", file.getName()));
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * A partial file of the blob's full size and a journal of its finished ranges: a header line
+	 * "size rangeSize" then one range index per line, appended only after the range's bytes were forced to disk.
+	 * A missing or different journal, or a partial file of another size, starts over.
+	 */
+	static class PartialDownload implements Closeable {
+		final long size, rangeSize;
+		final int nRange;
+		final BitSet bsDone;
+		final RandomAccessFile raf;
+		final FileChannel fc;
+		final OutputStream osJournal;
+
+		PartialDownload(long size, long rangeSize, BitSet bsDone, RandomAccessFile raf, OutputStream osJournal) {
+			this.size = size;
+			this.rangeSize = rangeSize;
+			this.nRange = (int) ((size + rangeSize - 1) / rangeSize);
+			this.bsDone = bsDone;
+			this.raf = raf;
+			this.fc = raf.getChannel();
+			this.osJournal = osJournal;
+		}
+
+		static File journalFile(File filePart) {
+			return new File(filePart.getParentFile(), filePart.getName() + PARTIAL_RANGES_SUFFIX);
+		}
+
+		static PartialDownload open(File filePart, long size, long rangeSize) throws IOException {
+			File fileJournal = journalFile(filePart);
+			String stHeader = size + " " + rangeSize;
+			int nRange = (int) ((size + rangeSize - 1) / rangeSize);
+			BitSet bsDone = new BitSet(nRange);
+			if (filePart.length() == size && fileJournal.isFile()) {
+				// Only newline terminated lines count: a torn last line (crash while appending) is fetched again.
+				String[] aLine = Files.readString(fileJournal.toPath(), StandardCharsets.US_ASCII).split("\n", -1);
+				if (aLine.length > 1 && stHeader.equals(aLine[0])) {
+					for (int i = 1; i < aLine.length - 1; i++) {
+						String stLine = aLine[i];
+						if (stLine.length() < 10 && StringUtils.isNumeric(stLine)) {
+							int iRange = Integer.parseInt(stLine);
+							if (iRange < nRange) {
+								bsDone.set(iRange);
+							}
+						}
+					}
+				}
+			}
+			if (bsDone.isEmpty()) {
+				filePart.delete();
+				Files.writeString(fileJournal.toPath(), stHeader + "\n", StandardCharsets.US_ASCII);
+			} else {
+				LOG.info(String.format("Resuming %s: %d of %d ranges already downloaded", filePart.getName(),
+						bsDone.cardinality(), nRange));
+			}
+			RandomAccessFile raf = new RandomAccessFile(filePart, "rw");
+			OutputStream osJournal = null;
+			try {
+				raf.setLength(size);
+				osJournal = new FileOutputStream(fileJournal, true);
+				return new PartialDownload(size, rangeSize, bsDone, raf, osJournal);
+			} catch (IOException e) {
+				IOUtils.closeQuietly(raf);
+				IOUtils.closeQuietly(osJournal);
+				throw e;
+			}
+		}
+
+		long getRangeOffset(int iRange) {
+			return iRange * rangeSize;
+		}
+
+		long getRangeLength(int iRange) {
+			return Math.min(rangeSize, size - getRangeOffset(iRange));
+		}
+
+		synchronized void markDone(int iRange) throws IOException {
+			fc.force(false);
+			osJournal.write((iRange + "\n").getBytes(StandardCharsets.US_ASCII));
+			osJournal.flush();
+			bsDone.set(iRange);
+		}
+
+		public void close() throws IOException {
+			IOUtils.closeQuietly(osJournal);
+			raf.close();
+		}
+	}
+
+	/**
+	 * Positional writes of one range of a shared FileChannel (ranges are written concurrently); counts the bytes
+	 * written so a retry knows where to resume, and refuses bytes past the range.
+	 */
+	static class RangeOutputStream extends OutputStream {
+		final FileChannel fc;
+		final long off, len;
+		long count;
+
+		RangeOutputStream(FileChannel fc, long off, long len) {
+			this.fc = fc;
+			this.off = off;
+			this.len = len;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] aB, int offB, int lenB) throws IOException {
+			if (lenB > len - count) {
+				throw new IOException(String.format("Range overrun: %,d bytes past %,d at offset %,d", lenB, len - count, off));
+			}
+			ByteBuffer bb = ByteBuffer.wrap(aB, offB, lenB);
+			while (bb.hasRemaining()) {
+				count += fc.write(bb, off + count);
+			}
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Asks the server which upload candidates it already stores (e.g. after a fresh clone the local index knows
+	 * no blobFsIds) and sets their blobFsId so uploadBlobs skips them. Digest pending entries of at least
+	 * {@link #getFindPendingMinSize()} are hashed first; smaller ones keep their digest for the upload.
+	 * A server without HAS_BLOBS is pushed to without this dedup.
+	 */
+	static int findExistingBlobs(IRepoFileService rfs, CommitSession commitSess, CommitDetails commitDetails)
+			throws IOException {
+		List<SolderEntry> listQuery = new ArrayList<>();
+		List<SolderEntry> listResolve = new ArrayList<>();
+		long findPendingMinSize = getFindPendingMinSize();
+		for (String stUploadRelPath : commitDetails.listDedupUpload) {
+			SolderEntry se = commitDetails.mapAll.get(stUploadRelPath);
+			Objects.requireNonNull(se,()->stUploadRelPath);
+			if (se.getBlobFsId() > 0) {
+				continue;
+			}
+			if (!se.isDigestPending()) {
+				listQuery.add(se);
+			} else if (se.getSize() >= findPendingMinSize) {
+				listResolve.add(se);
+			}
+		}
+		if (!listResolve.isEmpty()) {
+			try (BoundedTasks tasks = new BoundedTasks("SolderDigest", SLocalRepo.getDigestConcurrency())) {
+				for (SolderEntry se : listResolve) {
+					tasks.submit(() -> se.resolvePendingDigest());
+				}
+				tasks.await();
+			}
+			LOG.info(String.format("Hashed %d pending upload candidates for HAS_BLOBS", listResolve.size()));
+			listQuery.addAll(listResolve);
+		}
+		for (SolderEntry se : commitDetails.listChunkUpload) {
+			if (se.getBlobFsId() <= 0) {
+				listQuery.add(se);
+			}
+		}
+		int nFound = 0;
+		long szFound = 0L;
+		for (int off = 0; off < listQuery.size(); off += FIND_BLOBS_MAX) {
+			List<SolderEntry> listPart = listQuery.subList(off, Math.min(listQuery.size(), off + FIND_BLOBS_MAX));
+			String[] aDigest = new String[listPart.size()];
+			for (int i = 0; i < aDigest.length; i++) {
+				aDigest[i] = listPart.get(i).getDigest();
+			}
+			long[] aBlobFsId;
+			try {
+				aBlobFsId = rfs.findBlobs(commitSess, aDigest);
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				// Older servers have no HAS_BLOBS: the candidates not resolved yet are all uploaded.
+				LOG.info(String.format("HAS_BLOBS failed, uploading without dedup: %s", e.toString()));
+				break;
+			}
+			if (aBlobFsId.length != aDigest.length) {
+				throw new RestException(String.format("findBlobs returned %d ids for %d digests", aBlobFsId.length, aDigest.length));
+			}
+			for (int i = 0; i < aBlobFsId.length; i++) {
+				if (aBlobFsId[i] > 0) {
+					SolderEntry se = listPart.get(i);
+					se.setBlobFsId(aBlobFsId[i]);
+					nFound++;
+					szFound += se.getSize();
+				}
+			}
+		}
+		LOG.info(String.format("Server already holds %d of %d upload candidates (%,d bytes)", nFound, listQuery.size(), szFound));
+		return nFound;
+	}
+
+	/**
+	 * Uploads listDedupUpload with up to rfs.getMaxConcurrentUploads() in flight; the first upload that still
+	 * fails after {@link #UPLOAD_ATTEMPTS} stops the rest.
+	 */
+	static void uploadBlobs(IRepoFileService rfs, CommitSession commitSess, CommitDetails commitDetails)
+			throws IOException {
+		int nConcurrent = rfs.getMaxConcurrentUploads();
+		LOG.info(String.format("Uploading %d blobs and %d chunks for commit %d (inFlight=%d)",
+				commitDetails.listDedupUpload.size(), commitDetails.listChunkUpload.size(), commitSess.getCommitId(),
+				nConcurrent));
+
+		IOConsumer<SolderEntry> cUpload = (se) -> {
+			long blobFsId = uploadDelta(rfs, commitSess, se, commitDetails.mapDeltaBase.get(se.getRelPath()));
+			if (blobFsId <= 0) {
+				blobFsId = uploadWithRetry(rfs, commitSess, se);
+			}
+			if (blobFsId<=0) {
+				throw new RestException("Invalid blobFsId "+blobFsId+" for path "+se.getRelPath());
+			}
+			se.setBlobFsId(blobFsId);
+		};
+
+		// Entries findExistingBlobs resolved already have their blobFsId.
+		List<SolderEntry> listAll = new ArrayList<>();
+		for (String stUploadRelPath : commitDetails.listDedupUpload) {
+			SolderEntry se = commitDetails.mapAll.get(stUploadRelPath);
+			Objects.requireNonNull(se,()->stUploadRelPath);
+			if (se.getBlobFsId() <= 0) {
+				listAll.add(se);
+			}
+		}
+		for (SolderEntry se : commitDetails.listChunkUpload) {
+			if (se.getBlobFsId() <= 0) {
+				listAll.add(se);
+			}
+		}
+
+		if (nConcurrent <= 1) {
+			// Caller thread (server side services rely on its session context).
+			for (SolderEntry se : listAll) {
+				cUpload.accept(se);
+			}
+			return;
+		}
+
+		// Small files go in UPLOAD_FILES batches of up to batchBytes; entries a batch did not store are sent alone.
+		IOConsumer<List<SolderEntry>> cUploadBatch = (listBatch) -> {
+			if (listBatch.size() > 1) {
+				try {
+					rfs.uploadFiles(commitSess, listBatch);
+				} catch (InterruptedIOException | FileNotFoundException e) {
+					throw e;
+				} catch (IOException e) {
+					LOG.info(String.format("Batch of %d files failed, uploading one by one: %s", listBatch.size(),
+							e.toString()));
+				}
+			}
+			for (SolderEntry se : listBatch) {
+				if (se.getBlobFsId() <= 0) {
+					cUpload.accept(se);
+				}
+			}
+		};
+
+		long batchBytes = getUploadBatchBytes();
+		int nBatch = 0;
+		try (BoundedTasks tasks = new BoundedTasks("SolderUpload", nConcurrent)) {
+			List<SolderEntry> listBatch = new ArrayList<>();
+			long szBatch = 0L;
+			for (SolderEntry se : listAll) {
+				boolean fBatch = batchBytes > 0L && se.getSize() <= Math.min(BATCH_MAX_FILE_SIZE, batchBytes)
+						&& !commitDetails.mapDeltaBase.containsKey(se.getRelPath());
+				if (!fBatch) {
+					tasks.submit(() -> cUpload.accept(se));
+					continue;
+				}
+				if (szBatch + se.getSize() > batchBytes || listBatch.size() >= BATCH_MAX_FILES) {
+					List<SolderEntry> listSubmit = listBatch;
+					tasks.submit(() -> cUploadBatch.accept(listSubmit));
+					nBatch++;
+					listBatch = new ArrayList<>();
+					szBatch = 0L;
+				}
+				listBatch.add(se);
+				szBatch += se.getSize();
+			}
+			if (!listBatch.isEmpty()) {
+				List<SolderEntry> listSubmit = listBatch;
+				tasks.submit(() -> cUploadBatch.accept(listSubmit));
+				nBatch++;
+			}
+			tasks.await();
+		}
+		LOG.info(String.format("Uploaded %d entries (%d batches)", listAll.size(), nBatch));
+	}
+
+	/**
+	 * Delta against the previous version when there is one; -1 (full upload) if it fails or is not worth it.
+	 */
+	static long uploadDelta(IRepoFileService rfs, CommitSession commitSess, SolderEntry se, SolderEntry seBase)
+			throws IOException {
+		if (seBase == null) {
+			return -1L;
+		}
+		try {
+			return rfs.uploadDelta(commitSess, se, seBase);
+		} catch (InterruptedIOException | FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			LOG.info(String.format("Delta upload %s failed, sending whole file: %s", se.getRelPath(), e.toString()));
+			return -1L;
+		}
+	}
+
+	/**
+	 * True for transport failures (connection reset or refused, timeout, truncated response) that another attempt
+	 * may get past. A RestException is a rejected request (digest mismatch, sentry denial, expired session, server
+	 * error) and fails the same way again; cancellation and a missing local file are final too.
+	 */
+	static boolean isTransportError(IOException e) {
+		if (e instanceof RestException || e.getCause() instanceof RestException) {
+			return false;
+		}
+		if (e instanceof SocketTimeoutException) {
+			return true;
+		}
+		return !(e instanceof InterruptedIOException) && !(e instanceof FileNotFoundException);
+	}
+
+	/**
+	 * Uploads se, retrying only transport errors (see {@link #isTransportError(IOException)}).
+	 */
+	static long uploadWithRetry(IRepoFileService rfs, CommitSession commitSess, SolderEntry se) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return rfs.uploadFile(commitSess, se);
+			} catch (IOException e) {
+				if (!isTransportError(e) || attempt >= UPLOAD_ATTEMPTS) {
+					throw e;
+				}
+				long tSleep = UPLOAD_RETRY_BACKOFF_MS << (attempt - 1);
+				LOG.info(String.format("Upload %s failed (attempt %d/%d), retry in %dms: %s", se.getRelPath(), attempt,
+						UPLOAD_ATTEMPTS, tSleep, e.toString()));
+				try {
+					Thread.sleep(tSleep);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted retrying upload of " + se.getRelPath());
+				}
+			}
+		}
+	}
+
 }
 
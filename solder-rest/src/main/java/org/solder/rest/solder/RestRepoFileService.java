@@ -1,20 +1,36 @@
 package org.solder.rest.solder;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.RsyncDelta;
+import org.solder.rest.util.WireCompression;
+import org.solder.rest.util.XXHash64;
 
+import com.ee.rest.RestException;
 import com.ee.rest.RestOp.RestClient;
+import com.jnk.util.CompareUtils;
 import com.jnk.util.PrintUtils;
+import com.jnk.util.TReference;
 import com.jnk.util.Validator;
 import com.jnk.util.Validator.Rules;
 import com.lnk.lucene.TempFiles;
@@ -24,12 +40,41 @@ public class RestRepoFileService implements IRepoFileService {
 	
 	private static Log LOG = LogFactory.getLog(RestRepoFileService.class.getName());
 
+	/** A delta above this fraction of the file size is dropped for a full upload. */
+	public static final double DELTA_MAX_RATIO = 0.5;
+	/** Bytes per part of a part upload (capped by the server's max). */
+	public static final int PART_SIZE = 8 << 20;
+	/** Consecutive failures of one part before the upload fails. */
+	public static final int PART_ATTEMPTS = 5;
+	static final long PART_RETRY_BACKOFF_MS = 500L;
+	
 	RestClient client;
+	// Server accepts deflated UPLOAD_* bodies and deflates DOWNLOAD_FILE responses on request.
+	boolean fServerDeflate;
+	// Server rejected a digest pending UPLOAD_FILE (older servers need the digest): pending entries are hashed first.
+	volatile boolean fPendingRejected;
+	// Server rejected UPLOAD_STATUS (older servers have no part uploads): large files go whole.
+	volatile boolean fPartRejected;
+	// Server ignored a DOWNLOAD_FILE range (older servers send the whole blob): large files are downloaded whole.
+	volatile boolean fRangeIgnored;
 	
 	public RestRepoFileService(RestClient client) throws IOException{
 		this.client = Objects.requireNonNull(client,"client");
-		String stServerVersion = SolderRestClient.getVersion(client);
-		LOG.info(String.format("Solder RepoFileService server verion= [%s]", stServerVersion));
+		String stServerVersion = SolderRestClient.getVersion(client,(enc)->{
+			fServerDeflate = WireCompression.acceptsDeflate(enc);
+		});
+		LOG.info(String.format("Solder RepoFileService server verion= [%s] deflate=%s", stServerVersion,fServerDeflate));
+	}
+	
+	boolean isWireDeflate() {
+		return fServerDeflate && WireCompression.isEnabled();
+	}
+	
+	/**
+	 * Deflate the upload of file[off, off+len) if the server accepts it and a sample compresses.
+	 */
+	boolean isDeflateUpload(File file,long off,long len) throws IOException {
+		return isWireDeflate() && WireCompression.isCompressible(file, off, len);
 	}
 	
 	public RestClient getRestClient() throws IOException {
@@ -71,7 +116,8 @@ public class RestRepoFileService implements IRepoFileService {
 		TempFiles tf = TempFiles.get(TempFiles.DEFAULT);
 		File fileRoot = tf.getTempDir(srepoInfo.getId());
 		
-		File fileTmp = new File(fileRoot,""+blobFsId);
+		// Unique name: checkout downloads run concurrently and may fetch the same blob for two paths.
+		File fileTmp = new File(fileRoot,blobFsId+"_"+UUID.randomUUID());
 		Validator.checkNewFile(fileTmp,true, "New Temp file");
 		
 		
@@ -82,18 +128,135 @@ public class RestRepoFileService implements IRepoFileService {
 			os = new FileOutputStream(fileTmp);
 			fError =true;
 			OutputStream osFinal = os;
-			SolderRestClient.downloadFile(srepoInfo.getId(),relPath,blobFsId,stDigestExpect,()->osFinal,getRestClient());
+			SolderRestClient.downloadFile(srepoInfo.getId(),relPath,blobFsId,stDigestExpect,()->osFinal,getRestClient(),isWireDeflate());
 			os.close();
 			fError = false;
 			return fileTmp;
 		}finally {
 			IOUtils.closeQuietly(os);
 			if (fError) {
-				tf.removeTempDir(fileRoot);
+				// Only this download's file: the repo temp dir is shared with concurrent downloads.
+				fileTmp.delete();
 			}
 		}
 	}
 
+	public void downloadFile(SRepoInfo srepoInfo,String relPath,long blobFsId,String stDigestExpect,OutputStream os) throws IOException {
+		Objects.requireNonNull(srepoInfo,"Repo Info");
+		Objects.requireNonNull(os,"os");
+		// The caller owns os (e.g. several chunks go to one file).
+		OutputStream osShield = CloseShieldOutputStream.wrap(os);
+		SolderRestClient.downloadFile(srepoInfo.getId(),relPath,blobFsId,stDigestExpect,()->osShield,getRestClient(),isWireDeflate());
+	}
+	
+	public boolean downloadRange(SRepoInfo srepoInfo,String relPath,long blobFsId,String stDigestExpect,long off,long len,OutputStream os) throws IOException {
+		Objects.requireNonNull(srepoInfo,"Repo Info");
+		Objects.requireNonNull(os,"os");
+		if (fRangeIgnored) {
+			return false;
+		}
+		OutputStream osShield = CloseShieldOutputStream.wrap(os);
+		if (!SolderRestClient.downloadFile(srepoInfo.getId(),relPath,blobFsId,stDigestExpect,off,len,()->osShield,getRestClient(),isWireDeflate())) {
+			LOG.info(String.format("Server ignored the range of %s, downloading large files whole", relPath));
+			fRangeIgnored = true;
+			return false;
+		}
+		return true;
+	}
+
+	public void downloadFiles(SRepoInfo srepoInfo,String[] aRelPath,long[] aBlobFsId,String[] aStDigestExpect,BlobSink sink) throws IOException {
+		Objects.requireNonNull(srepoInfo,"Repo Info");
+		Objects.requireNonNull(sink,"sink");
+		BatchOutputStream bos = new BatchOutputStream(aBlobFsId.length, sink);
+		try {
+			SolderRestClient.downloadFiles(srepoInfo.getId(),aRelPath,aBlobFsId,aStDigestExpect,()->bos,getRestClient(),isWireDeflate());
+			bos.finish();
+		} finally {
+			bos.abort();
+		}
+	}
+	
+	/**
+	 * Splits a DOWNLOAD_FILES body (per blob: 8 byte big endian size, then the bytes) into the sink's streams as
+	 * it arrives.
+	 */
+	static class BatchOutputStream extends OutputStream {
+		final int count;
+		final BlobSink sink;
+		final byte[] aHeader = new byte[Long.BYTES];
+		int nHeader;
+		int iNext;
+		OutputStream osCur;
+		long remaining;
+		
+		BatchOutputStream(int count,BlobSink sink) {
+			this.count = count;
+			this.sink = sink;
+		}
+		
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		public void write(byte[] aB, int off, int len) throws IOException {
+			while (len > 0) {
+				if (osCur == null) {
+					if (iNext >= count) {
+						throw new RestException(String.format("Data after the last of %d blobs", count));
+					}
+					int n = Math.min(aHeader.length - nHeader, len);
+					System.arraycopy(aB, off, aHeader, nHeader, n);
+					nHeader += n;
+					off += n;
+					len -= n;
+					if (nHeader < aHeader.length) {
+						return;
+					}
+					nHeader = 0;
+					remaining = ByteBuffer.wrap(aHeader).getLong();
+					if (remaining < 0L) {
+						throw new RestException(String.format("Invalid size %d of blob %d", remaining, iNext));
+					}
+					osCur = sink.begin(iNext, remaining);
+					if (remaining == 0L) {
+						endCurrent();
+					}
+					continue;
+				}
+				int n = (int) Math.min(remaining, len);
+				osCur.write(aB, off, n);
+				off += n;
+				len -= n;
+				remaining -= n;
+				if (remaining == 0L) {
+					endCurrent();
+				}
+			}
+		}
+		
+		void endCurrent() throws IOException {
+			osCur = null;
+			sink.end(iNext++);
+		}
+		
+		void finish() throws IOException {
+			if (osCur != null || nHeader != 0 || iNext != count) {
+				throw new EOFException(String.format("Batched download ended after %d of %d blobs", iNext, count));
+			}
+		}
+		
+		/**
+		 * Stream of an unfinished blob, if any; the sink removes what it wrote on its own.
+		 */
+		void abort() {
+			osCur = null;
+		}
+		
+		public void close() throws IOException {
+			// The sink owns the blob streams.
+		}
+	}
+	
 	public CommitSession beginCommit(SCommitInfo commitInfoReq, List<String> listModEntryRelPath,
 			List<String> listDelEntryRelPath) throws IOException {
 		Objects.requireNonNull(commitInfoReq, "Commit Request");
@@ -115,17 +278,377 @@ public class RestRepoFileService implements IRepoFileService {
 		File fileRep = se.getFile();
 		Objects.requireNonNull(fileRep);
 		Validator.checkFile(fileRep, "path " + se.getRelPath());
+		if (se.isDigestPending()) {
+			if (!fPendingRejected) {
+				try {
+					return uploadPendingFile(cs, se, fileRep);
+				} catch (RestException e) {
+					LOG.info(String.format("Digest pending upload of %s rejected, hashing pending entries first: %s",
+							se.getRelPath(), e.toString()));
+					fPendingRejected = true;
+				}
+			}
+			se.resolvePendingDigest();
+		}
+		if (isPartUpload(se) && !fPartRejected) {
+			long blobId = uploadParts(cs, se, fileRep);
+			if (blobId > 0L) {
+				return blobId;
+			}
+		}
 		InputStream is = null;
 		try {
-			is = new FileInputStream(fileRep);
+			boolean fDeflate = isDeflateUpload(fileRep, se.isRange() ? se.getRangeOffset() : 0L, se.getSize());
+			is = openContent(se, fileRep);
 			InputStream isFinal = is;
-			long blobId = SolderRestClient.uploadFile(cs,se,()->isFinal, getRestClient());
+			long blobId = SolderRestClient.uploadFile(cs,se,()->isFinal, getRestClient(),null,fDeflate);
 			se.setBlobFsId(blobId);
 			return blobId;
 		} finally {
 			IOUtils.closeQuietly(is);
 		}
 	}
+
+	/**
+	 * True if se goes as resumable parts (UPLOAD_PART): large enough and its digest known, which the entry scan
+	 * ensures for content of at least {@link RemoteRepoSync#getPartUploadMinSize()}.
+	 */
+	public static boolean isPartUpload(SolderEntry se) {
+		return !se.isDigestPending() && se.getSize() >= RemoteRepoSync.getPartUploadMinSize();
+	}
+
+	/**
+	 * Uploads se in parts of up to PART_SIZE, each read into memory, hashed and sent with its digest. After a
+	 * failure the server is asked how much it holds and the upload resumes there, so a network error costs at most
+	 * one part; the commit session fails only after PART_ATTEMPTS failures in a row.
+	 *
+	 * @return -1 if the server rejects part uploads (an older server): the caller sends the file whole.
+	 */
+	long uploadParts(CommitSession cs, SolderEntry se, File fileRep) throws IOException {
+		SolderRestClient.UploadStatus status;
+		try {
+			status = SolderRestClient.uploadStatus(cs, se, getRestClient());
+		} catch (RestException e) {
+			// Transport errors are left to the caller's retries.
+			LOG.info(String.format("UPLOAD_STATUS of %s rejected, sending large files whole: %s", se.getRelPath(),
+					e.toString()));
+			fPartRejected = true;
+			return -1L;
+		}
+		if (status.blobFsId > 0L) {
+			se.setBlobFsId(status.blobFsId);
+			return status.blobFsId;
+		}
+		long base = se.isRange() ? se.getRangeOffset() : 0L;
+		byte[] aB = new byte[(int) Math.min(PART_SIZE, Math.min(status.maxPartSize, se.getSize()))];
+		MessageDigest mdPart = SolderEntry.tlMessageDigest.get();
+		long received = status.received;
+		int failures = 0;
+		int nParts = 0;
+		boolean fResync = false;
+		try (RandomAccessFile raf = new RandomAccessFile(fileRep, "r")) {
+			while (received < se.getSize()) {
+				if (fResync) {
+					try {
+						received = SolderRestClient.uploadStatus(cs, se, getRestClient()).received;
+						fResync = false;
+					} catch (InterruptedIOException e) {
+						throw e;
+					} catch (IOException e) {
+						backoffPart(se, received, ++failures, e);
+					}
+					continue;
+				}
+				// Local read errors (e.g. the file shrank) are not retried.
+				int len = (int) Math.min(aB.length, se.getSize() - received);
+				raf.seek(base + received);
+				raf.readFully(aB, 0, len);
+				mdPart.reset();
+				mdPart.update(aB, 0, len);
+				String partDigest = PrintUtils.toHexString(mdPart.digest());
+				boolean fDeflate = isDeflateUpload(fileRep, base + received, len);
+				try {
+					received = SolderRestClient.uploadPart(cs, se.getDigest(), received, len, partDigest,
+							() -> new ByteArrayInputStream(aB, 0, len), getRestClient(), fDeflate);
+					nParts++;
+					failures = 0;
+				} catch (InterruptedIOException e) {
+					throw e;
+				} catch (IOException e) {
+					backoffPart(se, received, ++failures, e);
+					// The part may have been stored before the failure: ask where to resume.
+					fResync = true;
+				}
+			}
+		}
+		long blobId = SolderRestClient.uploadPartEnd(cs, se.getDigest(), getRestClient());
+		LOG.info(String.format("Part upload of %s: %,d bytes, %d parts sent (resumed from %,d)", se.getRelPath(),
+				se.getSize(), nParts, status.received));
+		se.setBlobFsId(blobId);
+		return blobId;
+	}
+
+	/**
+	 * Rethrows e after PART_ATTEMPTS consecutive failures, else waits before the next attempt.
+	 */
+	static void backoffPart(SolderEntry se, long received, int failures, IOException e) throws IOException {
+		if (failures >= PART_ATTEMPTS) {
+			throw e;
+		}
+		long tSleep = PART_RETRY_BACKOFF_MS << (failures - 1);
+		LOG.info(String.format("Part upload of %s failed at %,d of %,d bytes (attempt %d/%d), resume in %dms: %s",
+				se.getRelPath(), received, se.getSize(), failures, PART_ATTEMPTS, tSleep, e.toString()));
+		try {
+			Thread.sleep(tSleep);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted resuming part upload of " + se.getRelPath());
+		}
+	}
+
+	/**
+	 * The whole file, or the byte range of a chunk upload entry.
+	 */
+	static InputStream openContent(SolderEntry se, File file) throws IOException {
+		if (!se.isRange()) {
+			return new FileInputStream(file);
+		}
+		return FileDigest.openRange(file, se.getRangeOffset(), se.getSize());
+	}
+
+	/**
+	 * Digest pending entry: SHA-256 and XXH64 are computed over the bytes as they are sent (the file is read once)
+	 * and the SHA-256 must match the digest the server computed over the bytes it received.
+	 */
+	long uploadPendingFile(CommitSession cs, SolderEntry se, File fileRep) throws IOException {
+		MessageDigest md = SolderEntry.tlMessageDigest.get();
+		md.reset();
+		XXHash64 xxh = new XXHash64();
+		TReference<String> refDigest = new TReference<>();
+		InputStream is = null;
+		try {
+			boolean fDeflate = isDeflateUpload(fileRep, 0L, se.getSize());
+			// Hashes see the file bytes; the deflater (if any) wraps outside them.
+			is = new XXHash64.HashingInputStream(new DigestInputStream(new FileInputStream(fileRep), md), xxh);
+			InputStream isFinal = is;
+			long blobId = SolderRestClient.uploadFile(cs, se, () -> isFinal, getRestClient(), refDigest::set, fDeflate);
+			String digest = PrintUtils.toHexString(md.digest());
+			if (xxh.getLength() != se.getSize()) {
+				throw new RestException(String.format("File %s changed during upload (size %,d, sent %,d)",
+						se.getRelPath(), se.getSize(), xxh.getLength()));
+			}
+			if (!CompareUtils.stringEquals(digest, refDigest.get())) {
+				throw new RestException(String.format("Upload digest mismatch for %s. sent=%s, server=%s",
+						se.getRelPath(), digest, refDigest.get()));
+			}
+			se.setPendingDigest(digest, SolderEntry.FAST_HASH_XXH64, xxh.getValue());
+			se.setBlobFsId(blobId);
+			return blobId;
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+	
+	public long[] findBlobs(CommitSession cs, String[] aDigest) throws IOException {
+		Objects.requireNonNull(cs,"commitSession");
+		return SolderRestClient.hasBlobs(cs, aDigest, getRestClient());
+	}
+	
+	/**
+	 * One UPLOAD_FILES request for listSe. Digest pending entries are hashed as they are sent.
+	 */
+	public int uploadFiles(CommitSession cs, List<SolderEntry> listSe) throws IOException {
+		Objects.requireNonNull(cs,"commitSession");
+		SolderEntry[] aSe = listSe.toArray(SolderEntry.EMPTY_SOLDER_ENTRY);
+		long szTotal = 0L, szCompressible = 0L;
+		for (SolderEntry se : aSe) {
+			Validator.checkFile(se.getFile(), "path " + se.getRelPath());
+			szTotal += se.getSize();
+			if (isDeflateUpload(se.getFile(), se.isRange() ? se.getRangeOffset() : 0L, se.getSize())) {
+				szCompressible += se.getSize();
+			}
+		}
+		boolean fDeflate = szCompressible * 2 > szTotal;
+		
+		BatchInputStream bis = new BatchInputStream(aSe);
+		SolderRestClient.UploadFilesResult result;
+		try {
+			result = SolderRestClient.uploadFiles(cs, aSe, () -> bis, getRestClient(), fDeflate);
+		} finally {
+			IOUtils.closeQuietly(bis);
+		}
+		
+		int nUploaded = 0;
+		for (int i = 0; i < aSe.length; i++) {
+			SolderEntry se = aSe[i];
+			if (result.aBlobFsId[i] <= 0L) {
+				LOG.info(String.format("Batched upload of %s failed: %s", se.getRelPath(), result.aError[i]));
+				continue;
+			}
+			if (se.isDigestPending()) {
+				if (!CompareUtils.stringEquals(bis.aDigest[i], result.aDigest[i])) {
+					throw new RestException(String.format("Upload digest mismatch for %s. sent=%s, server=%s",
+							se.getRelPath(), bis.aDigest[i], result.aDigest[i]));
+				}
+				se.setPendingDigest(bis.aDigest[i], SolderEntry.FAST_HASH_XXH64, bis.aXXHash[i]);
+			}
+			se.setBlobFsId(result.aBlobFsId[i]);
+			nUploaded++;
+		}
+		LOG.info(String.format("Batched upload: %d of %d files, %,d bytes deflate=%s", nUploaded, aSe.length, szTotal,
+				fDeflate));
+		return nUploaded;
+	}
+	
+	/**
+	 * The content of each entry in turn, opened when reached. Digest pending entries are hashed (SHA-256, XXH64)
+	 * on the way, and each entry must supply exactly se.size bytes.
+	 */
+	static class BatchInputStream extends InputStream {
+		final SolderEntry[] aSe;
+		final String[] aDigest;
+		final long[] aXXHash;
+		int iNext;
+		InputStream isCur;
+		MessageDigest md;
+		XXHash64 xxh;
+		
+		BatchInputStream(SolderEntry[] aSe) {
+			this.aSe = aSe;
+			this.aDigest = new String[aSe.length];
+			this.aXXHash = new long[aSe.length];
+		}
+		
+		boolean advance() throws IOException {
+			while (isCur == null) {
+				if (iNext >= aSe.length) {
+					return false;
+				}
+				SolderEntry se = aSe[iNext++];
+				if (se.getSize() == 0L && !se.isDigestPending()) {
+					continue;
+				}
+				isCur = openContent(se, se.getFile());
+				if (se.isDigestPending()) {
+					md = SolderEntry.tlMessageDigest.get();
+					md.reset();
+					xxh = new XXHash64();
+					isCur = new XXHash64.HashingInputStream(new DigestInputStream(isCur, md), xxh);
+				} else {
+					xxh = new XXHash64();
+					isCur = new XXHash64.HashingInputStream(isCur, xxh);
+					md = null;
+				}
+			}
+			return true;
+		}
+		
+		void endCurrent() throws IOException {
+			int i = iNext - 1;
+			SolderEntry se = aSe[i];
+			isCur.close();
+			isCur = null;
+			if (xxh.getLength() != se.getSize()) {
+				throw new RestException(String.format("File %s changed during upload (size %,d, sent %,d)",
+						se.getRelPath(), se.getSize(), xxh.getLength()));
+			}
+			if (md != null) {
+				aDigest[i] = PrintUtils.toHexString(md.digest());
+				aXXHash[i] = xxh.getValue();
+			}
+		}
+		
+		public int read() throws IOException {
+			byte[] aB = new byte[1];
+			int n = read(aB, 0, 1);
+			return n < 0 ? -1 : aB[0] & 0xFF;
+		}
+		
+		public int read(byte[] aB, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (advance()) {
+				int n = isCur.read(aB, off, len);
+				if (n > 0) {
+					return n;
+				}
+				endCurrent();
+			}
+			return -1;
+		}
+		
+		public void close() throws IOException {
+			if (isCur != null) {
+				isCur.close();
+				isCur = null;
+			}
+		}
+	}
+	
+	/**
+	 * Fetches the base's signature, writes the delta to a temp file (hashing se in the same read) and uploads it
+	 * unless it is larger than {@link #DELTA_MAX_RATIO} of the file.
+	 */
+	public long uploadDelta(CommitSession cs, SolderEntry se, SolderEntry seBase) throws IOException {
+		Objects.requireNonNull(cs,"commitSession");
+		Objects.requireNonNull(se,"Solder Entry");
+		if (seBase == null || seBase.getBlobFsId() <= 0L || se.isRange() || se.isChunked()
+				|| se.getSize() < RemoteRepoSync.getDeltaMinSize()) {
+			return -1L;
+		}
+		File fileRep = se.getFile();
+		Validator.checkFile(fileRep, "path " + se.getRelPath());
+		
+		int blockSize = RsyncDelta.blockSize(seBase.getSize());
+		RsyncDelta.Signature sig = SolderRestClient.getBlobSignature(cs, seBase.getBlobFsId(), blockSize, getRestClient());
+		
+		TempFiles tf = TempFiles.get(TempFiles.DEFAULT);
+		File fileRoot = tf.getTempDir("delta_" + UUID.randomUUID());
+		try {
+			File fileDelta = new File(fileRoot, "delta");
+			MessageDigest md = SolderEntry.tlMessageDigest.get();
+			md.reset();
+			XXHash64 xxh = new XXHash64();
+			long szLiteral;
+			try (OutputStream os = new FileOutputStream(fileDelta)) {
+				szLiteral = RsyncDelta.delta(fileRep, sig, os, md, xxh);
+			}
+			if (xxh.getLength() != se.getSize()) {
+				throw new RestException(String.format("File %s changed during delta (size %,d, read %,d)",
+						se.getRelPath(), se.getSize(), xxh.getLength()));
+			}
+			// Pending: sets the digest. Otherwise verifies the file still has the indexed digest.
+			se.setPendingDigest(PrintUtils.toHexString(md.digest()), SolderEntry.FAST_HASH_XXH64, xxh.getValue());
+			
+			long szDelta = fileDelta.length();
+			if (szDelta > se.getSize() * DELTA_MAX_RATIO) {
+				LOG.info(String.format("Delta skipped %s; delta=%,d size=%,d", se.getRelPath(), szDelta, se.getSize()));
+				return -1L;
+			}
+			long blobId = SolderRestClient.uploadDelta(cs, se, seBase.getBlobFsId(), blockSize,
+					() -> new FileInputStream(fileDelta), getRestClient());
+			LOG.info(String.format("Delta upload %s; delta=%,d literal=%,d size=%,d", se.getRelPath(), szDelta,
+					szLiteral, se.getSize()));
+			se.setBlobFsId(blobId);
+			return blobId;
+		} finally {
+			tf.removeTempDir(fileRoot);
+		}
+	}
+	
+	public int getMaxConcurrentUploads() {
+		return RemoteRepoSync.getUploadConcurrency();
+	}
+	
+	public int getMaxConcurrentDownloads() {
+		return RemoteRepoSync.getCheckoutConcurrency();
+	}
+	
+	public void abortCommit(CommitSession cs) throws IOException {
+		Objects.requireNonNull(cs,"commitSession");
+		SolderRestClient.abortCommit(cs, getRestClient());
+	}
 	
 	public SCommitInfo uploadCommit(CommitSession cs,File fileCommit) throws IOException {
 		
@@ -133,7 +656,8 @@ public class RestRepoFileService implements IRepoFileService {
 		Validator.checkFile(fileCommit, "Commit File");
 		String digest = SolderEntry.computeDigest(fileCommit);
 		
-		SCommitInfo scommit = SolderRestClient.uploadCommit(cs, fileCommit,digest, getRestClient());
+		SCommitInfo scommit = SolderRestClient.uploadCommit(cs, fileCommit,digest, getRestClient(),
+				isDeflateUpload(fileCommit, 0L, fileCommit.length()));
 		return Objects.requireNonNull(scommit,"scommit after upload");
 	}
 	
@@ -0,0 +1,337 @@
+package org.solder.rest.solder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.ee.rest.RestException;
+import com.jnk.util.CompareUtils;
+
+/**
+ * Dirty path journal kept under .solder by an optional filesystem watcher.
+ * <p>
+ * The watcher ({@link #watch(File, BooleanSupplier)}) holds {@value #JOURNAL_LOCK} and appends one rel path per
+ * change to {@value #JOURNAL}, starting with a {@code !START id} line. After each local commit the repo writes
+ * {@value #JOURNAL_MARK} (journal id, offset, commitId, chash). A push then only needs the paths journaled after
+ * the mark. Any doubt (no live watcher, overflow, watcher restart, mark for another commit) means full scan.
+ */
+public class SChangeJournal {
+
+	private static Log LOG = LogFactory.getLog(SChangeJournal.class.getName());
+
+	public static final String JOURNAL = "sjournal";
+	public static final String JOURNAL_MARK = "sjournal.mark";
+	public static final String JOURNAL_LOCK = "sjournal.lock";
+
+	static final String LINE_START = "!START";
+	static final String LINE_OVERFLOW = "!OVERFLOW";
+
+	/** Journal position taken before a scan; becomes the mark once the scan result is committed. */
+	public static class Snapshot {
+		final String journalId;
+		final long offset;
+
+		Snapshot(String journalId, long offset) {
+			this.journalId = journalId;
+			this.offset = offset;
+		}
+	}
+
+	/** Paths changed since the mark (files and/or directories, '/' separated). */
+	public static class Dirty {
+		final Set<String> setPath;
+		final Snapshot snapshot;
+
+		Dirty(Set<String> setPath, Snapshot snapshot) {
+			this.setPath = setPath;
+			this.snapshot = snapshot;
+		}
+
+		public Set<String> getPaths() {
+			return setPath;
+		}
+
+		/** True if relPath or one of its parent directories was journaled. */
+		public boolean isDirty(String relPath) {
+			if (setPath.contains(relPath)) {
+				return true;
+			}
+			for (int i = relPath.lastIndexOf('/'); i > 0; i = relPath.lastIndexOf('/', i - 1)) {
+				if (setPath.contains(relPath.substring(0, i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static boolean isWatcherAlive(File fileDotSolder) {
+		File fileLock = new File(fileDotSolder, JOURNAL_LOCK);
+		if (!fileLock.exists()) {
+			return false;
+		}
+		try (FileChannel fc = FileChannel.open(fileLock.toPath(), StandardOpenOption.WRITE)) {
+			FileLock lock = fc.tryLock();
+			if (lock == null) {
+				return true;
+			}
+			lock.release();
+			return false;
+		} catch (OverlappingFileLockException e) {
+			// Watcher runs inside this JVM.
+			return true;
+		} catch (IOException e) {
+			LOG.info(String.format("Journal lock check failed; assuming no watcher: %s", e.toString()));
+			return false;
+		}
+	}
+
+	static String readJournalId(RandomAccessFile raf) throws IOException {
+		raf.seek(0L);
+		String stFirst = raf.readLine();
+		if (stFirst == null || !stFirst.startsWith(LINE_START + " ")) {
+			return null;
+		}
+		return stFirst.substring(LINE_START.length() + 1).trim();
+	}
+
+	/**
+	 * Current journal position or null if there is no live watcher.
+	 */
+	public static Snapshot snapshot(File fileDotSolder) throws IOException {
+		File fileJournal = new File(fileDotSolder, JOURNAL);
+		if (!fileJournal.exists() || !isWatcherAlive(fileDotSolder)) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(fileJournal, "r")) {
+			String journalId = readJournalId(raf);
+			return journalId != null ? new Snapshot(journalId, raf.length()) : null;
+		}
+	}
+
+	/**
+	 * Paths changed since the mark written for (commitId,chash), or null when a full scan is required.
+	 */
+	public static Dirty readDirty(File fileDotSolder, int commitId, String chash) throws IOException {
+		File fileJournal = new File(fileDotSolder, JOURNAL);
+		File fileMark = new File(fileDotSolder, JOURNAL_MARK);
+		if (!fileJournal.exists() || !fileMark.exists()) {
+			LOG.info("No change journal/mark; full scan");
+			return null;
+		}
+		if (!isWatcherAlive(fileDotSolder)) {
+			LOG.info("Change journal watcher not running; full scan");
+			return null;
+		}
+
+		String[] aMark = FileUtils.readFileToString(fileMark, StandardCharsets.UTF_8).trim().split(" ");
+		if (aMark.length != 4) {
+			LOG.info("Bad change journal mark; full scan");
+			return null;
+		}
+		String markJournalId = aMark[0];
+		long markOffset = Long.parseLong(aMark[1]);
+		int markCommitId = Integer.parseInt(aMark[2]);
+		String markCHash = aMark[3];
+		if (markCommitId != commitId || !CompareUtils.stringEquals(markCHash, chash)) {
+			LOG.info(String.format("Change journal mark for commit %d(%s); local is %d(%s); full scan", markCommitId,
+					markCHash, commitId, chash));
+			return null;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(fileJournal, "r")) {
+			String journalId = readJournalId(raf);
+			long len = raf.length();
+			if (!CompareUtils.stringEquals(journalId, markJournalId) || markOffset > len) {
+				LOG.info(String.format("Change journal restarted (id=%s mark=%s); full scan", journalId, markJournalId));
+				return null;
+			}
+			byte[] aB = new byte[(int) (len - markOffset)];
+			raf.seek(markOffset);
+			raf.readFully(aB);
+
+			Set<String> setPath = new LinkedHashSet<>();
+			for (String stLine : new String(aB, StandardCharsets.UTF_8).split("\n")) {
+				if (stLine.isEmpty()) {
+					continue;
+				}
+				if (stLine.startsWith("!")) {
+					LOG.info(String.format("Change journal has %s since mark; full scan", stLine));
+					return null;
+				}
+				setPath.add(stLine);
+			}
+			LOG.info(String.format("Change journal: %d dirty paths since offset %d", setPath.size(), markOffset));
+			return new Dirty(setPath, new Snapshot(journalId, len));
+		}
+	}
+
+	/**
+	 * Records that the local repo state (commitId,chash) includes every change journaled before the snapshot.
+	 * A null snapshot removes the mark.
+	 */
+	public static void writeMark(File fileDotSolder, Snapshot snapshot, int commitId, String chash) throws IOException {
+		File fileMark = new File(fileDotSolder, JOURNAL_MARK);
+		if (snapshot == null) {
+			Files.deleteIfExists(fileMark.toPath());
+			return;
+		}
+		File fileTmp = new File(fileDotSolder, JOURNAL_MARK + ".tmp");
+		FileUtils.writeStringToFile(fileTmp,
+				String.format("%s %d %d %s", snapshot.journalId, snapshot.offset, commitId, chash),
+				StandardCharsets.UTF_8);
+		Files.move(fileTmp.toPath(), fileMark.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+				java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Watches the local repo tree until fStop returns true. Restarting the watcher starts a new journal, so the
+	 * first push after a restart does a full scan. A directory that cannot be watched stops the watcher, since the
+	 * journal would otherwise miss its changes; the journal is closed with an overflow line and pushes scan fully.
+	 */
+	public static void watch(File fileRoot, BooleanSupplier fStop) throws IOException {
+		Objects.requireNonNull(fStop, "stop");
+		SLocalRepo.checkLocalRepoExists(fileRoot);
+		Path pathRoot = fileRoot.getAbsoluteFile().toPath();
+		File fileDotSolder = new File(fileRoot, SLocalRepo.SOLDER_LOCAL_DIR);
+
+		FileChannel fcLock = FileChannel.open(new File(fileDotSolder, JOURNAL_LOCK).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		OutputStream os = null;
+		WatchService ws = null;
+		try {
+			FileLock lock = fcLock.tryLock();
+			if (lock == null) {
+				throw new RestException("Another watcher is running for " + fileRoot.getAbsolutePath());
+			}
+			String journalId = System.currentTimeMillis() + "-" + ProcessHandle.current().pid();
+			os = new FileOutputStream(new File(fileDotSolder, JOURNAL), false);
+			os.write(String.format("%s %s\n", LINE_START, journalId).getBytes(StandardCharsets.UTF_8));
+			os.flush();
+
+			ws = FileSystems.getDefault().newWatchService();
+			Map<WatchKey, Path> mapKey = new HashMap<>();
+			register(ws, mapKey, pathRoot);
+			LOG.info(String.format("Watching %s (%d dirs) journal=%s", pathRoot, mapKey.size(), journalId));
+
+			StringBuilder sb = new StringBuilder();
+			while (!fStop.getAsBoolean()) {
+				WatchKey key;
+				try {
+					key = ws.poll(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (key == null) {
+					continue;
+				}
+				Path pathDir = mapKey.get(key);
+				sb.setLength(0);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW || pathDir == null) {
+						sb.append(LINE_OVERFLOW).append('\n');
+						continue;
+					}
+					Path pathChild = pathDir.resolve((Path) event.context());
+					String stRel = pathRoot.relativize(pathChild).toString().replace('\\', '/');
+					if (stRel.equals(SLocalRepo.SOLDER_LOCAL_DIR) || stRel.startsWith(SLocalRepo.SOLDER_LOCAL_DIR + "/")) {
+						continue;
+					}
+					if (SLocalRepo.isCheckoutTemp(stRel)) {
+						// Renamed into place by the checkout; the target's own event is journaled.
+						continue;
+					}
+					if (stRel.indexOf('\n') >= 0) {
+						sb.append(LINE_OVERFLOW).append('\n');
+						continue;
+					}
+					sb.append(stRel).append('\n');
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(pathChild)) {
+						// Files created before the registration are covered by the directory line.
+						try {
+							register(ws, mapKey, pathChild);
+						} catch (IOException e) {
+							sb.append(LINE_OVERFLOW).append('\n');
+							os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+							os.flush();
+							throw new RestException(String.format("Unable to watch %s; stopping watcher: %s", pathChild,
+									e.toString()));
+						}
+					}
+				}
+				if (!key.reset()) {
+					// Directory gone; its own delete event was journaled by the parent.
+					mapKey.remove(key);
+				}
+				if (sb.length() > 0) {
+					os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+					os.flush();
+				}
+			}
+			LOG.info(String.format("Stopped watching %s", pathRoot));
+		} finally {
+			IOUtils.closeQuietly(ws, os, fcLock);
+		}
+	}
+
+	/**
+	 * Registers pathStart and every directory below it. A directory deleted before it is registered is skipped: its
+	 * delete is journaled by the parent. Any other failure is thrown.
+	 */
+	static void register(WatchService ws, Map<WatchKey, Path> mapKey, Path pathStart) throws IOException {
+		Files.walkFileTree(pathStart, new SimpleFileVisitor<Path>() {
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (dir.getFileName() != null && dir.getFileName().toString().equals(SLocalRepo.SOLDER_LOCAL_DIR)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key;
+				try {
+					key = dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+							StandardWatchEventKinds.ENTRY_MODIFY);
+				} catch (NoSuchFileException e) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				mapKey.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if (e instanceof NoSuchFileException) {
+					return FileVisitResult.CONTINUE;
+				}
+				throw e;
+			}
+		});
+	}
+}
@@ -114,6 +114,13 @@ public class SCommitInfo implements ISerializable, Comparable<SCommitInfo> {
 		return chash;
 	}
 	
+	/**
+	 * Commit hash known only after pending digests were resolved by the uploads.
+	 */
+	public void setCHash(String chash) {
+		this.chash = chash;
+	}
+
 	public int getPrevId() {
 		return idPrev;
 	}
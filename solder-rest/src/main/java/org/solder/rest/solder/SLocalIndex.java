@@ -0,0 +1,461 @@
+package org.solder.rest.solder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.ee.rest.RestException;
+import com.jnk.util.PrintUtils;
+
+/**
+ * Binary, memory mapped local index of {@link SolderEntry} (LDIR_VERSION 3).
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header : magic(4) version(4)
+ * record*: vint shared, vint suffixLen, suffix(utf8),
+ *          type(1) mod(8) size(8) blobFsId(8) commitId(4) fastHashAlgo(1) fastHash(8) digestLen(1) digest(raw),
+ *          vint nChunk, chunk*: size(8) blobFsId(8) digestLen(1) digest(raw)
+ * restart: long offset per RESTART_INTERVAL records (record with shared=0)
+ * footer : restartOffset(8) nRestart(4) nEntries(4) restartInterval(4) version(4) magic(4)
+ * </pre>
+ * Records are sorted by rel path. Lookups binary search the restart points and
+ * scan at most RESTART_INTERVAL records, so nothing is materialized up front.
+ * Index files are immutable: each local commit writes a new generation.
+ * Chunk offsets are not stored (each chunk starts where the previous one ends).
+ */
+public class SLocalIndex {
+
+	private static Log LOG = LogFactory.getLog(SLocalIndex.class.getName());
+
+	static final int MAGIC = 0x534C4958; // SLIX
+	static final int INDEX_VERSION = 1;
+	static final int RESTART_INTERVAL = 16;
+	static final int HEADER_SIZE = 8;
+	static final int FOOTER_SIZE = 28;
+
+	// type(1) mod(8) size(8) blobFsId(8) commitId(4) fastHashAlgo(1) fastHash(8) digestLen(1)
+	static final int FIXED_SIZE = 39;
+	static final int OFF_MOD = 1;
+	static final int OFF_SIZE = 9;
+	static final int OFF_BLOB_FSID = 17;
+	static final int OFF_COMMIT_ID = 25;
+	static final int OFF_FAST_HASH_ALGO = 29;
+	static final int OFF_FAST_HASH = 30;
+	static final int OFF_DIGEST_LEN = 38;
+	// size(8) blobFsId(8) digestLen(1)
+	static final int CHUNK_FIXED_SIZE = 17;
+
+	static final ValueLayout.OfInt INT_BE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+	static final ValueLayout.OfLong LONG_BE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * Writes entries (must be sorted by rel path) and syncs the file.
+	 *
+	 * @return number of entries written.
+	 */
+	public static int write(File file, Iterable<SolderEntry> entries) throws IOException {
+		Objects.requireNonNull(file, "index file");
+		Objects.requireNonNull(entries, "entries");
+
+		long[] aRestart = new long[16];
+		int nRestart = 0;
+		int nEntries = 0;
+		long pos = 0L;
+		byte[] aBPrev = new byte[0];
+		String stPrev = null;
+		ByteBuffer bb = ByteBuffer.allocate(512).order(ByteOrder.BIG_ENDIAN);
+
+		FileOutputStream fos = new FileOutputStream(file);
+		BufferedOutputStream os = new BufferedOutputStream(fos, 64 * 1024);
+		try {
+			bb.clear();
+			bb.putInt(MAGIC).putInt(INDEX_VERSION);
+			os.write(bb.array(), 0, bb.position());
+			pos += bb.position();
+
+			for (SolderEntry se : entries) {
+				String stPath = se.getRelPath();
+				if (stPrev != null && stPrev.compareTo(stPath) >= 0) {
+					throw new RestException(String.format("Index entries not sorted; %s after %s", stPath, stPrev));
+				}
+				byte[] aBPath = stPath.getBytes(StandardCharsets.UTF_8);
+				byte[] aBDigest = se.getDigest() != null ? PrintUtils.fromHexString(se.getDigest()) : new byte[0];
+				if (aBDigest.length > 255) {
+					throw new RestException("Digest too long for " + stPath);
+				}
+
+				int shared = 0;
+				if (nEntries % RESTART_INTERVAL == 0) {
+					if (nRestart == aRestart.length) {
+						aRestart = Arrays.copyOf(aRestart, nRestart * 2);
+					}
+					aRestart[nRestart++] = pos;
+				} else {
+					int max = Math.min(aBPrev.length, aBPath.length);
+					while (shared < max && aBPrev[shared] == aBPath[shared]) {
+						shared++;
+					}
+				}
+				int suffixLen = aBPath.length - shared;
+
+				SolderChunk[] aChunk = se.getChunks();
+				int nChunk = aChunk != null ? aChunk.length : 0;
+				int need = 10 + 10 + suffixLen + FIXED_SIZE + aBDigest.length + 5 + nChunk * (CHUNK_FIXED_SIZE + 255);
+				if (bb.capacity() < need) {
+					bb = ByteBuffer.allocate(need * 2).order(ByteOrder.BIG_ENDIAN);
+				}
+				bb.clear();
+				putVInt(bb, shared);
+				putVInt(bb, suffixLen);
+				bb.put(aBPath, shared, suffixLen);
+				bb.put((byte) se.getType().type);
+				bb.putLong(se.getLastModified());
+				bb.putLong(se.getSize());
+				bb.putLong(se.getBlobFsId());
+				bb.putInt(se.getCommitId());
+				bb.put((byte) se.getFastHashAlgo());
+				bb.putLong(se.getFastHash());
+				bb.put((byte) aBDigest.length);
+				bb.put(aBDigest);
+				putVInt(bb, nChunk);
+				for (int i = 0; i < nChunk; i++) {
+					byte[] aBChunkDigest = PrintUtils.fromHexString(aChunk[i].getDigest());
+					if (aBChunkDigest.length > 255) {
+						throw new RestException("Chunk digest too long for " + stPath);
+					}
+					bb.putLong(aChunk[i].getSize());
+					bb.putLong(aChunk[i].getBlobFsId());
+					bb.put((byte) aBChunkDigest.length);
+					bb.put(aBChunkDigest);
+				}
+				os.write(bb.array(), 0, bb.position());
+				pos += bb.position();
+
+				aBPrev = aBPath;
+				stPrev = stPath;
+				nEntries++;
+			}
+
+			long restartOffset = pos;
+			for (int i = 0; i < nRestart; i++) {
+				bb.clear();
+				bb.putLong(aRestart[i]);
+				os.write(bb.array(), 0, bb.position());
+			}
+			bb.clear();
+			bb.putLong(restartOffset).putInt(nRestart).putInt(nEntries).putInt(RESTART_INTERVAL).putInt(INDEX_VERSION)
+					.putInt(MAGIC);
+			os.write(bb.array(), 0, bb.position());
+			os.flush();
+			fos.getFD().sync();
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+		LOG.debug(String.format("Wrote local index %s nEntries=%d len=%,d", file.getName(), nEntries, file.length()));
+		return nEntries;
+	}
+
+	static void putVInt(ByteBuffer bb, int i) {
+		while ((i & ~0x7F) != 0) {
+			bb.put((byte) ((i & 0x7F) | 0x80));
+			i >>>= 7;
+		}
+		bb.put((byte) i);
+	}
+
+	public static SLocalIndex open(File file) throws IOException {
+		return new SLocalIndex(file);
+	}
+
+	final File file;
+	final MemorySegment seg;
+	final long restartOffset;
+	final int nRestart, nEntries, restartInterval;
+	final int version;
+
+	private SLocalIndex(File file) throws IOException {
+		this.file = Objects.requireNonNull(file, "index file");
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long len = fc.size();
+			if (len < HEADER_SIZE + FOOTER_SIZE) {
+				throw new RestException(String.format("Local index %s too short (len=%d)", file.getName(), len));
+			}
+			// Auto arena: unmapped once unreachable. Index files are never overwritten (new generation per commit).
+			seg = fc.map(MapMode.READ_ONLY, 0L, len, Arena.ofAuto());
+		} finally {
+			IOUtils.closeQuietly(fc);
+		}
+
+		long footer = seg.byteSize() - FOOTER_SIZE;
+		if (seg.get(INT_BE, 0L) != MAGIC || seg.get(INT_BE, footer + 24) != MAGIC) {
+			throw new RestException("Bad local index magic " + file.getName());
+		}
+		version = seg.get(INT_BE, footer + 20);
+		if (version != INDEX_VERSION || seg.get(INT_BE, 4L) != version) {
+			throw new RestException("Unknown local index version " + version + "; expect=" + INDEX_VERSION);
+		}
+		restartOffset = seg.get(LONG_BE, footer);
+		nRestart = seg.get(INT_BE, footer + 8);
+		nEntries = seg.get(INT_BE, footer + 12);
+		restartInterval = seg.get(INT_BE, footer + 16);
+		if (restartOffset + (long) nRestart * 8L != footer || restartInterval <= 0) {
+			throw new RestException("Corrupt local index footer " + file.getName());
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int size() {
+		return nEntries;
+	}
+
+	/** Reusable decode state; key holds the full utf8 path of the current record. */
+	final class Cursor {
+		long off;
+		long offFixed;
+		long offChunk;
+		int index;
+		byte[] aBKey = new byte[128];
+		int keyLen;
+
+		Cursor(int restart) {
+			off = seg.get(LONG_BE, restartOffset + (long) restart * 8L);
+			index = restart * restartInterval;
+			keyLen = 0;
+		}
+
+		boolean hasNext() {
+			return index < nEntries;
+		}
+
+		void next() {
+			int shared = readVInt();
+			int suffixLen = readVInt();
+			if (shared > keyLen) {
+				throw new IllegalStateException("Corrupt local index record " + index + " in " + file.getName());
+			}
+			keyLen = shared + suffixLen;
+			if (aBKey.length < keyLen) {
+				aBKey = Arrays.copyOf(aBKey, keyLen * 2);
+			}
+			MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, off, aBKey, shared, suffixLen);
+			off += suffixLen;
+			offFixed = off;
+			int digestLen = seg.get(ValueLayout.JAVA_BYTE, offFixed + OFF_DIGEST_LEN) & 0xFF;
+			off = offFixed + FIXED_SIZE + digestLen;
+			offChunk = off;
+			int nChunk = readVInt();
+			for (int i = 0; i < nChunk; i++) {
+				off += CHUNK_FIXED_SIZE + (seg.get(ValueLayout.JAVA_BYTE, off + 16) & 0xFF);
+			}
+			index++;
+		}
+
+		int readVInt() {
+			int i = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = seg.get(ValueLayout.JAVA_BYTE, off++);
+				i |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return i;
+		}
+
+		String key() {
+			return new String(aBKey, 0, keyLen, StandardCharsets.UTF_8);
+		}
+
+		SolderEntry entry() {
+			SolderEntry se = new SolderEntry();
+			se.stRelPath = key();
+			se.etype = SolderEntry.getEntryTypeEnum(seg.get(ValueLayout.JAVA_BYTE, offFixed));
+			se.tModified = seg.get(LONG_BE, offFixed + OFF_MOD);
+			se.size = seg.get(LONG_BE, offFixed + OFF_SIZE);
+			se.blobFsId = seg.get(LONG_BE, offFixed + OFF_BLOB_FSID);
+			se.commitId = seg.get(INT_BE, offFixed + OFF_COMMIT_ID);
+			se.fastHashAlgo = seg.get(ValueLayout.JAVA_BYTE, offFixed + OFF_FAST_HASH_ALGO) & 0xFF;
+			se.fastHash = seg.get(LONG_BE, offFixed + OFF_FAST_HASH);
+			int digestLen = seg.get(ValueLayout.JAVA_BYTE, offFixed + OFF_DIGEST_LEN) & 0xFF;
+			if (digestLen > 0) {
+				byte[] aBDigest = new byte[digestLen];
+				MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, offFixed + FIXED_SIZE, aBDigest, 0, digestLen);
+				se.digest = PrintUtils.toHexString(aBDigest);
+			}
+			se.aChunk = chunks();
+			return se;
+		}
+
+		SolderChunk[] chunks() {
+			long offNext = off;
+			off = offChunk;
+			try {
+				int nChunk = readVInt();
+				if (nChunk == 0) {
+					return null;
+				}
+				SolderChunk[] aChunk = new SolderChunk[nChunk];
+				long offData = 0L;
+				for (int i = 0; i < nChunk; i++) {
+					SolderChunk sc = new SolderChunk();
+					sc.off = offData;
+					sc.size = seg.get(LONG_BE, off);
+					sc.blobFsId = seg.get(LONG_BE, off + 8);
+					int digestLen = seg.get(ValueLayout.JAVA_BYTE, off + 16) & 0xFF;
+					byte[] aBDigest = new byte[digestLen];
+					MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, off + CHUNK_FIXED_SIZE, aBDigest, 0, digestLen);
+					sc.digest = PrintUtils.toHexString(aBDigest);
+					off += CHUNK_FIXED_SIZE + digestLen;
+					offData += sc.size;
+					aChunk[i] = sc;
+				}
+				return aChunk;
+			} finally {
+				off = offNext;
+			}
+		}
+	}
+
+	String restartKey(int restart) {
+		Cursor c = new Cursor(restart);
+		c.next();
+		return c.key();
+	}
+
+	/**
+	 * Positions a cursor on relPath or returns null.
+	 */
+	Cursor seek(String relPath) {
+		if (nEntries == 0 || relPath == null) {
+			return null;
+		}
+		// Largest restart whose first key <= relPath.
+		int lo = 0, hi = nRestart - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = restartKey(mid).compareTo(relPath);
+			if (cmp == 0) {
+				found = mid;
+				break;
+			} else if (cmp < 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found < 0) {
+			return null;
+		}
+		Cursor c = new Cursor(found);
+		for (int i = 0; i < restartInterval && c.hasNext(); i++) {
+			c.next();
+			int cmp = c.key().compareTo(relPath);
+			if (cmp == 0) {
+				return c;
+			} else if (cmp > 0) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	public SolderEntry get(String relPath) {
+		Cursor c = seek(relPath);
+		return c != null ? c.entry() : null;
+	}
+
+	public Iterator<SolderEntry> iterator() {
+		return new Iterator<SolderEntry>() {
+			Cursor c = nEntries > 0 ? new Cursor(0) : null;
+
+			public boolean hasNext() {
+				return c != null && c.hasNext();
+			}
+
+			public SolderEntry next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				c.next();
+				return c.entry();
+			}
+		};
+	}
+
+	/**
+	 * Read only map view (sorted by rel path) backed by the index.
+	 */
+	public Map<String, SolderEntry> asMap() {
+		return new IndexMap();
+	}
+
+	final class IndexMap extends AbstractMap<String, SolderEntry> {
+
+		public SolderEntry get(Object key) {
+			return key instanceof String st ? SLocalIndex.this.get(st) : null;
+		}
+
+		public boolean containsKey(Object key) {
+			return key instanceof String st && seek(st) != null;
+		}
+
+		public int size() {
+			return nEntries;
+		}
+
+		public Set<Map.Entry<String, SolderEntry>> entrySet() {
+			return new AbstractSet<Map.Entry<String, SolderEntry>>() {
+				public Iterator<Map.Entry<String, SolderEntry>> iterator() {
+					Iterator<SolderEntry> iter = SLocalIndex.this.iterator();
+					return new Iterator<Map.Entry<String, SolderEntry>>() {
+						public boolean hasNext() {
+							return iter.hasNext();
+						}
+
+						public Map.Entry<String, SolderEntry> next() {
+							SolderEntry se = iter.next();
+							return new AbstractMap.SimpleImmutableEntry<>(se.getRelPath(), se);
+						}
+					};
+				}
+
+				public int size() {
+					return nEntries;
+				}
+			};
+		}
+	}
+
+	public String toString() {
+		return String.format("SLocalIndex %s v%d nEntries=%d nRestart=%d len=%,d", file.getName(), version, nEntries,
+				nRestart, seg.byteSize());
+	}
+}
@@ -3,12 +3,19 @@ package org.solder.rest.solder;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.function.IOConsumer;
@@ -16,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.solder.rest.solder.SolderEntry.EntryType;
+import org.solder.rest.util.BoundedTasks;
 
 import com.beech.bfs.BeechException;
 import com.beech.bfs.BeechFS;
@@ -30,9 +38,7 @@ import com.jnk.util.Validator;
 import com.jnk.util.Validator.Rules;
 import com.lnk.lucene.io.LDirectory;
 import com.lnk.lucene.util.LogJsonDecoder;
-import com.lnk.lucene.util.LogJsonEncoder;
 import com.lnk.serializer.JsonDecoder;
-import com.lnk.serializer.JsonEncoder;
 
 public class SLocalRepo {
 	
@@ -40,10 +46,72 @@ public class SLocalRepo {
 	
 	public static final String SOLDER_LOCAL_DIR = ".solder";
 	public static final String SOLDER_LOCAL_REPO = "slrepo";
+	/** Resumable partial downloads of large blobs (under SOLDER_LOCAL_DIR, so scans skip them). */
+	public static final String SOLDER_PARTIAL_DIR = "partial";
 	public static final String LDIR_ROOT = "sl";
 	public static final int LDIR_VERSION_1 = 1;
-	public static final int LDIR_VERSION = 2;
+	public static final int LDIR_VERSION_2 = 2;
+	/** Entries live in a binary SLocalIndex file (generation named) next to slrepo. */
+	public static final int LDIR_VERSION = 3;
+	public static final String SOLDER_LOCAL_INDEX_PREFIX = "slindex.";
+
+	/**
+	 * Default cap on files digested concurrently by {@link #createEntryMap(Map)}.
+	 * SSDs benefit from more in-flight reads; use 1-2 for spinning disks.
+	 */
+	public static final int DEFAULT_DIGEST_CONCURRENCY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static volatile int s_digestConcurrency = DEFAULT_DIGEST_CONCURRENCY;
+
+	/**
+	 * New BLOB content of at least this size is not hashed by a push scan; the upload hashes it while sending.
+	 * Against a server that rejects digest pending uploads the entry is hashed and sent again the usual way.
+	 * Long.MAX_VALUE hashes everything up front.
+	 */
+	public static final long DEFAULT_DEFER_DIGEST_SIZE = 1L << 20;
+
+	private static volatile long s_deferDigestSize = DEFAULT_DEFER_DIGEST_SIZE;
+
+	public static long getDeferDigestSize() {
+		return s_deferDigestSize;
+	}
+
+	public static void setDeferDigestSize(long deferDigestSize) {
+		if (deferDigestSize <= 0L) {
+			throw new IllegalArgumentException("Invalid defer digest size " + deferDigestSize);
+		}
+		s_deferDigestSize = deferDigestSize;
+	}
+
+	/**
+	 * BLOBs of at least this size are pushed as content defined chunks (see {@link SolderChunk}), so an append or
+	 * small edit uploads only the changed chunks. Long.MAX_VALUE (default) keeps whole file BLOBs.
+	 */
+	public static final long DEFAULT_CHUNK_THRESHOLD = Long.MAX_VALUE;
+
+	private static volatile long s_chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+
+	public static long getChunkThreshold() {
+		return s_chunkThreshold;
+	}
+
+	public static void setChunkThreshold(long chunkThreshold) {
+		if (chunkThreshold <= 0L) {
+			throw new IllegalArgumentException("Invalid chunk threshold " + chunkThreshold);
+		}
+		s_chunkThreshold = chunkThreshold;
+	}
+
+	public static int getDigestConcurrency() {
+		return s_digestConcurrency;
+	}
 
+	public static void setDigestConcurrency(int nConcurrent) {
+		if (nConcurrent <= 0) {
+			throw new IllegalArgumentException("Invalid digest concurrency " + nConcurrent);
+		}
+		s_digestConcurrency = nConcurrent;
+	}
 	
 
 	static String getLocalRepoCommitPath() {
@@ -51,6 +119,10 @@ public class SLocalRepo {
 		return String.format("%s/%s", SOLDER_LOCAL_DIR, SOLDER_LOCAL_REPO);
 	}
 
+	File getPartialDir() {
+		return new File(fileRoot, String.format("%s/%s", SOLDER_LOCAL_DIR, SOLDER_PARTIAL_DIR));
+	}
+
 	static LDirectory getLDirectory(BeechFS fs, String dirRoot, Mode mode, IOConsumer<BeechFS> onClose)
 			throws IOException {
 
@@ -93,6 +165,13 @@ public class SLocalRepo {
 	Map<String, SolderEntry> mapEntry;
 	String stCommitDirRelPath;
 
+	// Index generation referenced by lcommit (0 = none yet).
+	long indexGen = 0L;
+	SLocalIndex lindex;
+
+	// Change journal position taken by the last createEntryMap; written as the journal mark on commit.
+	SChangeJournal.Snapshot journalSnapshot;
+
 	boolean fDirty = false;
 
 	BeechLCommit lcommit;
@@ -201,7 +280,14 @@ public class SLocalRepo {
 			ldir = getLDirectory();
 		}
 
-		SolderEntry[] aSolderEntry = mapEntry.values().toArray(EMPTY_ARRAY);
+		// New generation each commit: a mapped index file is never overwritten, and lcommit
+		// only points at it once it is fully written and synced.
+		long indexGenNew = indexGen + 1;
+		File fileIndexNew = getIndexFile(indexGenNew);
+		Files.deleteIfExists(fileIndexNew.toPath());
+		int nEntries = SLocalIndex.write(fileIndexNew, sortedEntries(mapEntry));
+		long lenIndex = fileIndexNew.length();
+		boolean fError = true;
 		try {
 			lcommit.commit(ldir, (out) -> {
 				out.writeVInt(LDIR_VERSION);
@@ -209,18 +295,91 @@ public class SLocalRepo {
 				out.writeString(stCommitDirRelPath);
 				out.writeInt(commitId);
 				out.writeString(chash);
-				String stEntries = LogJsonEncoder.getTL().serialize((je)->{
-					JsonEncoder.serialize(je, () -> {
-						je.writeObjectArray("entries", aSolderEntry, false);
-					});
-				});
-				out.writeString(stEntries);
+				out.writeLong(indexGenNew);
+				out.writeLong(lenIndex);
+				out.writeInt(nEntries);
 			});
+			fError = false;
 		} finally {
 			IOUtils.closeQuietly(ldir);
 			ldir = null;
+			if (fError) {
+				fileIndexNew.delete();
+			}
 		}
+		indexGen = indexGenNew;
+		lindex = null;
+		removeStaleIndexFiles();
 		fDirty = false;
+		try {
+			SChangeJournal.writeMark(fileCommitLocalRepo.getParentFile(), journalSnapshot, commitId, chash);
+		} catch (IOException e) {
+			// Journal is only an accelerator: without a mark the next push does a full scan.
+			LOG.warn(String.format("Unable to write change journal mark: %s", e.toString()));
+			new File(fileCommitLocalRepo.getParentFile(), SChangeJournal.JOURNAL_MARK).delete();
+		}
+		journalSnapshot = null;
+	}
+
+	File getIndexFile(long gen) {
+		return new File(fileCommitLocalRepo.getParentFile(), SOLDER_LOCAL_INDEX_PREFIX + gen);
+	}
+
+	/**
+	 * Prior entries for {@link #createEntryMap(Map)}: the entry of first, else of second. A view, so an index backed
+	 * first map is looked up in place instead of being copied.
+	 */
+	static Map<String, SolderEntry> priorView(Map<String, SolderEntry> first, Map<String, SolderEntry> second) {
+		Objects.requireNonNull(first, "first");
+		Objects.requireNonNull(second, "second");
+		return new AbstractMap<String, SolderEntry>() {
+
+			public SolderEntry get(Object key) {
+				SolderEntry se = first.get(key);
+				return se != null ? se : second.get(key);
+			}
+
+			public boolean containsKey(Object key) {
+				return first.containsKey(key) || second.containsKey(key);
+			}
+
+			public Set<Map.Entry<String, SolderEntry>> entrySet() {
+				return new AbstractSet<Map.Entry<String, SolderEntry>>() {
+					public Iterator<Map.Entry<String, SolderEntry>> iterator() {
+						Stream<Map.Entry<String, SolderEntry>> stSecond = second.entrySet().stream()
+								.filter((e) -> !first.containsKey(e.getKey()));
+						return Stream.concat(first.entrySet().stream(), stSecond).iterator();
+					}
+
+					public int size() {
+						return (int) second.keySet().stream().filter((k) -> !first.containsKey(k)).count()
+								+ first.size();
+					}
+				};
+			}
+		};
+	}
+
+	static Iterable<SolderEntry> sortedEntries(Map<String, SolderEntry> map) {
+		if (map instanceof TreeMap || map instanceof SLocalIndex.IndexMap) {
+			return map.values();
+		}
+		return new TreeMap<>(map).values();
+	}
+
+	void removeStaleIndexFiles() {
+		String stCurrent = SOLDER_LOCAL_INDEX_PREFIX + indexGen;
+		File[] aFile = fileCommitLocalRepo.getParentFile()
+				.listFiles((f) -> f.getName().startsWith(SOLDER_LOCAL_INDEX_PREFIX) && !f.getName().equals(stCurrent));
+		if (aFile == null) {
+			return;
+		}
+		for (File file : aFile) {
+			// May still be mapped (Windows refuses the delete); picked up again by the next commit.
+			if (!file.delete()) {
+				LOG.debug(String.format("Unable to remove stale local index %s", file.getName()));
+			}
+		}
 	}
 
 	void loadLocalRepo() throws IOException {
@@ -240,7 +399,7 @@ public class SLocalRepo {
 			//AutoUpdate LCOmmit.
 			lcommitNew.load(ldir, (in) -> {
 				int version = in.readVInt();
-				if (version != LDIR_VERSION && version != LDIR_VERSION_1) {
+				if (version != LDIR_VERSION && version != LDIR_VERSION_2 && version != LDIR_VERSION_1) {
 					throw new BeechException("Unknown version " + version + "; expect=" + LDIR_VERSION);
 				}
 				fUpgrade.set(version!=LDIR_VERSION);
@@ -261,6 +420,27 @@ public class SLocalRepo {
 				commitId = in.readInt();
 				chash = in.readString();
 				
+				if (version == LDIR_VERSION) {
+					long gen = in.readLong();
+					long lenIndex = in.readLong();
+					int nEntries = in.readInt();
+					File fileIndex = getIndexFile(gen);
+					if (!fileIndex.exists() || fileIndex.length() != lenIndex) {
+						throw new BeechException(String.format("Local index %s missing or length mismatch (len=%d expect=%d)",
+								fileIndex.getName(), fileIndex.length(), lenIndex));
+					}
+					SLocalIndex lindexNew = SLocalIndex.open(fileIndex);
+					if (lindexNew.size() != nEntries) {
+						throw new BeechException(String.format("Local index %s nEntries=%d expect=%d",
+								fileIndex.getName(), lindexNew.size(), nEntries));
+					}
+					indexGen = gen;
+					lindex = lindexNew;
+					mapEntry = lindexNew.asMap();
+					return;
+				}
+				
+				// Versions 1 and 2: entries are one JSON blob (re-written as an index below).
 				String stEntries = in.readString();
 				LogJsonDecoder.getTL().readJson(stEntries, (jd) -> {
 					JsonDecoder.deserialize(jd, () -> {
@@ -290,68 +470,236 @@ public class SLocalRepo {
 		
 
 		// Spliterators.spliterator(aSegInfo,Spliterator.SIZED).
-		LOG.debug(String.format("LocalRepo(%s)-> nEntry=%d; entryRelPath={%s}", repoId, mapEntry.size(),
-				StringUtils.join(mapEntry.keySet(), ',')));
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("LocalRepo(%s)-> nEntry=%d; entryRelPath={%s}", repoId, mapEntry.size(),
+					StringUtils.join(mapEntry.keySet(), ',')));
+		}
 	}
 
 	
+	public static final String SOLDER_IGNORE = ".solderignore";
+
+	/** Suffixes of the files a checkout writes next to their targets before renaming them into place. */
+	static final String[] CHECKOUT_TEMP_SUFFIXES = { RemoteRepoSync.DOWNLOAD_SUFFIX,
+			RemoteRepoSync.CHUNK_ASSEMBLE_SUFFIX, BlobCache.CHECKOUT_SUFFIX };
+
+	/**
+	 * True for a checkout temp file: never part of the working tree (one left by a killed checkout is removed by
+	 * the next, {@link #removeCheckoutTemps()}).
+	 */
+	static boolean isCheckoutTemp(String name) {
+		for (String suffix : CHECKOUT_TEMP_SUFFIXES) {
+			if (name.endsWith(suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	FileFilter[] createScanFilters() throws IOException {
+		FileFilter ignoreFile = TFileUtil.createIgnoreFileFilter(fileRoot, SOLDER_IGNORE);
+		FileFilter dirFilter = f -> TFileUtil.ignoreDirectoryNames(SOLDER_LOCAL_DIR).accept(f) && ignoreFile.accept(f);
+		FileFilter fileFilter = f -> !isCheckoutTemp(f.getName()) && ignoreFile.accept(f);
+		return new FileFilter[] { fileFilter, dirFilter };
+	}
+
+	/**
+	 * Deletes checkout temp files left in the working tree by a killed or failed checkout.
+	 * 
+	 * @return files removed.
+	 */
+	public int removeCheckoutTemps() throws IOException {
+		FileFilter[] aFilter = createScanFilters();
+		int n = 0;
+		for (File file : TFileUtil.getAllFiles(fileRoot, f -> isCheckoutTemp(f.getName()), aFilter[1], true)) {
+			if (file.delete()) {
+				n++;
+			} else {
+				LOG.warn(String.format("Cannot remove stale checkout file %s", file.getAbsolutePath()));
+			}
+		}
+		if (n > 0) {
+			LOG.info(String.format("Removed %d stale checkout files from %s", n, fileRoot.getAbsolutePath()));
+		}
+		return n;
+	}
+
 	public Collection<File> scan() throws IOException{
 		// Put directory Filter...
-		
-		FileFilter ignoreFile = TFileUtil.createIgnoreFileFilter(fileRoot, ".solderignore");
-		FileFilter dirFilter = f -> TFileUtil.ignoreDirectoryNames(SOLDER_LOCAL_DIR).accept(f) && ignoreFile.accept(f);
-		FileFilter fileFilter = ignoreFile; // or and with another file filter
-		return TFileUtil.getAllFiles(fileRoot, fileFilter, dirFilter, true);
+		FileFilter[] aFilter = createScanFilters();
+		return TFileUtil.getAllFiles(fileRoot, aFilter[0], aFilter[1], true);
+	}
+
+	/**
+	 * Files under the journaled paths that a full scan would return, or null if the ignore rules changed.
+	 */
+	Collection<File> scanDirty(SChangeJournal.Dirty dirty) throws IOException {
+		FileFilter[] aFilter = createScanFilters();
+		Collection<File> collFile = new LinkedHashSet<>();
+		for (String path : dirty.getPaths()) {
+			if (path.equals(SOLDER_IGNORE) || path.endsWith("/" + SOLDER_IGNORE)) {
+				LOG.info(String.format("%s changed; full scan", path));
+				return null;
+			}
+			File file = relPath.resolve(path);
+			if (!isScanned(file, aFilter)) {
+				continue;
+			}
+			if (file.isDirectory()) {
+				collFile.addAll(TFileUtil.getAllFiles(file, aFilter[0], aFilter[1], true));
+			} else if (file.isFile()) {
+				collFile.add(file);
+			}
+		}
+		return collFile;
+	}
+
+	boolean isScanned(File file, FileFilter[] aFilter) {
+		File fileRootAbs = fileRoot.getAbsoluteFile();
+		if (!file.isDirectory() && !aFilter[0].accept(file)) {
+			return false;
+		}
+		for (File dir = file.isDirectory() ? file : file.getParentFile(); dir != null
+				&& !dir.equals(fileRootAbs); dir = dir.getParentFile()) {
+			if (!aFilter[1].accept(dir)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public Map<String, SolderEntry> createEntryMap(Map<String, SolderEntry> mapDotSolder) throws IOException {
+		return createEntryMap(mapDotSolder, false);
+	}
+
+	/**
+	 * @param fPush mapDotSolder is the entry map of this local commit and the result feeds a push: paths not in the
+	 *              change journal are taken from it without a stat (see {@link SChangeJournal}), and new BLOB content
+	 *              of at least {@link #getDeferDigestSize()} is left digest pending for the upload to hash
+	 *              (or chunked, if at least {@link #getChunkThreshold()}). Content sent as resumable parts
+	 *              ({@link RemoteRepoSync#getPartUploadMinSize()}) is digested here: a part upload needs its digest.
+	 */
+	public Map<String, SolderEntry> createEntryMap(Map<String, SolderEntry> mapDotSolder, boolean fPush)
+			throws IOException {
 		// Prior map may be empty but must be non-null (git-like: reuse digest when size+mtime match).
 		Objects.requireNonNull(mapDotSolder,"map dot solder");
 		Map<String, SolderEntry> mapEntriesNow = new TreeMap<>();
-		Collection<File> collFile = scan();
+
+		File fileDotSolderDir = fileCommitLocalRepo.getParentFile();
+		SChangeJournal.Dirty dirty = fPush ? SChangeJournal.readDirty(fileDotSolderDir, commitId, chash) : null;
+		Collection<File> collFile = dirty != null ? scanDirty(dirty) : null;
+		if (collFile != null) {
+			journalSnapshot = dirty.snapshot;
+			int nReuse = 0;
+			for (SolderEntry sePrev : mapDotSolder.values()) {
+				if (!dirty.isDirty(sePrev.getRelPath())) {
+					sePrev.setFile(relPath.resolve(sePrev.getRelPath()));
+					mapEntriesNow.put(sePrev.getRelPath(), sePrev);
+					nReuse++;
+				}
+			}
+			LOG.info(String.format("Journal scan: %d files to check, %d entries unchanged", collFile.size(), nReuse));
+		} else {
+			// Position taken before the walk: changes racing the walk stay after the mark.
+			journalSnapshot = SChangeJournal.snapshot(fileDotSolderDir);
+			collFile = scan();
+		}
 
 		String prefix = null;
 		if (stCommitDirRelPath != null && stCommitDirRelPath.length() > 0) {
 			prefix = stCommitDirRelPath + "/";
 		}
 
-		for (File file : collFile) {
-			String path = relPath.relativize(file.getAbsolutePath());
-			EntryType etype = (prefix == null || path.startsWith(prefix)) ? EntryType.COMMIT : EntryType.BLOB;
-			
-			SolderEntry sePrev = mapDotSolder.get(path);
-			SolderEntry sePrev2 = sePrev;
-			if (sePrev !=null) {
-				// Git-like racy-git avoidance lite: trust prior digest only when size+mtime+type match.
-				boolean fDiff = sePrev.size != file.length() || sePrev.tModified != file.lastModified() || etype != sePrev.etype;
-				if (fDiff) {
-					LOG.info(String.format(
-							"Rejecting previous entry; relpath=%s (size=%d,tModified=%d,type=%s) prev=(size=%d,tModified=%d,type=%s)",
-							path, file.length(), file.lastModified(), etype.name(), sePrev.size, sePrev.tModified,
-							sePrev.etype.name()));
-					// Attributes changed: must recompute full digest (do not reuse sePrev.digest).
-					sePrev = null;
-				} 
-			}
-			
-			SolderEntry se = new SolderEntry(path, etype, file, -1L, 0,sePrev);
-			// Size+type unchanged and content digest matches prior: only mtime drifted
-			// (common after checkout wrote content without restoring commit mtime).
-			// Restore mtime so the next scan can skip the full digest.
-			if (sePrev == null && sePrev2 != null && etype == sePrev2.etype && se.size == sePrev2.size
-					&& CompareUtils.stringEquals(se.digest, sePrev2.digest)) {
-				LOG.info(String.format("Repair %s modified date (want=%d, was=%d)", path, sePrev2.tModified,
-						file.lastModified()));
-				if (!file.setLastModified(sePrev2.tModified)) {
-					LOG.warn(String.format("setLastModified failed for %s", file.getAbsolutePath()));
-				}
-				// Use actual FS mtime (may be rounded); avoid recreate/verifyPrev mismatch.
-				se.tModified = file.lastModified();
+		// Paths are resolved serially; stat+digest of each file runs on the bounded digest pool.
+		// Each task owns its slot so the (sorted) result does not depend on completion order.
+		long deferDigestSize = fPush ? getDeferDigestSize() : Long.MAX_VALUE;
+		long chunkThreshold = fPush ? getChunkThreshold() : Long.MAX_VALUE;
+		long partUploadMinSize = RemoteRepoSync.getPartUploadMinSize();
+		String[] aPath = new String[collFile.size()];
+		SolderEntry[] aEntry = new SolderEntry[aPath.length];
+		try (BoundedTasks tasks = new BoundedTasks("SolderDigest", getDigestConcurrency())) {
+			int i = 0;
+			for (File file : collFile) {
+				String path = relPath.relativize(file.getAbsolutePath());
+				EntryType etype = (prefix == null || path.startsWith(prefix)) ? EntryType.COMMIT : EntryType.BLOB;
+				SolderEntry sePrev = mapDotSolder.get(path);
+				int slot = i++;
+				aPath[slot] = path;
+				tasks.submit(() -> {
+					aEntry[slot] = createEntry(path, etype, file, sePrev, deferDigestSize, partUploadMinSize,
+							chunkThreshold);
+				});
 			}
-			mapEntriesNow.put(path, se);
+			tasks.await();
+		}
+
+		for (int i = 0; i < aPath.length; i++) {
+			SolderEntry se = Objects.requireNonNull(aEntry[i], aPath[i]);
+			mapEntriesNow.put(aPath[i], se);
 			LOG.info(String.format("Collecting file %s", "" + se));
 		}
 		return mapEntriesNow;
 	}
 
+	/**
+	 * @param deferDigestSize new BLOB content of at least this size is left digest pending,
+	 * @param partUploadMinSize except from this size: part uploads are keyed by the digest.
+	 */
+	static SolderEntry createEntry(String path, EntryType etype, File file, SolderEntry sePrev, long deferDigestSize,
+			long partUploadMinSize, long chunkThreshold) throws IOException {
+		SolderEntry sePrev2 = sePrev;
+		if (sePrev !=null) {
+			// Git-like racy-git avoidance lite: trust prior digest only when size+mtime+type match.
+			boolean fDiff = sePrev.size != file.length() || sePrev.tModified != file.lastModified() || etype != sePrev.etype;
+			if (fDiff) {
+				LOG.info(String.format(
+						"Rejecting previous entry; relpath=%s (size=%d,tModified=%d,type=%s) prev=(size=%d,tModified=%d,type=%s)",
+						path, file.length(), file.lastModified(), etype.name(), sePrev.size, sePrev.tModified,
+						sePrev.etype.name()));
+				// Attributes changed: must recompute full digest (do not reuse sePrev.digest).
+				sePrev = null;
+			} 
+		}
+		
+		// Content known to be new (no prior, size changed or fast hash differs): SHA-256 may wait for the upload.
+		boolean fDefer = etype == EntryType.BLOB && file.length() >= deferDigestSize && file.length() < partUploadMinSize;
+		// Chunking reads the file anyway (it needs every cut point), so it takes precedence over deferring.
+		boolean fChunk = etype == EntryType.BLOB && file.length() >= chunkThreshold;
+		SolderEntry se;
+		if (sePrev == null && sePrev2 != null && etype == sePrev2.etype && file.length() == sePrev2.size) {
+			if (sePrev2.fastHashAlgo == SolderEntry.FAST_HASH_XXH64) {
+				// Same size: the fast hash decides whether content changed; SHA-256 only if it did.
+				long fastHash = SolderEntry.computeFastHash(file);
+				se = fastHash == sePrev2.fastHash ? SolderEntry.sameContent(path, etype, file, sePrev2)
+						: fChunk ? SolderEntry.chunked(path, etype, file, sePrev2)
+								: fDefer ? SolderEntry.pendingDigest(path, etype, file)
+										: new SolderEntry(path, etype, file, -1L, 0, null);
+			} else {
+				// No fast hash recorded: only SHA-256 can tell an mtime-only change.
+				se = fChunk ? SolderEntry.chunked(path, etype, file, sePrev2)
+						: new SolderEntry(path, etype, file, -1L, 0, null);
+			}
+		} else if (sePrev == null && fChunk) {
+			se = SolderEntry.chunked(path, etype, file, sePrev2);
+		} else if (sePrev == null && fDefer) {
+			se = SolderEntry.pendingDigest(path, etype, file);
+		} else {
+			se = new SolderEntry(path, etype, file, -1L, 0,sePrev);
+		}
+		// Size+type unchanged and content digest matches prior: only mtime drifted
+		// (common after checkout wrote content without restoring commit mtime).
+		// Restore mtime so the next scan can skip the full digest.
+		if (sePrev == null && sePrev2 != null && etype == sePrev2.etype && se.size == sePrev2.size
+				&& CompareUtils.stringEquals(se.digest, sePrev2.digest)) {
+			LOG.info(String.format("Repair %s modified date (want=%d, was=%d)", path, sePrev2.tModified,
+					file.lastModified()));
+			if (!file.setLastModified(sePrev2.tModified)) {
+				LOG.warn(String.format("setLastModified failed for %s", file.getAbsolutePath()));
+			}
+			// Use actual FS mtime (may be rounded); avoid recreate/verifyPrev mismatch.
+			se.tModified = file.lastModified();
+		}
+		return se;
+	}
+
 }
@@ -0,0 +1,158 @@
+package org.solder.rest.solder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.solder.rest.util.FastCDC;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.XXHash64;
+
+import com.ee.rest.RestException;
+import com.jnk.util.PrintUtils;
+import com.lnk.serializer.Decoder;
+import com.lnk.serializer.Encoder;
+import com.lnk.serializer.ISerializable;
+
+/**
+ * One content defined chunk of a chunked {@link SolderEntry}: the bytes [off, off+size) of the file,
+ * stored as its own BlobFS keyed (like whole files) by its SHA-256 digest.
+ */
+public class SolderChunk implements ISerializable {
+
+	static final SolderChunk[] EMPTY_SOLDER_CHUNK = new SolderChunk[0];
+
+	long off, size;
+	String digest;
+	long blobFsId = -1L;
+
+	public SolderChunk() {
+	}
+
+	SolderChunk(long off, long size, String digest) {
+		this.off = off;
+		this.size = size;
+		this.digest = digest;
+	}
+
+	/**
+	 * Splits the file with {@link FastCDC} in one read that also feeds the whole file to md and xxh.
+	 * Chunks whose digest is in sePrev keep its blobFsId (already stored).
+	 */
+	static SolderChunk[] chunkFile(File file, MessageDigest md, XXHash64 xxh, SolderEntry sePrev) throws IOException {
+		Objects.requireNonNull(file, "file");
+		Map<String, SolderChunk> mapPrev = new HashMap<>();
+		if (sePrev != null && sePrev.aChunk != null) {
+			for (SolderChunk sc : sePrev.aChunk) {
+				mapPrev.putIfAbsent(sc.digest, sc);
+			}
+		}
+
+		MessageDigest mdChunk;
+		try {
+			mdChunk = MessageDigest.getInstance(md.getAlgorithm());
+		} catch (Exception e) {
+			throw RestException.rethrowUnchecked(e);
+		}
+
+		List<SolderChunk> list = new ArrayList<>();
+		FastCDC cdc = new FastCDC();
+		byte[] aB = new byte[FileDigest.DIRECT_BUFFER_SIZE];
+		ByteBuffer bb = ByteBuffer.wrap(aB);
+		long offChunk = 0L, pos = 0L;
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			int n;
+			while ((n = fc.read(bb.clear())) >= 0) {
+				md.update(aB, 0, n);
+				xxh.update(aB, 0, n);
+				for (int i = 0; i < n;) {
+					int cut = cdc.next(aB, i, n - i);
+					int len = cut < 0 ? n - i : cut;
+					mdChunk.update(aB, i, len);
+					i += len;
+					pos += len;
+					if (cut >= 0) {
+						list.add(newChunk(offChunk, pos - offChunk, mdChunk, mapPrev));
+						offChunk = pos;
+					}
+				}
+			}
+		}
+		if (pos > offChunk) {
+			list.add(newChunk(offChunk, pos - offChunk, mdChunk, mapPrev));
+		}
+		return list.toArray(EMPTY_SOLDER_CHUNK);
+	}
+
+	static SolderChunk newChunk(long off, long size, MessageDigest mdChunk, Map<String, SolderChunk> mapPrev) {
+		SolderChunk sc = new SolderChunk(off, size, PrintUtils.toHexString(mdChunk.digest()));
+		SolderChunk scPrev = mapPrev.get(sc.digest);
+		if (scPrev != null && scPrev.size == size) {
+			sc.blobFsId = scPrev.blobFsId;
+		}
+		return sc;
+	}
+
+	/**
+	 * Upload view of this chunk: an entry for the chunk's byte range of owner's file.
+	 */
+	SolderEntry toUploadEntry(SolderEntry owner) {
+		SolderEntry se = new SolderEntry();
+		se.stRelPath = owner.stRelPath + "#" + off;
+		se.etype = owner.etype;
+		se.tModified = owner.tModified;
+		se.size = size;
+		se.digest = digest;
+		se.blobFsId = -1L;
+		se.commitId = owner.commitId;
+		se.file = owner.file;
+		se.rangeOff = off;
+		return se;
+	}
+
+	public void serialize(Encoder encoder) throws IOException {
+		encoder.writeLong("off", off);
+		encoder.writeLong("sz", size);
+		encoder.writeString("digest", digest);
+		encoder.writeLong("blob_fsid", blobFsId);
+	}
+
+	public void deserialize(Decoder decoder) throws IOException {
+		off = decoder.readLong("off");
+		size = decoder.readLong("sz");
+		digest = decoder.readString("digest");
+		blobFsId = decoder.readLong("blob_fsid");
+	}
+
+	public long getOffset() {
+		return off;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public long getBlobFsId() {
+		return blobFsId;
+	}
+
+	public void setBlobFsId(long blobFsId) {
+		this.blobFsId = blobFsId;
+	}
+
+	public String toString() {
+		return String.format("SolderChunk off=%d sz=%d digest=%s blobFsId=%d", off, size, digest, blobFsId);
+	}
+}
@@ -1,15 +1,12 @@
 package org.solder.rest.solder;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Objects;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
+import org.solder.rest.util.FileDigest;
+import org.solder.rest.util.XXHash64;
 
 import com.ee.rest.RestException;
 import com.jnk.util.CompareUtils;
@@ -73,20 +70,23 @@ public class SolderEntry implements ISerializable {
 		}
 	});
 
+	/** No fast hash recorded; change detection falls back to the SHA-256 digest. */
+	public static final int FAST_HASH_NONE = 0;
+	/** XXH64 (seed 0) over the whole content. */
+	public static final int FAST_HASH_XXH64 = 1;
+
+	public static long computeFastHash(File file) throws IOException {
+		XXHash64 xxh = new XXHash64();
+		FileDigest.digest(file, null, xxh);
+		return xxh.getValue();
+	}
+
 	public static String computeDigest(File file) throws IOException {
 
 		MessageDigest md = tlMessageDigest.get();
 		md.reset();
-		DigestOutputStream dos = new DigestOutputStream(NullOutputStream.INSTANCE, md);
-		InputStream is = new FileInputStream(file);
-		try {
-			IOUtils.copy(is, dos);
-			byte[] digest = md.digest();
-			return PrintUtils.toHexString(digest);
-		} finally {
-			IOUtils.closeQuietly(dos, is);
-		}
-
+		FileDigest.digest(file, md, null);
+		return PrintUtils.toHexString(md.digest());
 	}
 
 	
@@ -96,9 +96,16 @@ public class SolderEntry implements ISerializable {
 	String digest;
 	long blobFsId;
 	int commitId;
+	// Local change detection only (kept in SLocalIndex, not sent to the server).
+	int fastHashAlgo = FAST_HASH_NONE;
+	long fastHash;
+	// Chunked BLOB: content is stored per chunk (blobFsId unused), null for whole file BLOBs.
+	SolderChunk[] aChunk;
 
 	// Transient States.
 	File file;
+	// Upload of a byte range [rangeOff, rangeOff+size) of file (a chunk), -1 for the whole file.
+	long rangeOff = -1L;
 
 	public SolderEntry() {
 	}
@@ -132,7 +139,21 @@ public class SolderEntry implements ISerializable {
 		
 		this.tModified = file.lastModified();
 		this.size = file.length();
-		this.digest = sePrev==null?computeDigest(file):sePrev.digest;
+		if (sePrev == null) {
+			// One read for both: SHA-256 for upload/integrity, fast hash for later change detection.
+			XXHash64 xxh = new XXHash64();
+			MessageDigest md = tlMessageDigest.get();
+			md.reset();
+			FileDigest.digest(file, md, xxh);
+			this.digest = PrintUtils.toHexString(md.digest());
+			this.fastHashAlgo = FAST_HASH_XXH64;
+			this.fastHash = xxh.getValue();
+		} else {
+			this.digest = sePrev.digest;
+			this.fastHashAlgo = sePrev.fastHashAlgo;
+			this.fastHash = sePrev.fastHash;
+			this.aChunk = sePrev.aChunk;
+		}
 		this.blobFsId = blobFsId;
 		this.commitId = commitId;
 
@@ -140,6 +161,129 @@ public class SolderEntry implements ISerializable {
 		this.file = file;
 	}
 
+	/**
+	 * Chunked BLOB: one read computes the digests and the content defined chunks; chunks already
+	 * in sePrev keep their blobFsId.
+	 */
+	static SolderEntry chunked(String relPath, EntryType etype, File file, SolderEntry sePrev) throws IOException {
+		SolderEntry se = new SolderEntry();
+		se.stRelPath = relPath;
+		se.etype = etype;
+		se.tModified = file.lastModified();
+		se.size = file.length();
+		XXHash64 xxh = new XXHash64();
+		MessageDigest md = tlMessageDigest.get();
+		md.reset();
+		se.aChunk = SolderChunk.chunkFile(file, md, xxh, sePrev);
+		se.digest = PrintUtils.toHexString(md.digest());
+		se.fastHashAlgo = FAST_HASH_XXH64;
+		se.fastHash = xxh.getValue();
+		se.blobFsId = -1L;
+		se.file = file;
+		return se;
+	}
+
+	public boolean isChunked() {
+		return aChunk != null;
+	}
+
+	public SolderChunk[] getChunks() {
+		return aChunk;
+	}
+
+	public boolean isRange() {
+		return rangeOff >= 0L;
+	}
+
+	public long getRangeOffset() {
+		return rangeOff;
+	}
+
+	/**
+	 * New BLOB content whose digests are computed while it is uploaded (single read); see {@link #isDigestPending()}.
+	 */
+	static SolderEntry pendingDigest(String relPath, EntryType etype, File file) {
+		SolderEntry se = new SolderEntry();
+		se.stRelPath = relPath;
+		se.etype = etype;
+		se.tModified = file.lastModified();
+		se.size = file.length();
+		se.blobFsId = -1L;
+		se.file = file;
+		return se;
+	}
+
+	public boolean isDigestPending() {
+		return digest == null;
+	}
+
+	/**
+	 * Sets the digest of a pending entry once its content has been hashed (during upload).
+	 */
+	public void setPendingDigest(String digest, int fastHashAlgo, long fastHash) throws IOException {
+		Validator.require(digest, "digest", Rules.NO_NULL_EMPTY);
+		if (this.digest != null && !this.digest.equals(digest)) {
+			throw new RestException(String.format("Digest already set for %s (%s); got %s", stRelPath, this.digest, digest));
+		}
+		this.digest = digest;
+		if (fastHashAlgo != FAST_HASH_NONE) {
+			this.fastHashAlgo = fastHashAlgo;
+			this.fastHash = fastHash;
+		}
+	}
+
+	/**
+	 * Reads the file once to resolve a pending digest (services that do not hash while uploading).
+	 */
+	public void resolvePendingDigest() throws IOException {
+		if (!isDigestPending()) {
+			return;
+		}
+		Objects.requireNonNull(file, "file");
+		MessageDigest md = tlMessageDigest.get();
+		md.reset();
+		XXHash64 xxh = new XXHash64();
+		FileDigest.digest(file, md, xxh);
+		setPendingDigest(PrintUtils.toHexString(md.digest()), FAST_HASH_XXH64, xxh.getValue());
+	}
+
+	/**
+	 * Entry for a file whose attributes changed but whose fast hash matches sePrev: reuses the SHA-256 digest.
+	 */
+	static SolderEntry sameContent(String relPath, EntryType etype, File file, SolderEntry sePrev) {
+		SolderEntry se = new SolderEntry();
+		se.stRelPath = relPath;
+		se.etype = etype;
+		se.tModified = file.lastModified();
+		se.size = file.length();
+		se.digest = sePrev.digest;
+		se.fastHashAlgo = sePrev.fastHashAlgo;
+		se.fastHash = sePrev.fastHash;
+		se.aChunk = sePrev.aChunk;
+		se.blobFsId = -1L;
+		se.file = file;
+		return se;
+	}
+
+	/**
+	 * Local copy of a (server/commit) entry with the fast hash of the file written for it.
+	 */
+	SolderEntry copyWithFastHash(int fastHashAlgo, long fastHash) {
+		SolderEntry se = new SolderEntry();
+		se.stRelPath = stRelPath;
+		se.etype = etype;
+		se.tModified = tModified;
+		se.size = size;
+		se.digest = digest;
+		se.blobFsId = blobFsId;
+		se.commitId = commitId;
+		se.fastHashAlgo = fastHashAlgo;
+		se.fastHash = fastHash;
+		se.aChunk = aChunk;
+		se.file = file;
+		return se;
+	}
+
 	public void setBlobFsId(long blobFsId) {
 		this.blobFsId = blobFsId;
 	}
@@ -158,6 +302,9 @@ public class SolderEntry implements ISerializable {
 		encoder.writeString("digest", digest);
 		encoder.writeLong("blob_fsid", blobFsId);
 		encoder.writeLong("commit_id", commitId);
+		if (aChunk != null) {
+			encoder.writeObjectArray("chunks", aChunk, false);
+		}
 
 	}
 
@@ -169,6 +316,7 @@ public class SolderEntry implements ISerializable {
 		digest = decoder.readString("digest");
 		blobFsId = decoder.readLong("blob_fsid");
 		commitId = decoder.readInt("commit_id");
+		aChunk = decoder.readObjectArray("chunks", SolderChunk.class);
 	}
 
 	public String getRelPath() {
@@ -198,6 +346,14 @@ public class SolderEntry implements ISerializable {
 	public int getCommitId() {
 		return commitId;
 	}
+
+	public int getFastHashAlgo() {
+		return fastHashAlgo;
+	}
+
+	public long getFastHash() {
+		return fastHash;
+	}
 	
 	//Transient
 	public File getFile() {
@@ -209,7 +365,7 @@ public class SolderEntry implements ISerializable {
 	}
 
 	public String toString() {
-		return String.format("SolderEntry %s type=%s len=%s (digest=%s lastMod=%d blobFsId=%s commitId=%d)",
-				stRelPath, "" + etype, size, digest, tModified, blobFsId, commitId);
+		return String.format("SolderEntry %s type=%s len=%s (digest=%s lastMod=%d blobFsId=%s commitId=%d nChunk=%d)",
+				stRelPath, "" + etype, size, digest, tModified, blobFsId, commitId, aChunk != null ? aChunk.length : 0);
 	}
 }
\ No newline at end of file
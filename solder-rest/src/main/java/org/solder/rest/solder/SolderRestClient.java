@@ -1,15 +1,24 @@
 package org.solder.rest.solder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Date;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.function.IOSupplier;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.solder.rest.client.SolderRestOp;
+import org.solder.rest.util.RsyncDelta;
+import org.solder.rest.util.WireCompression;
 
 import com.ee.rest.RestException;
 import com.ee.rest.RestOp.RestClient;
@@ -24,6 +33,13 @@ public class SolderRestClient {
 	//This is not a git, more for binary repositories and filesystem, logfiles, etc.
 	
 	public static String getVersion(RestClient client) throws IOException {
+		return getVersion(client, null);
+	}
+	
+	/**
+	 * @param cEncodings receives the wire encodings the server accepts (comma separated; not called by older servers).
+	 */
+	public static String getVersion(RestClient client,Consumer<String> cEncodings) throws IOException {
 		Objects.requireNonNull(client, "client");
 		TReference<String> ret = new TReference<>();
 		
@@ -32,6 +48,9 @@ public class SolderRestClient {
 		}, (decoder) -> {
 			String version = decoder.readString("ret");
 			ret.set(version);
+			if (cEncodings != null && decoder.getAllObjectFields().contains("enc")) {
+				cEncodings.accept(decoder.readString("enc"));
+			}
 		});
 		return ret.get();
 	}
@@ -157,22 +176,149 @@ public class SolderRestClient {
 	
 	
 	public static void  downloadFile(String repoId,String relPath,long blobFsId,String digestExpected,IOSupplier<OutputStream> suppOs, RestClient client) throws IOException {
+		downloadFile(repoId, relPath, blobFsId, digestExpected, suppOs, client, false);
+	}
+	
+	/**
+	 * @param fAcceptDeflate the server may deflate the response (only if it accepts the encoding, see getVersion).
+	 *                       suppOs always receives the stored bytes.
+	 */
+	public static void  downloadFile(String repoId,String relPath,long blobFsId,String digestExpected,IOSupplier<OutputStream> suppOs, RestClient client,boolean fAcceptDeflate) throws IOException {
+		downloadFile(repoId, relPath, blobFsId, digestExpected, 0L, -1L, suppOs, client, fAcceptDeflate);
+	}
+	
+	/**
+	 * Downloads len bytes of the blob from off (len -1: to the end). Bytes reach suppOs as they arrive, so after a
+	 * failure the caller can resume from what it received.
+	 * 
+	 * @return false if a range was asked for and the server did not serve it (older servers ignore off/len and send
+	 *         the whole blob): the transfer is dropped, before suppOs is opened when the server's reply says so,
+	 *         else as soon as more than len bytes arrive. What reached suppOs is then not the range.
+	 */
+	public static boolean  downloadFile(String repoId,String relPath,long blobFsId,String digestExpected,long off,long len,IOSupplier<OutputStream> suppOs, RestClient client,boolean fAcceptDeflate) throws IOException {
 		Objects.requireNonNull(client, "client");
 		
-		client.doStreamRestCall(SolderRestOp.DOWNLOAD_FILE, (encoder) -> {
-			// You dont have to send this if it is false.
-			encoder.writeString("id", repoId);
-			encoder.writeString("rel_path", relPath);
-			encoder.writeLong("blob_fsid", blobFsId);
-			encoder.writeString("digest_expect", digestExpected);
-			
-		},null, (_) -> {
-			//Digest check can be done by suppOs in addition to expectation verification.
-			//This way client can use different types of digests. (Server currently uses SHA-256)
-			//CRC32 automatically done for transport.
+		boolean fRange = off > 0L || len >= 0L;
+		// Range the server confirmed ({off,len}); null until its reply is decoded, {-1,-1} if it sent none.
+		TReference<long[]> refRangeRet = new TReference<>();
+		AtomicBoolean fIgnored = new AtomicBoolean();
+		IOSupplier<OutputStream> suppRange = !fRange ? suppOs : () -> {
+			long[] aRangeRet = refRangeRet.get();
+			if (aRangeRet != null && !isRangeServed(aRangeRet, off, len)) {
+				fIgnored.set(true);
+				throw new RestException(String.format("Server ignored range off=%d len=%d of blobFsId %d (got off=%d len=%d)",
+						off, len, blobFsId, aRangeRet[0], aRangeRet[1]));
+			}
+			return len < 0L ? suppOs.get() : new RangeGuardOutputStream(suppOs.get(), len, fIgnored);
+		};
+		TReference<WireCompression.FramedOutputStream> refFramed = new TReference<>();
+		IOSupplier<OutputStream> suppWire = !fAcceptDeflate ? suppRange : () -> {
+			refFramed.set(new WireCompression.FramedOutputStream(suppRange.get()));
+			return refFramed.get();
+		};
+		
+		try {
+			client.doStreamRestCall(SolderRestOp.DOWNLOAD_FILE, (encoder) -> {
+				// You dont have to send this if it is false.
+				encoder.writeString("id", repoId);
+				encoder.writeString("rel_path", relPath);
+				encoder.writeLong("blob_fsid", blobFsId);
+				encoder.writeString("digest_expect", digestExpected);
+				if (fRange) {
+					encoder.writeLong("off", off);
+					encoder.writeLong("len", len);
+				}
+				if (fAcceptDeflate) {
+					encoder.writeString(WireCompression.PARAM_ACCEPT_ENC, WireCompression.ENC_DEFLATE);
+				}
 			
-		},suppOs);
+			},null, (decoder) -> {
+				//Digest check can be done by suppOs in addition to expectation verification.
+				//This way client can use different types of digests. (Server currently uses SHA-256)
+				//CRC32 automatically done for transport.
+				Set<String> params = decoder.getAllObjectFields();
+				refRangeRet.set(params.contains("off") ? new long[] { decoder.readLong("off"), decoder.readLong("len") }
+						: new long[] { -1L, -1L });
+			},suppWire);
+		} catch (IOException e) {
+			if (fIgnored.get()) {
+				return false;
+			}
+			throw e;
+		}
+		if (fRange && !isRangeServed(refRangeRet.get(), off, len)) {
+			return false;
+		}
+		
+		if (refFramed.get() != null) {
+			refFramed.get().finish();
+		}
+		return true;
+	}
+	
+	static boolean isRangeServed(long[] aRangeRet, long off, long len) {
+		return aRangeRet != null && aRangeRet[0] == off && (len < 0L || aRangeRet[1] == len);
+	}
+	
+	/**
+	 * Fails (and flags the range as not served) as soon as more than len bytes are written.
+	 */
+	static class RangeGuardOutputStream extends FilterOutputStream {
+		final long len;
+		final AtomicBoolean fIgnored;
+		long count;
+		
+		RangeGuardOutputStream(OutputStream os, long len, AtomicBoolean fIgnored) {
+			super(os);
+			this.len = len;
+			this.fIgnored = fIgnored;
+		}
+		
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		public void write(byte[] aB, int offB, int lenB) throws IOException {
+			if (lenB > len - count) {
+				fIgnored.set(true);
+				throw new RestException(String.format("Server sent more than the %,d bytes of the range", len));
+			}
+			out.write(aB, offB, lenB);
+			count += lenB;
+		}
+	}
+	
+	/**
+	 * Downloads many blobs of a repo in one call (see DOWNLOAD_FILES): suppOs receives, per blob in order, an 8 byte
+	 * big endian size then the stored bytes.
+	 */
+	public static int  downloadFiles(String repoId,String[] aRelPath,long[] aBlobFsId,String[] aDigestExpected,IOSupplier<OutputStream> suppOs, RestClient client,boolean fAcceptDeflate) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(aBlobFsId, "blobFsIds");
+		
+		TReference<WireCompression.FramedOutputStream> refFramed = new TReference<>();
+		IOSupplier<OutputStream> suppWire = !fAcceptDeflate ? suppOs : () -> {
+			refFramed.set(new WireCompression.FramedOutputStream(suppOs.get()));
+			return refFramed.get();
+		};
 		
+		MutableLong mlCount = new MutableLong(-1L);
+		client.doStreamRestCall(SolderRestOp.DOWNLOAD_FILES, (encoder) -> {
+			encoder.writeString("id", repoId);
+			encoder.writeStringArray("rel_paths", aRelPath);
+			encoder.writeLongArray("blob_fsids", aBlobFsId);
+			encoder.writeStringArray("digests", aDigestExpected);
+			if (fAcceptDeflate) {
+				encoder.writeString(WireCompression.PARAM_ACCEPT_ENC, WireCompression.ENC_DEFLATE);
+			}
+		},null, (decoder) -> {
+			mlCount.setValue(decoder.readInt("count"));
+		},suppWire);
+		
+		if (refFramed.get() != null) {
+			refFramed.get().finish();
+		}
+		return mlCount.intValue();
 	}
 	
 	public static CommitSession beginCommit(SCommitInfo commitInfoReq,String[] aStRelPathAdd,String[] aStRelPathDel, RestClient client) throws IOException {
@@ -197,22 +343,243 @@ public class SolderRestClient {
 	
 	
 	public static long uploadFile(CommitSession cs,SolderEntry se,IOSupplier<InputStream> suppIs, RestClient client) throws IOException {
+		return uploadFile(cs, se, suppIs, client, null);
+	}
+	
+	/**
+	 * @param cDigest receives the SHA-256 the server computed over the received bytes (required when se is digest
+	 *                pending, which the server then does not verify).
+	 */
+	public static long uploadFile(CommitSession cs,SolderEntry se,IOSupplier<InputStream> suppIs, RestClient client,Consumer<String> cDigest) throws IOException {
+		return uploadFile(cs, se, suppIs, client, cDigest, false);
+	}
+	
+	/**
+	 * @param fDeflate deflate the body on the wire (the server must accept the encoding, see getVersion). Digests
+	 *                 are over the bytes suppIs returns.
+	 */
+	public static long uploadFile(CommitSession cs,SolderEntry se,IOSupplier<InputStream> suppIs, RestClient client,Consumer<String> cDigest,boolean fDeflate) throws IOException {
 		Objects.requireNonNull(client, "client");
 		Objects.requireNonNull(cs, "Commit Session");
 		
 		MutableLong id = new MutableLong(-1);
 		client.doStreamRestCall(SolderRestOp.UPLOAD_FILE, (encoder) -> {
 			// You dont have to send this if it is false.
+			encoder.writeString("ecid", cs.getECId());
+			if (fDeflate) {
+				encoder.writeString(WireCompression.PARAM_ENC, WireCompression.ENC_DEFLATE);
+			}
+			encoder.writeObject("se", se,false);
+		}, wireStream(suppIs, fDeflate),(decoder) -> {
+			id.setValue(decoder.readLong("ret"));
+			if (cDigest != null && decoder.getAllObjectFields().contains("digest")) {
+				cDigest.accept(decoder.readString("digest"));
+			}
+		},null);
+		return id.longValue();
+	}
+	
+	
+	/**
+	 * blobFsIds the repo already stores for the content digests (-1 where it does not).
+	 */
+	public static long[] hasBlobs(CommitSession cs,String[] aDigest, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		
+		TReference<long[]> ref = new TReference<>();
+		client.doRestCall(SolderRestOp.HAS_BLOBS, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			encoder.writeStringArray("digests", aDigest);
+		}, (decoder) -> {
+			ref.set(decoder.readLongArray("ret"));
+		});
+		return Objects.requireNonNull(ref.get(),"hasBlobs result");
+	}
+	
+	/**
+	 * Server side state of a part upload (see {@link #uploadStatus}).
+	 */
+	public static class UploadStatus {
+		/** > 0 if the repo already stores the content: nothing to upload. */
+		public final long blobFsId;
+		/** Bytes received so far: the next part starts here. */
+		public final long received;
+		/** Largest part the server accepts. */
+		public final long maxPartSize;
+		
+		UploadStatus(long blobFsId,long received,long maxPartSize) {
+			this.blobFsId = blobFsId;
+			this.received = received;
+			this.maxPartSize = maxPartSize;
+		}
+	}
+	
+	/**
+	 * Begins (or looks up) the part upload of se, which must have its digest.
+	 */
+	public static UploadStatus uploadStatus(CommitSession cs,SolderEntry se, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		Objects.requireNonNull(se, "Solder Entry");
+		
+		TReference<UploadStatus> ref = new TReference<>();
+		client.doRestCall(SolderRestOp.UPLOAD_STATUS, (encoder) -> {
 			encoder.writeString("ecid", cs.getECId());
 			encoder.writeObject("se", se,false);
+		}, (decoder) -> {
+			ref.set(new UploadStatus(decoder.readLong("ret"), decoder.readLong("received"), decoder.readLong("part_size")));
+		});
+		return Objects.requireNonNull(ref.get(),"uploadStatus result");
+	}
+	
+	/**
+	 * Sends len bytes at off of the content with the given digest.
+	 * 
+	 * @param partDigest SHA-256 of the part (the server drops a part that does not match).
+	 * @return bytes the server has received so far.
+	 */
+	public static long uploadPart(CommitSession cs,String digest,long off,long len,String partDigest,IOSupplier<InputStream> suppIs, RestClient client,boolean fDeflate) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		
+		MutableLong mlReceived = new MutableLong(-1L);
+		client.doStreamRestCall(SolderRestOp.UPLOAD_PART, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			if (fDeflate) {
+				encoder.writeString(WireCompression.PARAM_ENC, WireCompression.ENC_DEFLATE);
+			}
+			encoder.writeString("digest", digest);
+			encoder.writeLong("off", off);
+			encoder.writeLong("len", len);
+			encoder.writeString("part_digest", partDigest);
+		}, wireStream(suppIs, fDeflate),(decoder) -> {
+			mlReceived.setValue(decoder.readLong("ret"));
+		},null);
+		return mlReceived.longValue();
+	}
+	
+	/**
+	 * Completes a part upload once every byte was received.
+	 * 
+	 * @return the blobFsId.
+	 */
+	public static long uploadPartEnd(CommitSession cs,String digest, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		
+		MutableLong mlBlobFsId = new MutableLong(-1L);
+		client.doRestCall(SolderRestOp.UPLOAD_PART_END, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			encoder.writeString("digest", digest);
+		}, (decoder) -> {
+			mlBlobFsId.setValue(decoder.readLong("ret"));
+		});
+		return mlBlobFsId.longValue();
+	}
+	
+	/**
+	 * Block signature of a blob already in the repo, the base for {@link #uploadDelta}.
+	 */
+	public static RsyncDelta.Signature getBlobSignature(CommitSession cs,long blobFsId,int blockSize, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		client.doStreamRestCall(SolderRestOp.BLOB_SIGNATURE, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			encoder.writeLong("blob_fsid", blobFsId);
+			encoder.writeInt("block_size", blockSize);
+		},null, (decoder) -> {
+			decoder.readInt("ret");
+		},()->baos);
+		return RsyncDelta.Signature.read(new ByteArrayInputStream(baos.toByteArray()));
+	}
+	
+	/**
+	 * Uploads se as an {@link RsyncDelta} against baseBlobFsId. se's digest must be known, the server verifies it.
+	 */
+	public static long uploadDelta(CommitSession cs,SolderEntry se,long baseBlobFsId,int blockSize,IOSupplier<InputStream> suppIs, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		Validator.require(se.getDigest(), "digest",Rules.NO_NULL_EMPTY);
+		
+		MutableLong id = new MutableLong(-1);
+		client.doStreamRestCall(SolderRestOp.UPLOAD_DELTA, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			encoder.writeObject("se", se,false);
+			encoder.writeLong("base_fsid", baseBlobFsId);
+			encoder.writeInt("block_size", blockSize);
 		}, suppIs,(decoder) -> {
 			id.setValue(decoder.readLong("ret"));
 		},null);
 		return id.longValue();
 	}
 	
+	public static void abortCommit(CommitSession cs, RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		
+		client.doRestCall(SolderRestOp.ABORT_COMMIT, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+		}, (decoder) -> {
+			decoder.readBoolean("ret");
+		});
+	}
+	
+	/**
+	 * Per entry result of {@link SolderRestClient#uploadFiles}: blobFsId -1 with an error for entries that failed.
+	 */
+	public static class UploadFilesResult {
+		public final long[] aBlobFsId;
+		public final String[] aDigest;
+		public final String[] aError;
+		
+		UploadFilesResult(long[] aBlobFsId,String[] aDigest,String[] aError) {
+			this.aBlobFsId = aBlobFsId;
+			this.aDigest = aDigest;
+			this.aError = aError;
+		}
+	}
+	
+	/**
+	 * Uploads aSe in one request; suppIs is the content of each entry (se.size bytes) in order.
+	 */
+	public static UploadFilesResult uploadFiles(CommitSession cs,SolderEntry[] aSe,IOSupplier<InputStream> suppIs, RestClient client,boolean fDeflate) throws IOException {
+		Objects.requireNonNull(client, "client");
+		Objects.requireNonNull(cs, "Commit Session");
+		Objects.requireNonNull(aSe, "Solder Entries");
+		
+		TReference<UploadFilesResult> ref = new TReference<>();
+		client.doStreamRestCall(SolderRestOp.UPLOAD_FILES, (encoder) -> {
+			encoder.writeString("ecid", cs.getECId());
+			if (fDeflate) {
+				encoder.writeString(WireCompression.PARAM_ENC, WireCompression.ENC_DEFLATE);
+			}
+			encoder.writeObjectArray("ses", aSe,false);
+		}, wireStream(suppIs, fDeflate),(decoder) -> {
+			ref.set(new UploadFilesResult(decoder.readLongArray("ret"), decoder.readStringArray("digest"),
+					decoder.readStringArray("error")));
+		},null);
+		UploadFilesResult result = Objects.requireNonNull(ref.get(),"uploadFiles result");
+		if (result.aBlobFsId.length != aSe.length) {
+			throw new RestException(String.format("uploadFiles returned %d results for %d entries", result.aBlobFsId.length, aSe.length));
+		}
+		return result;
+	}
+	
+	static IOSupplier<InputStream> wireStream(IOSupplier<InputStream> suppIs,boolean fDeflate) {
+		if (!fDeflate || suppIs == null) {
+			return suppIs;
+		}
+		return () -> WireCompression.deflate(suppIs.get());
+	}
 	
 	public static SCommitInfo uploadCommit(CommitSession cs,File fileCommit,String digest, RestClient client) throws IOException {
+		return uploadCommit(cs, fileCommit, digest, client, false);
+	}
+	
+	public static SCommitInfo uploadCommit(CommitSession cs,File fileCommit,String digest, RestClient client,boolean fDeflate) throws IOException {
 		Objects.requireNonNull(client, "client");
 		Objects.requireNonNull(cs,"commitSession");
 		Validator.checkFile(fileCommit, "Commit File");
@@ -231,7 +598,14 @@ public class SolderRestClient {
 			// You dont have to send this if it is false.
 			encoder.writeString("ecid", cs.getECId());
 			encoder.writeString("digest", digest);
-		},suppIs, (decoder) -> {
+			if (fDeflate) {
+				encoder.writeString(WireCompression.PARAM_ENC, WireCompression.ENC_DEFLATE);
+			}
+			// Known only after the uploads when digests were pending at beginCommit.
+			if (cs.getCommitInfo() != null && cs.getCommitInfo().getCHash() != null) {
+				encoder.writeString("chash", cs.getCommitInfo().getCHash());
+			}
+		},wireStream(suppIs, fDeflate), (decoder) -> {
 			ref.set(decoder.readObject("ret",SCommitInfo.class));
 		},null);
 		//We will let the Service object to set the fsId inside the commitInfo.
@@ -273,6 +647,46 @@ public class SolderRestClient {
 		return ret.get();
 	}
 	
+	/**
+	 * A page of the repo's commits ordered by id (fDesc: newest first). Pass the last id returned as afterId (fDesc:
+	 * beforeId) for the next page; a page shorter than limit is the last. The server caps limit.
+	 * 
+	 * @param afterId only ids above it (<=0: no bound).
+	 * @param beforeId only ids below it (<=0: no bound).
+	 * @param dateFrom only commits created at or after it (null: no bound).
+	 * @param dateTo only commits created before it (null: no bound).
+	 */
+	public static SCommitInfo[] listCommits(String repoId,int afterId,int beforeId,Date dateFrom,Date dateTo,int limit,boolean fDesc,RestClient client) throws IOException {
+		Objects.requireNonNull(client, "client");
+		
+		String repoIdFinal = Validator.require(repoId, "repo id", Rules.TRIM_LOWER,Rules.NO_NULL_EMPTY);
+		if (limit <= 0) {
+			throw new RestException("Invalid page limit "+limit);
+		}
+		
+		TReference<SCommitInfo[]> ret = new TReference<>();
+		client.doRestCall(SolderRestOp.LIST_COMMITS, (encoder) -> {
+			encoder.writeString("id", repoIdFinal);
+			if (afterId > 0) {
+				encoder.writeInt("after", afterId);
+			}
+			if (beforeId > 0) {
+				encoder.writeInt("before", beforeId);
+			}
+			if (dateFrom != null) {
+				encoder.writeDate("from", dateFrom);
+			}
+			if (dateTo != null) {
+				encoder.writeDate("to", dateTo);
+			}
+			encoder.writeInt("limit", limit);
+			encoder.writeBoolean("desc", fDesc);
+		}, (decoder) -> {
+			ret.set(decoder.readObjectArray("ret", SCommitInfo.class));
+		});
+		return ret.get();
+	}
+	
 	//Returns deleted commit ids (or the ones it wll remove if it is a dry run)
 	public static int[] pruneCommits(String repoId,int[] aCommitIdsToKeep,boolean fDryRun,RestClient client) throws IOException {
 		Objects.requireNonNull(client, "client");
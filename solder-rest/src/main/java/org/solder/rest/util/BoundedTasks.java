@@ -0,0 +1,128 @@
+package org.solder.rest.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.function.IORunnable;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.ee.rest.RestException;
+
+/**
+ * Runs IO tasks on virtual threads with at most {@code nMaxInFlight} running.
+ * <p>
+ * {@link #submit(IORunnable)} blocks while the cap is reached (backpressure).
+ * The first failure stops the remaining tasks (running ones are interrupted)
+ * and is rethrown from {@link #submit(IORunnable)} or {@link #await()}.
+ * Callers must {@link #await()} before using task results.
+ */
+public class BoundedTasks implements Closeable {
+
+	private static Log LOG = LogFactory.getLog(BoundedTasks.class.getName());
+
+	final String name;
+	final int nMaxInFlight;
+	final ExecutorService es;
+	final Semaphore semInFlight;
+	final AtomicReference<Throwable> arError = new AtomicReference<>();
+
+	public BoundedTasks(String name, int nMaxInFlight) {
+		this.name = Objects.requireNonNull(name, "name");
+		if (nMaxInFlight <= 0) {
+			throw new IllegalArgumentException("Invalid nMaxInFlight " + nMaxInFlight + " for " + name);
+		}
+		this.nMaxInFlight = nMaxInFlight;
+		es = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+		semInFlight = new Semaphore(nMaxInFlight);
+	}
+
+	public int getMaxInFlight() {
+		return nMaxInFlight;
+	}
+
+	public boolean isFailed() {
+		return arError.get() != null;
+	}
+
+	public void submit(IORunnable task) throws IOException {
+		Objects.requireNonNull(task, "task");
+		throwIfFailed();
+		try {
+			semInFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+			throw new InterruptedIOException(name + " interrupted while waiting for a free slot");
+		}
+		try {
+			es.execute(() -> {
+				try {
+					if (arError.get() == null) {
+						task.run();
+					}
+				} catch (Throwable t) {
+					fail(t);
+				} finally {
+					semInFlight.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			semInFlight.release();
+			throwIfFailed();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for every submitted task and rethrows the first failure.
+	 */
+	public void await() throws IOException {
+		es.shutdown();
+		try {
+			while (!es.awaitTermination(1, TimeUnit.MINUTES)) {
+				LOG.info(String.format("%s waiting for tasks (inFlight=%d)", name,
+						nMaxInFlight - semInFlight.availablePermits()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+			throw new InterruptedIOException(name + " interrupted while waiting for tasks");
+		}
+		throwIfFailed();
+	}
+
+	void fail(Throwable t) {
+		if (arError.compareAndSet(null, t)) {
+			LOG.info(String.format("%s first failure; cancelling remaining tasks: %s", name, t.toString()));
+			es.shutdownNow();
+		}
+	}
+
+	void throwIfFailed() throws IOException {
+		Throwable t = arError.get();
+		if (t == null) {
+			return;
+		}
+		if (t instanceof IOException e) {
+			throw e;
+		}
+		if (t instanceof InterruptedException) {
+			throw new InterruptedIOException(name + " interrupted");
+		}
+		throw RestException.rethrowUnchecked(t);
+	}
+
+	public void close() {
+		es.shutdownNow();
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.solder.rest.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * Content defined chunking (FastCDC: gear rolling hash, normalized chunking).
+ * <p>
+ * Cut points depend only on the bytes around them, so an insert or append moves the chunk
+ * boundaries near the edit only. The gear table and sizes are part of the chunk identity:
+ * changing them re-chunks (and re-uploads) every chunked file.
+ * Not thread safe; use one instance per stream.
+ */
+public final class FastCDC {
+
+	public static final int MIN_SIZE = 256 << 10;
+	public static final int AVG_SIZE = 1 << 20;
+	public static final int MAX_SIZE = 4 << 20;
+
+	static final long[] GEAR = new long[256];
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x536F6C646572L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	final int minSize, avgSize, maxSize;
+	// Before avgSize a cut needs more matching bits (maskS) than after it (maskL).
+	final long maskS, maskL;
+
+	long fp;
+	int chunkLen;
+
+	public FastCDC() {
+		this(MIN_SIZE, AVG_SIZE, MAX_SIZE);
+	}
+
+	public FastCDC(int minSize, int avgSize, int maxSize) {
+		if (minSize <= 0 || avgSize <= minSize || maxSize <= avgSize || Integer.bitCount(avgSize) != 1) {
+			throw new IllegalArgumentException(String.format("Invalid chunk sizes min=%d avg=%d max=%d", minSize,
+					avgSize, maxSize));
+		}
+		this.minSize = minSize;
+		this.avgSize = avgSize;
+		this.maxSize = maxSize;
+		int bits = Integer.numberOfTrailingZeros(avgSize);
+		// High bits: with a left shifting gear hash they depend on the last 64 bytes, low bits on the last few.
+		this.maskS = topBits(bits + 1);
+		this.maskL = topBits(bits - 1);
+	}
+
+	static long topBits(int n) {
+		return -1L << (64 - n);
+	}
+
+	public FastCDC reset() {
+		fp = 0L;
+		chunkLen = 0;
+		return this;
+	}
+
+	/**
+	 * Consumes aB[off,off+len) up to the next cut point.
+	 *
+	 * @return bytes consumed including the cut, or -1 if all len bytes were consumed without a cut
+	 *         (the chunk continues in the next call).
+	 */
+	public int next(byte[] aB, int off, int len) {
+		int i = 0;
+		if (chunkLen < minSize) {
+			// The first minSize bytes of a chunk are never a cut point: skip hashing them.
+			int skip = Math.min(minSize - chunkLen, len);
+			chunkLen += skip;
+			i = skip;
+		}
+		long h = fp;
+		for (; i < len; i++) {
+			h = (h << 1) + GEAR[aB[off + i] & 0xFF];
+			chunkLen++;
+			long mask = chunkLen < avgSize ? maskS : maskL;
+			if ((h & mask) == 0L || chunkLen >= maxSize) {
+				reset();
+				return i + 1;
+			}
+		}
+		fp = h;
+		return -1;
+	}
+
+	/** Bytes of the current (unfinished) chunk. */
+	public int getChunkLength() {
+		return chunkLen;
+	}
+}
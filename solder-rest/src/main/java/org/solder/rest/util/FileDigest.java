@@ -0,0 +1,208 @@
+package org.solder.rest.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Whole file digesting without per-chunk heap buffers.
+ * <p>
+ * Files go through pooled direct buffers. Files nothing else writes ({@link #digestImmutable}) of at least
+ * {@link #getMapThreshold()} bytes are read through mapped windows of {@link #MAP_WINDOW} bytes instead (each
+ * unmapped as soon as it is digested): a mapped file truncated by another process faults the reader, so working
+ * tree files are never mapped.
+ */
+public class FileDigest {
+
+	public static final long DEFAULT_MAP_THRESHOLD = 16L << 20;
+	public static final int MAP_WINDOW = 64 << 20;
+	public static final int DIRECT_BUFFER_SIZE = 1 << 20;
+	static final int POOL_SIZE = 32;
+
+	private static volatile long s_mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+	static final ArrayBlockingQueue<ByteBuffer> s_poolDirect = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	public static long getMapThreshold() {
+		return s_mapThreshold;
+	}
+
+	/**
+	 * Long.MAX_VALUE disables mapping.
+	 */
+	public static void setMapThreshold(long mapThreshold) {
+		if (mapThreshold <= 0L) {
+			throw new IllegalArgumentException("Invalid map threshold " + mapThreshold);
+		}
+		s_mapThreshold = mapThreshold;
+	}
+
+	public static ByteBuffer acquireBuffer() {
+		ByteBuffer bb = s_poolDirect.poll();
+		if (bb == null) {
+			bb = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+		}
+		bb.clear();
+		return bb;
+	}
+
+	public static void releaseBuffer(ByteBuffer bb) {
+		if (bb != null && bb.isDirect() && bb.capacity() == DIRECT_BUFFER_SIZE) {
+			s_poolDirect.offer(bb);
+		}
+	}
+
+	/**
+	 * Feeds the whole file to md and/or xxh (either may be null). Safe for files that change while read.
+	 *
+	 * @return bytes digested.
+	 */
+	public static long digest(File file, MessageDigest md, XXHash64 xxh) throws IOException {
+		Objects.requireNonNull(file, "file");
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return digestDirect(fc, md, xxh);
+		}
+	}
+
+	/**
+	 * {@link #digest(File, MessageDigest, XXHash64)} of a file no other process writes (a finished download or
+	 * a stored blob); large ones are mapped.
+	 *
+	 * @return bytes digested.
+	 */
+	public static long digestImmutable(File file, MessageDigest md, XXHash64 xxh) throws IOException {
+		Objects.requireNonNull(file, "file");
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = fc.size();
+			if (size >= s_mapThreshold) {
+				return digestMapped(fc, size, md, xxh);
+			}
+			return digestDirect(fc, md, xxh);
+		}
+	}
+
+	static long digestMapped(FileChannel fc, long size, MessageDigest md, XXHash64 xxh) throws IOException {
+		for (long pos = 0L; pos < size;) {
+			long len = Math.min(MAP_WINDOW, size - pos);
+			try (Arena arena = Arena.ofConfined()) {
+				MemorySegment seg = fc.map(MapMode.READ_ONLY, pos, len, arena);
+				update(seg.asByteBuffer(), md, xxh);
+			}
+			pos += len;
+		}
+		return size;
+	}
+
+	static long digestDirect(FileChannel fc, MessageDigest md, XXHash64 xxh) throws IOException {
+		ByteBuffer bb = acquireBuffer();
+		try {
+			long total = 0L;
+			while (fc.read(bb) >= 0) {
+				bb.flip();
+				total += bb.remaining();
+				update(bb, md, xxh);
+				bb.clear();
+			}
+			return total;
+		} finally {
+			releaseBuffer(bb);
+		}
+	}
+
+	static void update(ByteBuffer bb, MessageDigest md, XXHash64 xxh) {
+		int pos = bb.position();
+		if (md != null) {
+			md.update(bb);
+			bb.position(pos);
+		}
+		if (xxh != null) {
+			xxh.update(bb);
+		}
+		bb.position(bb.limit());
+	}
+
+	/**
+	 * Copies src to dest (created or truncated) and feeds the bytes to md.
+	 *
+	 * @return bytes copied.
+	 */
+	public static long copy(File src, File dest, MessageDigest md) throws IOException {
+		return copy(src, 0L, -1L, dest, md);
+	}
+
+	/**
+	 * Copies len bytes of src from off (len -1: to the end) to dest (created or truncated) and feeds them to md.
+	 *
+	 * @return bytes copied.
+	 */
+	public static long copy(File src, long off, long len, File dest, MessageDigest md) throws IOException {
+		Objects.requireNonNull(src, "src");
+		Objects.requireNonNull(dest, "dest");
+		ByteBuffer bb = acquireBuffer();
+		try (FileChannel fcIn = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+				FileChannel fcOut = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long total = 0L;
+			while (len < 0L || total < len) {
+				if (len >= 0L && len - total < bb.capacity()) {
+					bb.limit((int) (len - total));
+				}
+				if (fcIn.read(bb, off + total) < 0) {
+					if (len >= 0L) {
+						throw new EOFException(String.format("Unexpected EOF at %d copying %s", off + total, src.getName()));
+					}
+					break;
+				}
+				bb.flip();
+				if (md != null) {
+					int pos = bb.position();
+					md.update(bb);
+					bb.position(pos);
+				}
+				while (bb.hasRemaining()) {
+					total += fcOut.write(bb);
+				}
+				bb.clear();
+			}
+			return total;
+		} finally {
+			releaseBuffer(bb);
+		}
+	}
+
+	/**
+	 * Stream of len bytes of file from off (closing it closes the file).
+	 */
+	public static InputStream openRange(File file, long off, long len) throws IOException {
+		Objects.requireNonNull(file, "file");
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		fc.position(off);
+		return BoundedInputStream.builder().setInputStream(Channels.newInputStream(fc)).setMaxCount(len).get();
+	}
+
+	/**
+	 * Positional read of exactly bb.remaining() bytes.
+	 */
+	public static void readFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+		while (bb.hasRemaining()) {
+			int n = fc.read(bb, pos);
+			if (n < 0) {
+				throw new EOFException("Unexpected EOF at " + pos);
+			}
+			pos += n;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.solder.rest.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends file ranges to a response stream. Servlet response streams only take byte arrays, so the file is read
+ * straight into large pooled arrays (one copy, one write per {@link #BUFFER_SIZE}) instead of 8K heap buffers.
+ * <p>
+ * Every send is counted in {@link #getStats()}.
+ */
+public final class FileTransfer {
+
+	public static final int BUFFER_SIZE = 1 << 20;
+	static final int POOL_SIZE = 64;
+
+	static final ArrayBlockingQueue<byte[]> s_poolHeap = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	static final Stats s_stats = new Stats();
+
+	private FileTransfer() {
+	}
+
+	public static Stats getStats() {
+		return s_stats;
+	}
+
+	/**
+	 * Sends the whole file to os. os is flushed, not closed.
+	 *
+	 * @return bytes sent.
+	 */
+	public static long send(File file, OutputStream os) throws IOException {
+		return send(file, 0L, -1L, os);
+	}
+
+	/**
+	 * Sends len bytes of file from off (len -1: to the end) to os. os is flushed, not closed.
+	 *
+	 * @return bytes sent.
+	 */
+	public static long send(File file, long off, long len, OutputStream os) throws IOException {
+		Objects.requireNonNull(file, "file");
+		Objects.requireNonNull(os, "os");
+		long tStart = System.nanoTime();
+		s_stats.onStart();
+		long total = 0L;
+		try {
+			total = copy(file, off, len, os);
+			os.flush();
+			return total;
+		} finally {
+			s_stats.active.decrementAndGet();
+			s_stats.record(total, System.nanoTime() - tStart);
+		}
+	}
+
+	/**
+	 * Counts a send made elsewhere (e.g. a deflated response).
+	 */
+	public static void record(long bytes, long nanos) {
+		s_stats.record(bytes, nanos);
+	}
+
+	static long copy(File file, long off, long len, OutputStream os) throws IOException {
+		byte[] aB = acquireBuffer();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(off);
+			long total = 0L;
+			while (len < 0L || total < len) {
+				int want = len < 0L ? aB.length : (int) Math.min(aB.length, len - total);
+				int n = raf.read(aB, 0, want);
+				if (n < 0) {
+					if (len >= 0L) {
+						throw new EOFException(String.format("Unexpected EOF at %d sending %s", off + total, file.getName()));
+					}
+					break;
+				}
+				os.write(aB, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			releaseBuffer(aB);
+		}
+	}
+
+	static byte[] acquireBuffer() {
+		byte[] aB = s_poolHeap.poll();
+		return aB != null ? aB : new byte[BUFFER_SIZE];
+	}
+
+	static void releaseBuffer(byte[] aB) {
+		if (aB != null && aB.length == BUFFER_SIZE) {
+			s_poolHeap.offer(aB);
+		}
+	}
+
+	/**
+	 * Cumulative send counters (since start or {@link #reset()}). Throughput is bytes over the summed send time, so
+	 * it is per-transfer throughput, not the aggregate bandwidth of concurrent sends.
+	 */
+	public static final class Stats {
+		final LongAdder copyCount = new LongAdder();
+		final LongAdder copyBytes = new LongAdder();
+		final LongAdder copyNanos = new LongAdder();
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicLong tLastReport = new AtomicLong(System.currentTimeMillis());
+
+		void record(long bytes, long nanos) {
+			copyCount.increment();
+			copyBytes.add(bytes);
+			copyNanos.add(nanos);
+		}
+
+		void onStart() {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+		}
+
+		public long getCopyBytes() {
+			return copyBytes.sum();
+		}
+
+		public int getActive() {
+			return active.get();
+		}
+
+		public int getMaxActive() {
+			return maxActive.get();
+		}
+
+		/**
+		 * True at most once per intervalMs (for periodic logging from many threads).
+		 */
+		public boolean isReportDue(long intervalMs) {
+			long tNow = System.currentTimeMillis();
+			long tLast = tLastReport.get();
+			return tNow - tLast >= intervalMs && tLastReport.compareAndSet(tLast, tNow);
+		}
+
+		public void reset() {
+			copyCount.reset();
+			copyBytes.reset();
+			copyNanos.reset();
+			maxActive.set(active.get());
+		}
+
+		static double mbPerSec(long bytes, long nanos) {
+			return nanos <= 0L ? 0.0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+		}
+
+		public String toString() {
+			long cBytes = copyBytes.sum(), cNanos = copyNanos.sum();
+			return String.format("FileTransfer n=%d bytes=%d %.1f MiB/s; active=%d maxActive=%d", copyCount.sum(),
+					cBytes, mbPerSec(cBytes, cNanos), active.get(), maxActive.get());
+		}
+	}
+}
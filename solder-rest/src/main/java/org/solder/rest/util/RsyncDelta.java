@@ -0,0 +1,365 @@
+package org.solder.rest.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * rsync style delta of a new file against a base the other side holds.
+ * <p>
+ * The holder of the base sends a {@link Signature} (rolling weak checksum and XXH64 per block); the sender scans
+ * its file with the rolling checksum and emits block copies for matches and literals for the rest. XXH64 is
+ * only a match filter: the receiver must verify the SHA-256 of the rebuilt content.
+ * <pre>
+ * delta: (COPY block(4) nBlock(4) | LITERAL len(4) bytes)* END totalLen(8)
+ * </pre>
+ */
+public final class RsyncDelta {
+
+	public static final int MIN_BLOCK_SIZE = 2 << 10;
+	public static final int MAX_BLOCK_SIZE = 128 << 10;
+	static final int MAX_LITERAL = 64 << 10;
+	static final int OP_END = 0;
+	static final int OP_COPY = 1;
+	static final int OP_LITERAL = 2;
+
+	private RsyncDelta() {
+	}
+
+	/**
+	 * About sqrt(len) (power of two) within [MIN_BLOCK_SIZE, MAX_BLOCK_SIZE].
+	 */
+	public static int blockSize(long len) {
+		long bs = Long.highestOneBit(Math.max(1L, (long) Math.sqrt((double) len)));
+		return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, bs));
+	}
+
+	/** rsync checksum: s1 = sum(b), s2 = sum((len-i)*b), both mod 2^16. */
+	static int weak(byte[] aB, int off, int len) {
+		int s1 = 0, s2 = 0;
+		for (int i = 0; i < len; i++) {
+			s1 += aB[off + i] & 0xFF;
+			s2 += s1;
+		}
+		return (s1 & 0xFFFF) | (s2 << 16);
+	}
+
+	public static class Signature {
+		final int blockSize;
+		final long baseLen;
+		final int[] aWeak;
+		final long[] aStrong;
+
+		Signature(int blockSize, long baseLen, int[] aWeak, long[] aStrong) {
+			this.blockSize = blockSize;
+			this.baseLen = baseLen;
+			this.aWeak = aWeak;
+			this.aStrong = aStrong;
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		public int getBlockCount() {
+			return aWeak.length;
+		}
+
+		int blockLen(int block) {
+			return (int) Math.min(blockSize, baseLen - (long) block * blockSize);
+		}
+
+		public void write(OutputStream os) throws IOException {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os, 64 << 10));
+			dos.writeInt(blockSize);
+			dos.writeLong(baseLen);
+			dos.writeInt(aWeak.length);
+			for (int i = 0; i < aWeak.length; i++) {
+				dos.writeInt(aWeak[i]);
+				dos.writeLong(aStrong[i]);
+			}
+			dos.flush();
+		}
+
+		public static Signature read(InputStream is) throws IOException {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(is, 64 << 10));
+			int blockSize = dis.readInt();
+			long baseLen = dis.readLong();
+			int n = dis.readInt();
+			if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || baseLen < 0L
+					|| n != (int) ((baseLen + blockSize - 1) / blockSize)) {
+				throw new IOException(String.format("Bad signature blockSize=%d baseLen=%d n=%d", blockSize, baseLen, n));
+			}
+			int[] aWeak = new int[n];
+			long[] aStrong = new long[n];
+			for (int i = 0; i < n; i++) {
+				aWeak[i] = dis.readInt();
+				aStrong[i] = dis.readLong();
+			}
+			return new Signature(blockSize, baseLen, aWeak, aStrong);
+		}
+	}
+
+	/**
+	 * Signature of the base file (held by the receiver).
+	 */
+	public static Signature signature(File fileBase, int blockSize) throws IOException {
+		Objects.requireNonNull(fileBase, "base file");
+		if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Invalid block size " + blockSize);
+		}
+		long baseLen = fileBase.length();
+		int n = (int) ((baseLen + blockSize - 1) / blockSize);
+		int[] aWeak = new int[n];
+		long[] aStrong = new long[n];
+		byte[] aB = new byte[blockSize];
+		try (InputStream is = new FileInputStream(fileBase)) {
+			for (int i = 0; i < n; i++) {
+				int len = (int) Math.min(blockSize, baseLen - (long) i * blockSize);
+				readFully(is, aB, len);
+				aWeak[i] = weak(aB, 0, len);
+				aStrong[i] = XXHash64.hash(aB, 0, len);
+			}
+		}
+		return new Signature(blockSize, baseLen, aWeak, aStrong);
+	}
+
+	static void readFully(InputStream is, byte[] aB, int len) throws IOException {
+		int off = 0;
+		while (off < len) {
+			int n = is.read(aB, off, len - off);
+			if (n < 0) {
+				throw new EOFException("Base file shrank while reading signature");
+			}
+			off += n;
+		}
+	}
+
+	/**
+	 * Writes the delta of file against sig to os in one read of file, which also feeds md and xxh (may be null).
+	 *
+	 * @return bytes of file sent as literals.
+	 */
+	public static long delta(File file, Signature sig, OutputStream os, MessageDigest md, XXHash64 xxh)
+			throws IOException {
+		Objects.requireNonNull(sig, "signature");
+		final int bs = sig.blockSize;
+		// Weak checksum -> first block; aNext chains blocks sharing a weak checksum.
+		Map<Integer, Integer> mapWeak = new HashMap<>();
+		int[] aNext = new int[sig.aWeak.length];
+		Arrays.fill(aNext, -1);
+		int nFull = (int) (sig.baseLen / bs);
+		for (int i = nFull - 1; i >= 0; i--) {
+			Integer prev = mapWeak.put(sig.aWeak[i], i);
+			aNext[i] = prev != null ? prev : -1;
+		}
+
+		DeltaWriter dw = new DeltaWriter(os);
+		byte[] aB = new byte[Math.max(FileDigest.DIRECT_BUFFER_SIZE, bs * 4)];
+		int start = 0, end = 0, litStart = 0;
+		long total = 0L;
+		boolean fEof = false;
+		boolean fWeakValid = false;
+		int s1 = 0, s2 = 0;
+		try (InputStream is = new FileInputStream(file)) {
+			while (true) {
+				if (start + bs > end && !fEof) {
+					// Refill: flush the pending literal, then keep only the unscanned tail.
+					dw.literal(aB, litStart, start - litStart);
+					System.arraycopy(aB, start, aB, 0, end - start);
+					end -= start;
+					start = 0;
+					litStart = 0;
+					while (end < aB.length) {
+						int n = is.read(aB, end, aB.length - end);
+						if (n < 0) {
+							fEof = true;
+							break;
+						}
+						if (md != null) {
+							md.update(aB, end, n);
+						}
+						if (xxh != null) {
+							xxh.update(aB, end, n);
+						}
+						total += n;
+						end += n;
+					}
+				}
+				if (start + bs > end) {
+					break;
+				}
+				if (!fWeakValid) {
+					int w = weak(aB, start, bs);
+					s1 = w & 0xFFFF;
+					s2 = w >>> 16;
+					fWeakValid = true;
+				}
+				int block = match(sig, mapWeak, aNext, (s1 & 0xFFFF) | (s2 << 16), aB, start, bs);
+				if (block >= 0) {
+					dw.literal(aB, litStart, start - litStart);
+					dw.copy(block);
+					start += bs;
+					litStart = start;
+					fWeakValid = false;
+					continue;
+				}
+				if (litStart + MAX_LITERAL <= start) {
+					dw.literal(aB, litStart, start - litStart);
+					litStart = start;
+				}
+				// Roll one byte (the next window is complete only if start + 1 + bs <= end).
+				if (start + bs < end) {
+					int x = aB[start] & 0xFF;
+					int y = aB[start + bs] & 0xFF;
+					s1 = (s1 - x + y) & 0xFFFF;
+					s2 = (s2 - bs * x + s1) & 0xFFFF;
+				} else {
+					fWeakValid = false;
+				}
+				start++;
+			}
+			// Tail shorter than a block: copy if it is the base's last (partial) block.
+			int tail = end - start;
+			int last = sig.aWeak.length - 1;
+			if (tail > 0 && last >= 0 && sig.blockLen(last) == tail && sig.aWeak[last] == weak(aB, start, tail)
+					&& sig.aStrong[last] == XXHash64.hash(aB, start, tail)) {
+				dw.literal(aB, litStart, start - litStart);
+				dw.copy(last);
+			} else {
+				dw.literal(aB, litStart, end - litStart);
+			}
+		}
+		dw.end(total);
+		return dw.szLiteral;
+	}
+
+	static int match(Signature sig, Map<Integer, Integer> mapWeak, int[] aNext, int w, byte[] aB, int off, int bs) {
+		Integer first = mapWeak.get(w);
+		if (first == null) {
+			return -1;
+		}
+		long strong = XXHash64.hash(aB, off, bs);
+		for (int i = first; i >= 0; i = aNext[i]) {
+			if (sig.aStrong[i] == strong) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static final class DeltaWriter {
+		final DataOutputStream dos;
+		int copyStart = -1, copyCount;
+		long szLiteral;
+
+		DeltaWriter(OutputStream os) {
+			this.dos = new DataOutputStream(new BufferedOutputStream(os, 64 << 10));
+		}
+
+		void copy(int block) throws IOException {
+			if (copyStart >= 0 && copyStart + copyCount == block) {
+				copyCount++;
+				return;
+			}
+			flushCopy();
+			copyStart = block;
+			copyCount = 1;
+		}
+
+		void flushCopy() throws IOException {
+			if (copyStart >= 0) {
+				dos.writeByte(OP_COPY);
+				dos.writeInt(copyStart);
+				dos.writeInt(copyCount);
+				copyStart = -1;
+			}
+		}
+
+		void literal(byte[] aB, int off, int len) throws IOException {
+			if (len <= 0) {
+				return;
+			}
+			flushCopy();
+			for (int done = 0; done < len;) {
+				int n = Math.min(MAX_LITERAL, len - done);
+				dos.writeByte(OP_LITERAL);
+				dos.writeInt(n);
+				dos.write(aB, off + done, n);
+				done += n;
+			}
+			szLiteral += len;
+		}
+
+		void end(long total) throws IOException {
+			flushCopy();
+			dos.writeByte(OP_END);
+			dos.writeLong(total);
+			dos.flush();
+		}
+	}
+
+	/**
+	 * Rebuilds the new content from the base file and a delta.
+	 *
+	 * @return bytes written to os.
+	 */
+	public static long apply(File fileBase, InputStream isDelta, OutputStream os, int blockSize) throws IOException {
+		Objects.requireNonNull(fileBase, "base file");
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(isDelta, 64 << 10));
+		byte[] aB = new byte[Math.max(blockSize, MAX_LITERAL)];
+		long total = 0L;
+		try (RandomAccessFile raf = new RandomAccessFile(fileBase, "r")) {
+			long baseLen = raf.length();
+			while (true) {
+				int op = dis.readUnsignedByte();
+				if (op == OP_END) {
+					long totalExpect = dis.readLong();
+					if (totalExpect != total) {
+						throw new IOException(String.format("Delta length mismatch; rebuilt %d expect %d", total, totalExpect));
+					}
+					return total;
+				} else if (op == OP_COPY) {
+					int block = dis.readInt();
+					int count = dis.readInt();
+					long pos = (long) block * blockSize;
+					long len = Math.min((long) count * blockSize, baseLen - pos);
+					if (block < 0 || count <= 0 || pos >= baseLen || len <= 0L) {
+						throw new IOException(String.format("Bad delta copy block=%d count=%d baseLen=%d", block, count, baseLen));
+					}
+					raf.seek(pos);
+					for (long done = 0L; done < len;) {
+						int n = (int) Math.min(aB.length, len - done);
+						raf.readFully(aB, 0, n);
+						os.write(aB, 0, n);
+						done += n;
+					}
+					total += len;
+				} else if (op == OP_LITERAL) {
+					int len = dis.readInt();
+					if (len <= 0 || len > MAX_LITERAL) {
+						throw new IOException("Bad delta literal length " + len);
+					}
+					dis.readFully(aB, 0, len);
+					os.write(aB, 0, len);
+					total += len;
+				} else {
+					throw new IOException("Bad delta op " + op);
+				}
+			}
+		}
+	}
+}
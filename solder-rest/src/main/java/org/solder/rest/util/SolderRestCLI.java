@@ -13,7 +13,11 @@ import java.util.TreeMap;
 import org.apache.commons.cli.Option;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.solder.rest.solder.BlobCache;
+import org.solder.rest.solder.RemoteRepoSync;
 import org.solder.rest.solder.RestRepoFileService;
+import org.solder.rest.solder.SChangeJournal;
+import org.solder.rest.solder.SLocalRepo;
 import org.solder.rest.solder.SRepoInfo;
 import org.solder.rest.solder.SUsageEntry;
 import org.solder.rest.solder.SolderGitClient;
@@ -45,6 +49,51 @@ public class SolderRestCLI  extends AbstractCLI {
 		options.addOption(
 				new Option("c", "cred", true, String.format("Cred File")));
 		
+		options.addOption(
+				new Option("d", "dio", true, String.format("Max files digested concurrently (default %d; use 1-2 for spinning disks)",SLocalRepo.DEFAULT_DIGEST_CONCURRENCY)));
+		
+		options.addOption(
+				new Option("u", "uio", true, String.format("Max blob uploads in flight per push (default %d)",RemoteRepoSync.DEFAULT_UPLOAD_CONCURRENCY)));
+		
+		options.addOption(
+				new Option("o", "cio", true, String.format("Max blob downloads/extractions in flight per checkout (default %d)",RemoteRepoSync.DEFAULT_CHECKOUT_CONCURRENCY)));
+		
+		options.addOption(
+				new Option("dd", "ddefer", true, String.format("New files of at least this many bytes are hashed while uploading (default %,d)",SLocalRepo.DEFAULT_DEFER_DIGEST_SIZE)));
+		
+		options.addOption(
+				new Option("ck", "chunk", true, String.format("Push files of at least this many bytes as content defined chunks (default off)")));
+		
+		options.addOption(
+				new Option("dl", "delta", true, String.format("Push changed files of at least this many bytes as a delta of their previous version (default %,d)",RemoteRepoSync.DEFAULT_DELTA_MIN_SIZE)));
+		
+		options.addOption(
+				new Option("ub", "ubatch", true, String.format("Byte budget of one multi-file upload request, 0 to disable (default %,d)",RemoteRepoSync.DEFAULT_UPLOAD_BATCH_BYTES)));
+		
+		options.addOption(
+				new Option("db", "dbatch", true, String.format("Byte budget of one multi-file checkout download request, 0 to disable (default %,d)",RemoteRepoSync.DEFAULT_DOWNLOAD_BATCH_BYTES)));
+		
+		options.addOption(
+				new Option("pu", "parts", true, String.format("Push files of at least this many bytes as resumable parts (default %,d)",RemoteRepoSync.DEFAULT_PART_UPLOAD_MIN_SIZE)));
+		
+		options.addOption(
+				new Option("fp", "findpending", true, String.format("Hash new files of at least this many bytes before asking the server for existing content (default %,d)",RemoteRepoSync.DEFAULT_FIND_PENDING_MIN_SIZE)));
+		
+		options.addOption(
+				new Option("rg", "range", true, String.format("Checkout unchunked files of at least this many bytes as resumable parallel ranges (default %,d)",RemoteRepoSync.DEFAULT_RANGE_MIN_SIZE)));
+		
+		options.addOption(
+				new Option("bc", "bcache", true, String.format("Machine wide blob cache directory checkouts copy from before downloading (default none)")));
+		
+		options.addOption(
+				new Option("bm", "bcachemax", true, String.format("Blob cache size bound in bytes (default %,d)",BlobCache.DEFAULT_MAX_BYTES)));
+		
+		options.addOption(
+				new Option("bl", "bcachelink", true, String.format("Hard link checked out files to the blob cache instead of copying: true/false (default false)")));
+		
+		options.addOption(
+				new Option("cz", "compress", true, String.format("Deflate compressible transfers on the wire: true/false (default %s)",WireCompression.DEFAULT_ENABLED)));
+		
 		
 	
 
@@ -72,6 +121,61 @@ public class SolderRestCLI  extends AbstractCLI {
 			fileCred = new File(cline.getOptionValue("cred"));
 			Validator.checkFile(fileCred,"Cred file");
 		}
+		
+		if (cline.hasOption("dio")) {
+			SLocalRepo.setDigestConcurrency(TypeConversion.asInt(cline.getOptionValue("dio")));
+		}
+		
+		if (cline.hasOption("uio")) {
+			RemoteRepoSync.setUploadConcurrency(TypeConversion.asInt(cline.getOptionValue("uio")));
+		}
+		
+		if (cline.hasOption("cio")) {
+			RemoteRepoSync.setCheckoutConcurrency(TypeConversion.asInt(cline.getOptionValue("cio")));
+		}
+		
+		if (cline.hasOption("ddefer")) {
+			SLocalRepo.setDeferDigestSize(Long.parseLong(cline.getOptionValue("ddefer")));
+		}
+		
+		if (cline.hasOption("chunk")) {
+			SLocalRepo.setChunkThreshold(Long.parseLong(cline.getOptionValue("chunk")));
+		}
+		
+		if (cline.hasOption("delta")) {
+			RemoteRepoSync.setDeltaMinSize(Long.parseLong(cline.getOptionValue("delta")));
+		}
+		
+		if (cline.hasOption("ubatch")) {
+			RemoteRepoSync.setUploadBatchBytes(Long.parseLong(cline.getOptionValue("ubatch")));
+		}
+		
+		if (cline.hasOption("dbatch")) {
+			RemoteRepoSync.setDownloadBatchBytes(Long.parseLong(cline.getOptionValue("dbatch")));
+		}
+		
+		if (cline.hasOption("parts")) {
+			RemoteRepoSync.setPartUploadMinSize(Long.parseLong(cline.getOptionValue("parts")));
+		}
+		
+		if (cline.hasOption("findpending")) {
+			RemoteRepoSync.setFindPendingMinSize(Long.parseLong(cline.getOptionValue("findpending")));
+		}
+		
+		if (cline.hasOption("range")) {
+			RemoteRepoSync.setRangeMinSize(Long.parseLong(cline.getOptionValue("range")));
+		}
+		
+		if (cline.hasOption("bcache")) {
+			long maxBytes = cline.hasOption("bcachemax") ? Long.parseLong(cline.getOptionValue("bcachemax"))
+					: BlobCache.DEFAULT_MAX_BYTES;
+			boolean fLink = cline.hasOption("bcachelink") && Boolean.parseBoolean(cline.getOptionValue("bcachelink"));
+			RemoteRepoSync.setBlobCache(new BlobCache(new File(cline.getOptionValue("bcache")), maxBytes, fLink));
+		}
+		
+		if (cline.hasOption("compress")) {
+			WireCompression.setEnabled(Boolean.parseBoolean(cline.getOptionValue("compress")));
+		}
 
 		if (cline.hasOption("git")) {
 			System.out.println("Git command");
@@ -110,7 +214,7 @@ public class SolderRestCLI  extends AbstractCLI {
 	// ALL Handlers are here..
 
 	
-	static final String[] git_Ops = { "create","checkout","push","init","status","search","delete","prune","orphan","usagereport","purge"};
+	static final String[] git_Ops = { "create","checkout","push","init","status","search","delete","prune","orphan","usagereport","purge","watch"};
 	
 	static final TreeMap<String,String> mapGitOpsHelp = new TreeMap<>();
 	static {
@@ -139,6 +243,8 @@ public class SolderRestCLI  extends AbstractCLI {
 				"Generates usage report for the repo (via REST). Params:repoId outDir. repoId: numeric also tried as sid.");
 		mapGitOpsHelp.put("purge",
 				"Purges an already deleted repo. Params:repoId [fDryRun]. repoId: numeric also tried as sid.");
+		mapGitOpsHelp.put("watch",
+				"Watch the local repo and journal changed paths so push skips the full tree walk. Runs until killed. Params:");
 	}
 	
 	private static RestClient client =null;
@@ -301,6 +407,14 @@ public class SolderRestCLI  extends AbstractCLI {
 				break;
 			}
 
+			case "watch": {
+				File fileCache = makeFile("");
+				logConsole("Watching: "+fileCache.getAbsolutePath());
+				Validator.checkDir(fileCache, false,"Git Cache");
+				SChangeJournal.watch(fileCache, () -> Thread.currentThread().isInterrupted());
+				break;
+			}
+
 			case "prune": {
 				initSolder("SolderRestCLIPrune", null, null);
 				String repoId = args[nParam++];
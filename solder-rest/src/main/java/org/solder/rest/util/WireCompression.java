@@ -0,0 +1,272 @@
+package org.solder.rest.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Deflate on the wire for blob and commit transfers. Only the transfer is compressed: digests, dedup keys and
+ * stored blobs are always over the uncompressed bytes.
+ * <p>
+ * Uploads send {@link #PARAM_ENC} when the request body is deflated. Downloads requested with
+ * {@link #PARAM_ACCEPT_ENC} are framed: one byte ({@link #FRAME_RAW} or {@link #FRAME_DEFLATE}) then the content.
+ * A sample of the content is compressed first ({@link #isCompressible}) so already compressed data is sent as is.
+ */
+public final class WireCompression {
+
+	public static final String ENC_DEFLATE = "deflate";
+	public static final String PARAM_ENC = "enc";
+	public static final String PARAM_ACCEPT_ENC = "accept_enc";
+
+	public static final int FRAME_RAW = 0;
+	public static final int FRAME_DEFLATE = 1;
+
+	/** Bytes compressed to decide (from the start of the content). */
+	public static final int SNIFF_SIZE = 64 << 10;
+	/** Smaller content is sent raw. */
+	public static final long MIN_SIZE = 4L << 10;
+	/** The sample must deflate to at most this fraction of its size. */
+	public static final double MAX_RATIO = 0.9;
+
+	public static final boolean DEFAULT_ENABLED = true;
+
+	private static volatile boolean s_enabled = DEFAULT_ENABLED;
+
+	private WireCompression() {
+	}
+
+	public static boolean isEnabled() {
+		return s_enabled;
+	}
+
+	public static void setEnabled(boolean fEnabled) {
+		s_enabled = fEnabled;
+	}
+
+	/**
+	 * True if ENC_DEFLATE is in the comma separated list of encodings.
+	 */
+	public static boolean acceptsDeflate(String stEncodings) {
+		if (stEncodings == null) {
+			return false;
+		}
+		for (String enc : stEncodings.split(",")) {
+			if (ENC_DEFLATE.equalsIgnoreCase(enc.trim())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static boolean isCompressible(File file) throws IOException {
+		return isCompressible(file, 0L, file.length());
+	}
+
+	/**
+	 * Deflates up to SNIFF_SIZE bytes of file[off, off+len) at the wire level.
+	 */
+	public static boolean isCompressible(File file, long off, long len) throws IOException {
+		if (len < MIN_SIZE) {
+			return false;
+		}
+		byte[] aB = new byte[(int) Math.min(SNIFF_SIZE, len)];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(off);
+			raf.readFully(aB);
+		} catch (EOFException e) {
+			// Shrinking file: the upload fails on its own.
+			return false;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(aB);
+			deflater.finish();
+			byte[] aOut = new byte[aB.length];
+			long limit = (long) (aB.length * MAX_RATIO);
+			while (!deflater.finished()) {
+				deflater.deflate(aOut);
+				if (deflater.getBytesWritten() > limit) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Request body: deflates is as it is read.
+	 */
+	public static InputStream deflate(InputStream is) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		return new DeflaterInputStream(is, deflater, 64 << 10) {
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Request body received with PARAM_ENC.
+	 */
+	public static InputStream inflate(InputStream is, String enc) throws IOException {
+		if (!ENC_DEFLATE.equalsIgnoreCase(enc)) {
+			throw new IOException("Unsupported encoding " + enc);
+		}
+		return new InflaterInputStream(is, new Inflater(), 64 << 10) {
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Framed download response: the frame byte then the content, deflated if fDeflate. os is not closed.
+	 */
+	public static void writeFramed(InputStream is, OutputStream os, boolean fDeflate) throws IOException {
+		os.write(fDeflate ? FRAME_DEFLATE : FRAME_RAW);
+		if (!fDeflate) {
+			IOUtils.copy(is, os);
+			return;
+		}
+		try (OutputStream dos = deflating(os)) {
+			IOUtils.copy(is, dos);
+		}
+	}
+
+	/**
+	 * Deflates what is written into os (e.g. after a FRAME_DEFLATE byte). close() ends the deflated data but leaves
+	 * os open.
+	 */
+	public static OutputStream deflating(OutputStream os) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		return new DeflaterOutputStream(os, deflater, 64 << 10) {
+			boolean fClosed;
+
+			public void close() throws IOException {
+				if (fClosed) {
+					return;
+				}
+				fClosed = true;
+				try {
+					finish();
+					out.flush();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Writes the content of a framed response to out as it arrives. {@link #finish()} checks it was complete.
+	 * out is not closed.
+	 */
+	public static class FramedOutputStream extends OutputStream {
+		final OutputStream out;
+		int frame = -1;
+		Inflater inflater;
+		byte[] aBuf;
+
+		public FramedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] aB, int off, int len) throws IOException {
+			if (len <= 0) {
+				return;
+			}
+			if (frame < 0) {
+				frame = aB[off] & 0xFF;
+				off++;
+				len--;
+				if (frame == FRAME_DEFLATE) {
+					inflater = new Inflater();
+					aBuf = new byte[64 << 10];
+				} else if (frame != FRAME_RAW) {
+					throw new IOException("Unknown response frame " + frame);
+				}
+			}
+			if (inflater == null) {
+				out.write(aB, off, len);
+				return;
+			}
+			if (inflater.finished()) {
+				if (len > 0) {
+					throw new IOException("Data after end of deflated response");
+				}
+				return;
+			}
+			inflater.setInput(aB, off, len);
+			try {
+				while (!inflater.finished() && !inflater.needsInput()) {
+					int n = inflater.inflate(aBuf);
+					if (n > 0) {
+						out.write(aBuf, 0, n);
+					} else if (inflater.needsDictionary()) {
+						throw new IOException("Deflated response needs a dictionary");
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Bad deflated response", e);
+			}
+			if (inflater.finished() && inflater.getRemaining() > 0) {
+				throw new IOException("Data after end of deflated response");
+			}
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public boolean isDeflated() {
+			return frame == FRAME_DEFLATE;
+		}
+
+		public void finish() throws IOException {
+			if (frame < 0) {
+				throw new EOFException("Empty framed response");
+			}
+			if (inflater == null) {
+				return;
+			}
+			try {
+				if (!inflater.finished()) {
+					throw new EOFException("Truncated deflated response");
+				}
+			} finally {
+				inflater.end();
+			}
+		}
+
+		public void close() throws IOException {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.solder.rest.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Streaming XXH64 (seed 0 unless given). Non-cryptographic: change detection only, never integrity.
+ * Not thread safe; use one instance per stream.
+ */
+public final class XXHash64 {
+
+	static final long P1 = 0x9E3779B185EBCA87L;
+	static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	static final long P3 = 0x165667B19E3779F9L;
+	static final long P4 = 0x85EBCA77C2B2AE63L;
+	static final long P5 = 0x27D4EB2F165667C5L;
+
+	static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	final long seed;
+	long v1, v2, v3, v4;
+	long totalLen;
+	final byte[] aBMem = new byte[32];
+	int memSize;
+
+	public XXHash64() {
+		this(0L);
+	}
+
+	public XXHash64(long seed) {
+		this.seed = seed;
+		reset();
+	}
+
+	public XXHash64 reset() {
+		v1 = seed + P1 + P2;
+		v2 = seed + P2;
+		v3 = seed;
+		v4 = seed - P1;
+		totalLen = 0L;
+		memSize = 0;
+		return this;
+	}
+
+	static long round(long acc, long input) {
+		acc += input * P2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+
+	static long mergeRound(long acc, long val) {
+		acc ^= round(0L, val);
+		return acc * P1 + P4;
+	}
+
+	public void update(byte[] aB, int off, int len) {
+		Objects.checkFromIndexSize(off, len, aB.length);
+		totalLen += len;
+
+		if (memSize + len < 32) {
+			System.arraycopy(aB, off, aBMem, memSize, len);
+			memSize += len;
+			return;
+		}
+		int end = off + len;
+		if (memSize > 0) {
+			int fill = 32 - memSize;
+			System.arraycopy(aB, off, aBMem, memSize, fill);
+			stripe(aBMem, 0);
+			off += fill;
+			memSize = 0;
+		}
+		for (int limit = end - 32; off <= limit; off += 32) {
+			stripe(aB, off);
+		}
+		if (off < end) {
+			memSize = end - off;
+			System.arraycopy(aB, off, aBMem, 0, memSize);
+		}
+	}
+
+	/**
+	 * Consumes bb.remaining() bytes (heap, direct or mapped) without copying whole stripes.
+	 */
+	public void update(ByteBuffer bb) {
+		if (bb.hasArray()) {
+			update(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+			bb.position(bb.limit());
+			return;
+		}
+		int pos = bb.position();
+		int end = bb.limit();
+		int len = end - pos;
+		totalLen += len;
+
+		if (memSize + len < 32) {
+			bb.get(pos, aBMem, memSize, len);
+			memSize += len;
+			bb.position(end);
+			return;
+		}
+		if (memSize > 0) {
+			int fill = 32 - memSize;
+			bb.get(pos, aBMem, memSize, fill);
+			stripe(aBMem, 0);
+			pos += fill;
+			memSize = 0;
+		}
+		ByteOrder order = bb.order();
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			for (int limit = end - 32; pos <= limit; pos += 32) {
+				v1 = round(v1, bb.getLong(pos));
+				v2 = round(v2, bb.getLong(pos + 8));
+				v3 = round(v3, bb.getLong(pos + 16));
+				v4 = round(v4, bb.getLong(pos + 24));
+			}
+		} finally {
+			bb.order(order);
+		}
+		if (pos < end) {
+			memSize = end - pos;
+			bb.get(pos, aBMem, 0, memSize);
+		}
+		bb.position(end);
+	}
+
+	public void update(int b) {
+		aBMem[memSize++] = (byte) b;
+		totalLen++;
+		if (memSize == 32) {
+			stripe(aBMem, 0);
+			memSize = 0;
+		}
+	}
+
+	void stripe(byte[] aB, int off) {
+		v1 = round(v1, (long) LONG_LE.get(aB, off));
+		v2 = round(v2, (long) LONG_LE.get(aB, off + 8));
+		v3 = round(v3, (long) LONG_LE.get(aB, off + 16));
+		v4 = round(v4, (long) LONG_LE.get(aB, off + 24));
+	}
+
+	/** Bytes hashed so far. */
+	public long getLength() {
+		return totalLen;
+	}
+
+	/**
+	 * Hash of the bytes so far (the state is not modified).
+	 */
+	public long getValue() {
+		long h;
+		if (totalLen >= 32) {
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = mergeRound(h, v1);
+			h = mergeRound(h, v2);
+			h = mergeRound(h, v3);
+			h = mergeRound(h, v4);
+		} else {
+			h = seed + P5;
+		}
+		h += totalLen;
+
+		int off = 0;
+		for (; off + 8 <= memSize; off += 8) {
+			h ^= round(0L, (long) LONG_LE.get(aBMem, off));
+			h = Long.rotateLeft(h, 27) * P1 + P4;
+		}
+		if (off + 4 <= memSize) {
+			h ^= ((int) INT_LE.get(aBMem, off) & 0xFFFFFFFFL) * P1;
+			h = Long.rotateLeft(h, 23) * P2 + P3;
+			off += 4;
+		}
+		for (; off < memSize; off++) {
+			h ^= (aBMem[off] & 0xFFL) * P5;
+			h = Long.rotateLeft(h, 11) * P1;
+		}
+
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	public static long hash(byte[] aB, int off, int len) {
+		XXHash64 xxh = new XXHash64();
+		xxh.update(aB, off, len);
+		return xxh.getValue();
+	}
+
+	/**
+	 * Hashes everything read through it.
+	 */
+	public static class HashingInputStream extends FilterInputStream {
+		final XXHash64 xxh;
+
+		public HashingInputStream(InputStream in, XXHash64 xxh) {
+			super(in);
+			this.xxh = Objects.requireNonNull(xxh, "xxh");
+		}
+
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				xxh.update(b);
+			}
+			return b;
+		}
+
+		public int read(byte[] aB, int off, int len) throws IOException {
+			int n = in.read(aB, off, len);
+			if (n > 0) {
+				xxh.update(aB, off, n);
+			}
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			// Skipped bytes would be missing from the hash.
+			throw new IOException("skip not supported");
+		}
+
+		public boolean markSupported() {
+			return false;
+		}
+
+		public XXHash64 getHash() {
+			return xxh;
+		}
+	}
+
+	/**
+	 * Hashes everything written through it.
+	 */
+	public static class HashingOutputStream extends FilterOutputStream {
+		final XXHash64 xxh;
+
+		public HashingOutputStream(OutputStream out, XXHash64 xxh) {
+			super(out);
+			this.xxh = Objects.requireNonNull(xxh, "xxh");
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			xxh.update(b);
+		}
+
+		public void write(byte[] aB, int off, int len) throws IOException {
+			out.write(aB, off, len);
+			xxh.update(aB, off, len);
+		}
+
+		public XXHash64 getHash() {
+			return xxh;
+		}
+	}
+}